@@ -23,6 +23,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.alootcold.youtubedownloader.adapter.DownloadingAdapter;
 import com.alootcold.youtubedownloader.model.DownloadItem;
 import com.alootcold.youtubedownloader.service.DownloadService;
+import com.alootcold.youtubedownloader.service.VideoInfoFetcher;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -64,9 +65,11 @@ public class DownloadingActivity extends AppCompatActivity implements Downloadin
                 String downloadId = intent.getStringExtra(DownloadService.EXTRA_DOWNLOAD_ID);
                 int progress = intent.getIntExtra(DownloadService.EXTRA_PROGRESS, 0);
                 String eta = intent.getStringExtra(DownloadService.EXTRA_ETA);
+                int fragmentIndex = intent.getIntExtra(DownloadService.EXTRA_FRAGMENT_INDEX, 0);
+                int fragmentCount = intent.getIntExtra(DownloadService.EXTRA_FRAGMENT_COUNT, 0);
                 
                 if (adapter != null) {
-                    adapter.updateDownloadProgress(downloadId, progress, eta);
+                    adapter.updateDownloadProgress(downloadId, progress, eta, fragmentIndex, fragmentCount);
                 }
             } else if (DownloadService.ACTION_DOWNLOAD_COMPLETE.equals(action) ||
                      DownloadService.ACTION_DOWNLOAD_FAILED.equals(action) ||
@@ -211,16 +214,11 @@ public class DownloadingActivity extends AppCompatActivity implements Downloadin
             // 如果缺少缩略图，尝试使用默认YouTube缩略图
             if (item.getThumbnailUrl() == null || item.getThumbnailUrl().isEmpty()) {
                 try {
-                    String videoUrl = item.getUrl();
-                    if (videoUrl != null && !videoUrl.isEmpty()) {
-                        String youtubeId = extractYouTubeId(videoUrl);
-                        
-                        if (youtubeId != null && !youtubeId.isEmpty()) {
-                            // 使用YouTube默认缩略图URL
-                            String thumbnailUrl = "https://img.youtube.com/vi/" + youtubeId + "/0.jpg";
-                            item.setThumbnailUrl(thumbnailUrl);
-                            Log.d(TAG, "Fixed missing thumbnail: " + thumbnailUrl);
-                        }
+                    // 优先使用已缓存的探测结果，不会为补全缩略图启动新的提取进程
+                    String thumbnailUrl = VideoInfoFetcher.getInstance(this).resolveThumbnail(item);
+                    if (thumbnailUrl != null) {
+                        item.setThumbnailUrl(thumbnailUrl);
+                        Log.d(TAG, "Fixed missing thumbnail: " + thumbnailUrl);
                     }
                 } catch (Exception e) {
                     Log.e(TAG, "Error fixing thumbnail", e);
@@ -228,43 +226,4 @@ public class DownloadingActivity extends AppCompatActivity implements Downloadin
             }
         }
     }
-    
-    /**
-     * 从YouTube URL中提取视频ID
-     */
-    private String extractYouTubeId(String youtubeUrl) {
-        if (youtubeUrl == null || youtubeUrl.trim().isEmpty()) {
-            return null;
-        }
-        
-        String videoId = null;
-        
-        // 标准YouTube URL格式：https://www.youtube.com/watch?v=VIDEO_ID
-        if (youtubeUrl.contains("youtube.com/watch")) {
-            try {
-                android.net.Uri uri = android.net.Uri.parse(youtubeUrl);
-                videoId = uri.getQueryParameter("v");
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing YouTube URL", e);
-            }
-        } 
-        // 短链接格式：https://youtu.be/VIDEO_ID
-        else if (youtubeUrl.contains("youtu.be/")) {
-            try {
-                String[] parts = youtubeUrl.split("youtu\\.be/");
-                if (parts.length > 1) {
-                    videoId = parts[1];
-                    // 移除URL可能的参数
-                    int questionMarkPos = videoId.indexOf('?');
-                    if (questionMarkPos != -1) {
-                        videoId = videoId.substring(0, questionMarkPos);
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing YouTube short URL", e);
-            }
-        }
-        
-        return videoId;
-    }
 } 
\ No newline at end of file
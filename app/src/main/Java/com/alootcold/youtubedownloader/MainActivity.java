@@ -15,13 +15,13 @@ import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.IBinder;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -31,7 +31,13 @@ import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
 
+import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.service.AudioPipeline;
 import com.alootcold.youtubedownloader.service.DownloadService;
+import com.alootcold.youtubedownloader.service.YtDlpWorkerPool;
+import com.alootcold.youtubedownloader.util.HistoryRetention;
+import com.alootcold.youtubedownloader.util.PreferenceManager;
+import com.alootcold.youtubedownloader.util.YouTubeUrlUtils;
 import com.yausername.youtubedl_android.YoutubeDL;
 import com.yausername.youtubedl_android.YoutubeDLException;
 
@@ -41,23 +47,23 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntFunction;
 import java.lang.reflect.Method;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
     private static final int REQUEST_STORAGE_PERMISSION = 101;
-    private static final int REQUEST_MANAGE_EXTERNAL_STORAGE = 102;
-    private static final int REQUEST_MEDIA_PERMISSION = 103;
     private static final int REQUEST_PICK_COOKIES_FILE = 104;
-    // Android 13 (API 33) 的常量定义
-    private static final int TIRAMISU = 33;
     
     private EditText urlEditText;
     private Button downloadButton;
     private ProgressBar progressBar;
     private TextView statusTextView;
     private Spinner formatSpinner;
+    private CheckBox subtitleCheckBox;
+    private EditText clipStartEditText;
+    private EditText clipEndEditText;
     
     private DownloadService downloadService;
     private boolean bound = false;
@@ -83,39 +89,15 @@ public class MainActivity extends AppCompatActivity {
         progressBar = findViewById(R.id.progressBar);
         statusTextView = findViewById(R.id.statusTextView);
         formatSpinner = findViewById(R.id.formatSpinner);
+        subtitleCheckBox = findViewById(R.id.subtitleCheckBox);
+        clipStartEditText = findViewById(R.id.clipStartEditText);
+        clipEndEditText = findViewById(R.id.clipEndEditText);
         
         // 设置格式选项
         setupFormatSpinner();
         
-        // 主动请求权限，特别强调Android 13+的媒体权限
-        if (Build.VERSION.SDK_INT >= TIRAMISU) {
-            // 直接请求媒体权限
-            String[] permissions = {
-                    Manifest.permission.READ_MEDIA_VIDEO,
-                    Manifest.permission.READ_MEDIA_IMAGES
-            };
-            
-            List<String> permissionsToRequest = new ArrayList<>();
-            for (String permission : permissions) {
-                if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
-                    permissionsToRequest.add(permission);
-                }
-            }
-            
-            if (!permissionsToRequest.isEmpty()) {
-                ActivityCompat.requestPermissions(
-                        this,
-                        permissionsToRequest.toArray(new String[0]),
-                        REQUEST_MEDIA_PERMISSION
-                );
-            } else {
-                // 已有媒体权限，检查文件访问权限
-                checkAndRequestPermissions();
-            }
-        } else {
-            // 非Android 13+设备，使用常规权限检查
-            checkAndRequestPermissions();
-        }
+        // Android 10+通过MediaStore发布下载的文件，不需要存储权限；更早的版本仍需传统存储权限
+        checkAndRequestPermissions();
         
         downloadButton.setOnClickListener(v -> {
             try {
@@ -130,6 +112,14 @@ public class MainActivity extends AppCompatActivity {
                     Toast.makeText(this, "请输入YouTube视频URL", Toast.LENGTH_SHORT).show();
                     return;
                 }
+
+                // 粘贴了多个链接时走批量添加
+                List<String> urls = YouTubeUrlUtils.extractUrls(url);
+                if (urls.size() > 1) {
+                    String batchFormat = getSelectedFormat();
+                    startBatchDownload(urls, batchFormat != null ? batchFormat : "best");
+                    return;
+                }
                 
                 if (!isYouTubeUrl(url)) {
                     Toast.makeText(this, "请输入有效的YouTube URL", Toast.LENGTH_SHORT).show();
@@ -166,6 +156,34 @@ public class MainActivity extends AppCompatActivity {
         
         // 注册广播接收器
         registerBroadcastReceivers();
+
+        // 处理从其他应用分享过来的链接
+        handleShareIntent(getIntent());
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        handleShareIntent(intent);
+    }
+
+    /**
+     * 将分享的文本中的YouTube链接填入输入框，多个链接时点击下载即可批量添加
+     */
+    private void handleShareIntent(Intent intent) {
+        if (intent == null || !Intent.ACTION_SEND.equals(intent.getAction())) {
+            return;
+        }
+        List<String> urls = YouTubeUrlUtils.extractUrls(intent.getStringExtra(Intent.EXTRA_TEXT));
+        if (urls.isEmpty()) {
+            Toast.makeText(this, "分享的内容中没有YouTube链接", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        urlEditText.setText(android.text.TextUtils.join("\n", urls));
+        if (urls.size() > 1) {
+            statusTextView.setText("已识别" + urls.size() + "个链接，选择格式后点击下载即可批量添加");
+        }
     }
     
     private void setupFormatSpinner() {
@@ -177,7 +195,9 @@ public class MainActivity extends AppCompatActivity {
         formatOptions.add("bestvideo[height<=1080]+bestaudio"); // 1080p
         formatOptions.add("bestvideo[height<=720]+bestaudio");  // 720p
         formatOptions.add("bestvideo[height<=480]+bestaudio");  // 480p
-        formatOptions.add("bestaudio[ext=m4a]");      // 仅音频 (M4A)
+        formatOptions.add(AudioPipeline.FORMAT_M4A);  // 仅音频 (M4A)
+        formatOptions.add(AudioPipeline.FORMAT_OPUS); // 仅音频 (Opus)
+        formatOptions.add(AudioPipeline.FORMAT_MP3);  // 仅音频 (MP3)
         
         List<String> formatDescriptions = new ArrayList<>();
         formatDescriptions.add("最佳综合质量 (自动调整)");
@@ -188,6 +208,8 @@ public class MainActivity extends AppCompatActivity {
         formatDescriptions.add("720p高清视频");
         formatDescriptions.add("480p标清视频");
         formatDescriptions.add("仅音频 (M4A格式)");
+        formatDescriptions.add("仅音频 (Opus格式)");
+        formatDescriptions.add("仅音频 (MP3格式，需转码)");
         
         // 显示格式选择提示
         TextView formatHintText = findViewById(R.id.formatHintText);
@@ -256,7 +278,9 @@ public class MainActivity extends AppCompatActivity {
                         case 4: return "bestvideo[height<=1080]+bestaudio";
                         case 5: return "bestvideo[height<=720]+bestaudio";
                         case 6: return "bestvideo[height<=480]+bestaudio";
-                        case 7: return "bestaudio[ext=m4a]";
+                        case 7: return AudioPipeline.FORMAT_M4A;
+                        case 8: return AudioPipeline.FORMAT_OPUS;
+                        case 9: return AudioPipeline.FORMAT_MP3;
                         default: return "best";
                     }
                 }
@@ -312,64 +336,11 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private boolean checkAndRequestPermissions() {
-        if (Build.VERSION.SDK_INT >= TIRAMISU) {
-            // Android 13+ (API 33+): 检查媒体权限
-            String[] permissions = {
-                    Manifest.permission.READ_MEDIA_VIDEO,
-                    Manifest.permission.READ_MEDIA_IMAGES
-            };
-            
-            List<String> permissionsToRequest = new ArrayList<>();
-            
-            for (String permission : permissions) {
-                if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
-                    permissionsToRequest.add(permission);
-                }
-            }
-            
-            if (!permissionsToRequest.isEmpty()) {
-                ActivityCompat.requestPermissions(
-                        this,
-                        permissionsToRequest.toArray(new String[0]),
-                        REQUEST_MEDIA_PERMISSION
-                );
-                return false;
-            }
-            
-            // 还需要检查MANAGE_EXTERNAL_STORAGE权限
-            if (!Environment.isExternalStorageManager()) {
-                try {
-                    Intent intent = new Intent();
-                    intent.setAction(android.provider.Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
-                    android.net.Uri uri = android.net.Uri.fromParts("package", getPackageName(), null);
-                    intent.setData(uri);
-                    startActivityForResult(intent, REQUEST_MANAGE_EXTERNAL_STORAGE);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to request MANAGE_EXTERNAL_STORAGE", e);
-                    Toast.makeText(this, "无法请求文件访问权限: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                }
-                return false;
-            }
-            
-            return true;
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            // Android 11+: 检查外部存储管理权限
-            if (!Environment.isExternalStorageManager()) {
-                try {
-                    Intent intent = new Intent();
-                    intent.setAction(android.provider.Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
-                    android.net.Uri uri = android.net.Uri.fromParts("package", getPackageName(), null);
-                    intent.setData(uri);
-                    startActivityForResult(intent, REQUEST_MANAGE_EXTERNAL_STORAGE);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to request MANAGE_EXTERNAL_STORAGE", e);
-                    Toast.makeText(this, "无法请求文件访问权限: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                }
-                return false;
-            }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // Android 10+: 下载文件写入应用自己的MediaStore条目，无需任何存储权限
             return true;
         } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            // Android 6-10: 检查传统存储权限
+            // Android 6-9: 检查传统存储权限
             String[] permissions = {
                     Manifest.permission.READ_EXTERNAL_STORAGE,
                     Manifest.permission.WRITE_EXTERNAL_STORAGE
@@ -402,7 +373,7 @@ public class MainActivity extends AppCompatActivity {
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         
-        if (requestCode == REQUEST_STORAGE_PERMISSION || requestCode == REQUEST_MEDIA_PERMISSION) {
+        if (requestCode == REQUEST_STORAGE_PERMISSION) {
             boolean allPermissionsGranted = true;
             
             for (int result : grantResults) {
@@ -415,36 +386,10 @@ public class MainActivity extends AppCompatActivity {
             if (allPermissionsGranted) {
                 Toast.makeText(this, "存储权限已授予", Toast.LENGTH_SHORT).show();
                 
-                // 如果是Android 13+，获取了媒体权限后，还需要检查文件管理权限
-                if (requestCode == REQUEST_MEDIA_PERMISSION && Build.VERSION.SDK_INT >= TIRAMISU) {
-                    if (!Environment.isExternalStorageManager()) {
-                        try {
-                            Intent intent = new Intent();
-                            intent.setAction(android.provider.Settings.ACTION_MANAGE_APP_ALL_FILES_ACCESS_PERMISSION);
-                            android.net.Uri uri = android.net.Uri.fromParts("package", getPackageName(), null);
-                            intent.setData(uri);
-                            startActivityForResult(intent, REQUEST_MANAGE_EXTERNAL_STORAGE);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to request MANAGE_EXTERNAL_STORAGE", e);
-                        }
-                    } else {
-                        // 权限获取后可以尝试重新初始化
-                        initYoutubeDL();
-                    }
-                } else {
-                    // 权限获取后可以尝试重新初始化
-                    initYoutubeDL();
-                }
+                // 权限获取后可以尝试重新初始化
+                initYoutubeDL();
             } else {
                 Toast.makeText(this, "需要存储权限才能下载视频", Toast.LENGTH_LONG).show();
-                
-                // 强制再次请求权限
-                if (requestCode == REQUEST_MEDIA_PERMISSION) {
-                    // 延迟一秒再次请求，避免用户感到困扰
-                    new Handler().postDelayed(() -> {
-                        checkAndRequestPermissions();
-                    }, 1000);
-                }
             }
         }
     }
@@ -453,15 +398,7 @@ public class MainActivity extends AppCompatActivity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         
-        if (requestCode == REQUEST_MANAGE_EXTERNAL_STORAGE) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && Environment.isExternalStorageManager()) {
-                Toast.makeText(this, "文件访问权限已授予", Toast.LENGTH_SHORT).show();
-                // 权限获取后可以尝试重新初始化
-                initYoutubeDL();
-            } else {
-                Toast.makeText(this, "需要文件访问权限才能下载视频", Toast.LENGTH_LONG).show();
-            }
-        } else if (requestCode == REQUEST_PICK_COOKIES_FILE && resultCode == RESULT_OK) {
+        if (requestCode == REQUEST_PICK_COOKIES_FILE && resultCode == RESULT_OK) {
             if (data != null && data.getData() != null) {
                 processCookiesFile(data.getData());
             }
@@ -489,6 +426,10 @@ public class MainActivity extends AppCompatActivity {
             intent.setAction(DownloadService.ACTION_START_DOWNLOAD);
             intent.putExtra(DownloadService.EXTRA_URL, url);
             intent.putExtra(DownloadService.EXTRA_FORMAT, format);
+            putSubtitleExtras(intent);
+            if (!putClipExtras(intent)) {
+                return;
+            }
             
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 try {
@@ -504,6 +445,8 @@ public class MainActivity extends AppCompatActivity {
             
             // 清空链接输入框
             urlEditText.setText("");
+            clipStartEditText.setText("");
+            clipEndEditText.setText("");
             
             statusTextView.setText("已开始下载...");
             Toast.makeText(this, "已开始下载，您可以在下载列表中查看进度", Toast.LENGTH_SHORT).show();
@@ -513,6 +456,67 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
+    /**
+     * 批量添加下载，链接的规范化、去重和探测都由下载服务完成
+     */
+    private void startBatchDownload(List<String> urls, String format) {
+        try {
+            Log.d(TAG, "Starting batch download for " + urls.size() + " urls with format: " + format);
+
+            Intent intent = new Intent(this, DownloadService.class);
+            intent.setAction(DownloadService.ACTION_START_BATCH_DOWNLOAD);
+            intent.putStringArrayListExtra(DownloadService.EXTRA_URLS, new ArrayList<>(urls));
+            intent.putExtra(DownloadService.EXTRA_FORMAT, format);
+            putSubtitleExtras(intent);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                startForegroundService(intent);
+            } else {
+                startService(intent);
+            }
+
+            urlEditText.setText("");
+            statusTextView.setText("正在解析" + urls.size() + "个链接...");
+        } catch (Exception e) {
+            Log.e(TAG, "Error in startBatchDownload", e);
+            Toast.makeText(this, "批量添加失败: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * 勾选了下载字幕时才带上字幕语言和格式，默认不下载字幕
+     */
+    private void putSubtitleExtras(Intent intent) {
+        if (subtitleCheckBox == null || !subtitleCheckBox.isChecked()) {
+            return;
+        }
+        PreferenceManager preferences = new PreferenceManager(this);
+        intent.putExtra(DownloadService.EXTRA_SUBTITLE_LANGUAGES, preferences.getSubtitleLanguages());
+        intent.putExtra(DownloadService.EXTRA_SUBTITLE_FORMAT, preferences.getSubtitleFormat());
+    }
+
+    /**
+     * 填写了片段结束时间时只下载该时间段，开始时间留空表示从头开始
+     *
+     * @return 时间无效时返回false
+     */
+    private boolean putClipExtras(Intent intent) {
+        String startText = clipStartEditText.getText().toString().trim();
+        String endText = clipEndEditText.getText().toString().trim();
+        if (startText.isEmpty() && endText.isEmpty()) {
+            return true;
+        }
+        long startMs = startText.isEmpty() ? 0 : DownloadItem.parseTimestamp(startText);
+        long endMs = DownloadItem.parseTimestamp(endText);
+        if (startMs < 0 || endMs <= startMs) {
+            Toast.makeText(this, "片段时间无效，请按 分:秒 填写，结束时间需晚于开始时间", Toast.LENGTH_LONG).show();
+            return false;
+        }
+        intent.putExtra(DownloadService.EXTRA_CLIP_START_MS, startMs);
+        intent.putExtra(DownloadService.EXTRA_CLIP_END_MS, endMs);
+        return true;
+    }
+
     private void registerBroadcastReceivers() {
         IntentFilter filter = new IntentFilter();
         filter.addAction(DownloadService.ACTION_DOWNLOAD_PROGRESS);
@@ -597,6 +601,179 @@ public class MainActivity extends AppCompatActivity {
                .show();
     }
     
+    /**
+     * 下载设置：并发分片数、所有下载共享的总带宽上限、字幕语言和历史记录保留策略
+     */
+    private void showDownloadSettingsDialog() {
+        PreferenceManager preferences = new PreferenceManager(this);
+        int fragments = preferences.getConcurrentFragments();
+        int limitKbps = preferences.getBandwidthLimitKbps();
+        String[] items = {
+                "并发分片数: " + (fragments > 0 ? String.valueOf(fragments) : "自动（按网络类型）"),
+                "总带宽上限: " + (limitKbps > 0 ? formatBandwidth(limitKbps) : "不限速"),
+                "字幕: " + preferences.getSubtitleLanguages() + " / " + preferences.getSubtitleFormat(),
+                "历史记录保留"
+        };
+        new android.app.AlertDialog.Builder(this)
+                .setTitle("下载设置")
+                .setItems(items, (dialog, which) -> {
+                    if (which == 0) {
+                        showConcurrentFragmentsDialog(preferences);
+                    } else if (which == 1) {
+                        showBandwidthLimitDialog(preferences);
+                    } else if (which == 2) {
+                        showSubtitleLanguagesDialog(preferences);
+                    } else {
+                        showHistoryRetentionDialog(preferences);
+                    }
+                })
+                .setNegativeButton("关闭", null)
+                .show();
+    }
+
+    private void showConcurrentFragmentsDialog(PreferenceManager preferences) {
+        final int[] values = {0, 1, 2, 4, 8, 16};
+        String[] labels = {"自动（WiFi 8 / 移动网络 4）", "1（不并发）", "2", "4", "8", "16"};
+        int checked = indexOf(values, preferences.getConcurrentFragments());
+        new android.app.AlertDialog.Builder(this)
+                .setTitle("并发分片数")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.setConcurrentFragments(values[which]);
+                    dialog.dismiss();
+                    Toast.makeText(this, "新设置将在下一个下载任务生效", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showBandwidthLimitDialog(PreferenceManager preferences) {
+        final int[] values = {0, 512, 1024, 2048, 5120, 10240};
+        String[] labels = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            labels[i] = values[i] > 0 ? formatBandwidth(values[i]) : "不限速";
+        }
+        int checked = indexOf(values, preferences.getBandwidthLimitKbps());
+        new android.app.AlertDialog.Builder(this)
+                .setTitle("总带宽上限（所有下载共享）")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.setBandwidthLimitKbps(values[which]);
+                    dialog.dismiss();
+                    Toast.makeText(this, "新设置将在下一个下载任务生效", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showSubtitleLanguagesDialog(PreferenceManager preferences) {
+        EditText input = new EditText(this);
+        input.setText(preferences.getSubtitleLanguages());
+        input.setHint("例如 zh-Hans,en");
+        new android.app.AlertDialog.Builder(this)
+                .setTitle("字幕语言（逗号分隔）")
+                .setView(input)
+                .setPositiveButton("下一步", (dialog, which) -> {
+                    String languages = input.getText().toString().trim();
+                    if (languages.isEmpty()) {
+                        Toast.makeText(this, "字幕语言不能为空", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    preferences.setSubtitleLanguages(languages);
+                    showSubtitleFormatDialog(preferences);
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showSubtitleFormatDialog(PreferenceManager preferences) {
+        final String[] formats = {"srt", "vtt"};
+        int checked = "vtt".equals(preferences.getSubtitleFormat()) ? 1 : 0;
+        new android.app.AlertDialog.Builder(this)
+                .setTitle("字幕格式")
+                .setSingleChoiceItems(formats, checked, (dialog, which) -> {
+                    preferences.setSubtitleFormat(formats[which]);
+                    dialog.dismiss();
+                    Toast.makeText(this, "新设置将在下一个下载任务生效", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    /**
+     * 历史记录保留策略：条数、时间、失败记录的保留时间和占用空间上限
+     */
+    private void showHistoryRetentionDialog(PreferenceManager preferences) {
+        HistoryRetention retention = preferences.getHistoryRetention();
+        String[] items = {
+                "最多保留: " + formatLimit(retention.getMaxItems(), " 条"),
+                "保留时间: " + formatLimit(retention.getMaxAgeDays(), " 天"),
+                "失败记录保留时间: " + formatLimit(retention.getFailedMaxAgeDays(), " 天"),
+                "占用空间上限: " + formatLimit(retention.getMaxMegabytes(), " MB")
+        };
+        new android.app.AlertDialog.Builder(this)
+                .setTitle("历史记录保留")
+                .setItems(items, (dialog, which) -> {
+                    if (which == 0) {
+                        showRetentionChoiceDialog(preferences, "最多保留", new int[]{0, 1000, 5000, 20000},
+                                " 条", retention.getMaxItems(), value -> new HistoryRetention(value,
+                                        retention.getMaxAgeDays(), retention.getFailedMaxAgeDays(),
+                                        retention.getMaxMegabytes()));
+                    } else if (which == 1) {
+                        showRetentionChoiceDialog(preferences, "保留时间", new int[]{0, 30, 90, 365},
+                                " 天", retention.getMaxAgeDays(), value -> new HistoryRetention(
+                                        retention.getMaxItems(), value, retention.getFailedMaxAgeDays(),
+                                        retention.getMaxMegabytes()));
+                    } else if (which == 2) {
+                        showRetentionChoiceDialog(preferences, "失败记录保留时间", new int[]{0, 1, 7, 30},
+                                " 天", retention.getFailedMaxAgeDays(), value -> new HistoryRetention(
+                                        retention.getMaxItems(), retention.getMaxAgeDays(), value,
+                                        retention.getMaxMegabytes()));
+                    } else {
+                        showRetentionChoiceDialog(preferences, "占用空间上限", new int[]{0, 8, 32, 128},
+                                " MB", retention.getMaxMegabytes(), value -> new HistoryRetention(
+                                        retention.getMaxItems(), retention.getMaxAgeDays(),
+                                        retention.getFailedMaxAgeDays(), value));
+                    }
+                })
+                .setNegativeButton("关闭", null)
+                .show();
+    }
+
+    private void showRetentionChoiceDialog(PreferenceManager preferences, String title, int[] values, String unit,
+                                           int current, IntFunction<HistoryRetention> update) {
+        String[] labels = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            labels[i] = formatLimit(values[i], unit);
+        }
+        new android.app.AlertDialog.Builder(this)
+                .setTitle(title)
+                .setSingleChoiceItems(labels, indexOf(values, current), (dialog, which) -> {
+                    preferences.setHistoryRetention(update.apply(values[which]));
+                    // 新策略立即生效，在历史写入线程中删除不再保留的记录
+                    preferences.compactDownloadHistory();
+                    dialog.dismiss();
+                    Toast.makeText(this, "已按新设置整理历史记录", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private static String formatLimit(int value, String unit) {
+        return value > 0 ? value + unit : "不限";
+    }
+
+    private static String formatBandwidth(int kbps) {
+        return kbps >= 1024 ? (kbps / 1024) + " MB/s" : kbps + " KB/s";
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
     /**
      * 更新YouTube-DL
      */
@@ -651,6 +828,8 @@ public class MainActivity extends AppCompatActivity {
                 // 使用找到的枚举值，带强制类型转换
                 Method updateMethod = YoutubeDL.class.getMethod("updateYoutubeDL", Context.class, updateChannelClass);
                 updateMethod.invoke(YoutubeDL.getInstance(), getApplication(), updateChannelEnum);
+                // 常驻进程中导入的仍是旧版本，结束后下次任务会用新版本重新启动
+                YtDlpWorkerPool.getInstance(getApplicationContext()).shutdown();
                 
                 handler.post(() -> {
                     statusTextView.setText("YouTube-DL已更新，请重试下载");
@@ -705,6 +884,14 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        MenuItem warmWorkerItem = menu.findItem(R.id.menu_warm_worker);
+        if (warmWorkerItem != null) {
+            warmWorkerItem.setChecked(new PreferenceManager(this).isWarmWorkerEnabled());
+        }
+        MenuItem nativeEngineItem = menu.findItem(R.id.menu_native_engine);
+        if (nativeEngineItem != null) {
+            nativeEngineItem.setChecked(new PreferenceManager(this).isNativeEngineEnabled());
+        }
         return true;
     }
 
@@ -721,6 +908,11 @@ public class MainActivity extends AppCompatActivity {
             Intent intent = new Intent(this, HistoryActivity.class);
             startActivity(intent);
             return true;
+        } else if (itemId == R.id.menu_stats) {
+            // 跳转到下载统计界面
+            Intent intent = new Intent(this, StatsActivity.class);
+            startActivity(intent);
+            return true;
         } else if (itemId == R.id.menu_download_list) {
             // 跳转到下载列表界面
             Intent intent = new Intent(this, DownloadingActivity.class);
@@ -738,6 +930,29 @@ public class MainActivity extends AppCompatActivity {
             // 更新YouTube-DL
             updateYoutubeDL();
             return true;
+        } else if (itemId == R.id.menu_download_settings) {
+            // 并发分片数和带宽上限
+            showDownloadSettingsDialog();
+            return true;
+        } else if (itemId == R.id.menu_warm_worker) {
+            // 切换常驻下载引擎进程模式
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            new PreferenceManager(this).setWarmWorkerEnabled(enabled);
+            if (enabled) {
+                YtDlpWorkerPool.getInstance(this).warmUp();
+            } else {
+                YtDlpWorkerPool.getInstance(this).shutdown();
+            }
+            Toast.makeText(this, enabled ? "已开启常驻下载引擎进程" : "已关闭常驻下载引擎进程", Toast.LENGTH_SHORT).show();
+            return true;
+        } else if (itemId == R.id.menu_native_engine) {
+            // 切换Java分段下载引擎：yt-dlp只解析直链，由应用内多连接下载
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            new PreferenceManager(this).setNativeEngineEnabled(enabled);
+            Toast.makeText(this, enabled ? "已开启Java分段下载引擎" : "已关闭Java分段下载引擎", Toast.LENGTH_SHORT).show();
+            return true;
         }
         
         return super.onOptionsItemSelected(item);
@@ -0,0 +1,128 @@
+package com.alootcold.youtubedownloader;
+
+import android.os.Bundle;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.alootcold.youtubedownloader.util.DownloadStats;
+
+import java.util.Locale;
+
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * 下载统计界面：按天、按格式和按阶段显示增量统计的结果
+ */
+public class StatsActivity extends AppCompatActivity {
+    private static final String TAG = "StatsActivity";
+    // 显示最近多少天的按天统计
+    private static final int RECENT_DAYS = 30;
+
+    private TextView statsTextView;
+    private Disposable loading;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_stats);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        statsTextView = findViewById(R.id.statsTextView);
+
+        // 统计只读几张很小的表，但仍然不在主线程读数据库
+        DownloadStats stats = DownloadStats.getInstance(this);
+        loading = Single.fromCallable(() -> stats.load(RECENT_DAYS))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(snapshot -> statsTextView.setText(format(snapshot)),
+                        throwable -> {
+                            Log.e(TAG, "Error loading download stats", throwable);
+                            statsTextView.setText("读取统计失败");
+                        });
+    }
+
+    private String format(DownloadStats.Snapshot snapshot) {
+        StringBuilder text = new StringBuilder();
+        DownloadStats.Bucket total = snapshot.getTotal();
+        text.append("总计\n");
+        if (total.getSucceeded() + total.getFailed() == 0) {
+            return text.append("还没有下载记录").toString();
+        }
+        appendBucket(text, total);
+
+        text.append("\n最近").append(RECENT_DAYS).append("天\n");
+        if (snapshot.getDays().isEmpty()) {
+            text.append("没有下载\n");
+        }
+        for (DownloadStats.Bucket day : snapshot.getDays()) {
+            text.append(day.getName()).append("  ");
+            appendBucket(text, day);
+        }
+
+        text.append("\n按格式\n");
+        for (DownloadStats.Bucket format : snapshot.getFormats()) {
+            text.append(format.getName()).append("  ");
+            appendBucket(text, format);
+        }
+
+        if (!snapshot.getPhases().isEmpty()) {
+            text.append("\n各阶段耗时（成功的下载）\n");
+            for (DownloadStats.Phase phase : snapshot.getPhases()) {
+                text.append(phase.getName())
+                        .append("  共 ").append(formatDuration(phase.getTotalMs()))
+                        .append(" · 平均 ").append(formatDuration(phase.getAverageMs()))
+                        .append(" · ").append(phase.getCount()).append(" 次\n");
+            }
+        }
+        return text.toString();
+    }
+
+    private void appendBucket(StringBuilder text, DownloadStats.Bucket bucket) {
+        text.append("成功 ").append(bucket.getSucceeded())
+                .append(" · 失败 ").append(bucket.getFailed())
+                .append(" · 成功率 ").append(Math.round(bucket.getSuccessRate() * 100)).append('%');
+        if (bucket.getBytes() > 0) {
+            text.append(" · ").append(Formatter.formatShortFileSize(this, bucket.getBytes()));
+        }
+        if (bucket.getAverageSpeed() > 0) {
+            text.append(" · 平均 ").append(Formatter.formatShortFileSize(this, bucket.getAverageSpeed())).append("/s");
+        }
+        text.append('\n');
+    }
+
+    private static String formatDuration(long ms) {
+        return String.format(Locale.US, "%.1fs", ms / 1000.0);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (loading != null) {
+            loading.dispose();
+        }
+    }
+}
\ No newline at end of file
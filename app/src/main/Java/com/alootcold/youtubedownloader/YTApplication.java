@@ -1,15 +1,13 @@
 package com.alootcold.youtubedownloader;
 
-import android.Manifest;
 import android.app.Application;
-import android.content.pm.PackageManager;
-import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.StatFs;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.alootcold.youtubedownloader.util.PreferenceManager;
 import com.yausername.ffmpeg.FFmpeg;
 import com.yausername.youtubedl_android.YoutubeDL;
 import com.yausername.youtubedl_android.YoutubeDLException;
@@ -20,8 +18,6 @@ import io.reactivex.exceptions.UndeliverableException;
 import io.reactivex.plugins.RxJavaPlugins;
 import io.reactivex.schedulers.Schedulers;
 
-import androidx.core.content.ContextCompat;
-
 import java.io.File;
 
 public class YTApplication extends Application {
@@ -36,6 +32,18 @@ public class YTApplication extends Application {
         
         configureRxJavaErrorHandler();
         initYoutubeDL();
+        compactDownloadHistory();
+    }
+
+    /**
+     * 启动时按保留策略压缩下载历史（每天最多一次），实际的删除在历史写入线程中执行
+     */
+    private void compactDownloadHistory() {
+        Completable.fromAction(() -> new PreferenceManager(this).compactDownloadHistoryIfDue())
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        () -> Log.d(TAG, "History compaction checked"),
+                        e -> Log.e(TAG, "Error scheduling history compaction", e));
     }
 
     private void configureRxJavaErrorHandler() {
@@ -66,13 +74,6 @@ public class YTApplication extends Application {
                 try {
                     Log.d(TAG, "Attempting to initialize YouTube-DL (attempt " + (retryCount + 1) + ")");
                     
-                    // 检查存储权限
-                    if (!checkStoragePermission()) {
-                        String errorMsg = "缺少存储权限，请授予应用存储权限";
-                        Log.e(TAG, errorMsg);
-                        throw new SecurityException(errorMsg);
-                    }
-
                     // 检查存储空间
                     if (!checkStorageSpace()) {
                         String errorMsg = "存储空间不足，请确保有至少100MB可用空间";
@@ -176,12 +177,11 @@ public class YTApplication extends Application {
                                 "最后错误: " + lastException.getMessage() + "\n" +
                                 "错误堆栈: " + Log.getStackTraceString(lastException) + "\n" +
                                 "请检查：\n" +
-                                "1. 存储权限是否已授予\n" +
-                                "2. 存储空间是否充足\n" +
-                                "3. 应用数据是否完整\n" +
-                                "4. 网络连接是否正常\n" +
-                                "5. lib目录是否可访问\n" +
-                                "6. Python库文件是否存在";
+                                "1. 存储空间是否充足\n" +
+                                "2. 应用数据是否完整\n" +
+                                "3. 网络连接是否正常\n" +
+                                "4. lib目录是否可访问\n" +
+                                "5. Python库文件是否存在";
                 Log.e(TAG, errorMsg, lastException);
                 throw new YoutubeDLException(errorMsg, lastException);
             }
@@ -202,34 +202,6 @@ public class YTApplication extends Application {
         );
     }
 
-    private boolean checkStoragePermission() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) { // Android 13+
-            boolean hasVideoPermission = ContextCompat.checkSelfPermission(this, Manifest.permission.READ_MEDIA_VIDEO) 
-                == PackageManager.PERMISSION_GRANTED;
-            boolean hasImagePermission = ContextCompat.checkSelfPermission(this, Manifest.permission.READ_MEDIA_IMAGES) 
-                == PackageManager.PERMISSION_GRANTED;
-            Log.d(TAG, "Android 13+: 视频权限: " + (hasVideoPermission ? "已授予" : "未授予") + 
-                      ", 图片权限: " + (hasImagePermission ? "已授予" : "未授予"));
-            return hasVideoPermission && hasImagePermission;
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) { // Android 11-12
-            boolean hasReadPermission = ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) 
-                == PackageManager.PERMISSION_GRANTED;
-            boolean hasWritePermission = ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) 
-                == PackageManager.PERMISSION_GRANTED;
-            Log.d(TAG, "Android 11-12: 读取权限: " + (hasReadPermission ? "已授予" : "未授予") + 
-                      ", 写入权限: " + (hasWritePermission ? "已授予" : "未授予"));
-            return hasReadPermission && hasWritePermission;
-        } else { // Android 10及以下
-            boolean hasReadPermission = ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) 
-                == PackageManager.PERMISSION_GRANTED;
-            boolean hasWritePermission = ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) 
-                == PackageManager.PERMISSION_GRANTED;
-            Log.d(TAG, "Android 10及以下: 读取权限: " + (hasReadPermission ? "已授予" : "未授予") + 
-                      ", 写入权限: " + (hasWritePermission ? "已授予" : "未授予"));
-            return hasReadPermission && hasWritePermission;
-        }
-    }
-
     private boolean checkStorageSpace() {
         File path = Environment.getExternalStorageDirectory();
         StatFs stat = new StatFs(path.getPath());
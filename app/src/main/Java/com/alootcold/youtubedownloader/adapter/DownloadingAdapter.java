@@ -1,5 +1,6 @@
 package com.alootcold.youtubedownloader.adapter;
 
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,6 +18,7 @@ import com.bumptech.glide.Glide;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.DownloadViewHolder> {
 
@@ -60,13 +62,22 @@ public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.
     }
 
     public void updateDownloadProgress(String videoId, int progress, String eta) {
+        updateDownloadProgress(videoId, progress, eta, 0, 0);
+    }
+
+    public void updateDownloadProgress(String videoId, int progress, String eta, int fragmentIndex, int fragmentCount) {
         boolean found = false;
         for (int i = 0; i < downloadItems.size(); i++) {
             DownloadItem item = downloadItems.get(i);
             if (item.getId().equals(videoId)) {
-                if (Math.abs(item.getProgress() - progress) >= 1) {
+                // 分片下载时百分比变化较慢，分片推进也需要刷新
+                boolean fragmentChanged = fragmentCount > 0 && item.getFragmentIndex() != fragmentIndex;
+                if (Math.abs(item.getProgress() - progress) >= 1 || fragmentChanged) {
                     item.setProgress(progress);
                     item.setEta(eta);
+                    if (fragmentCount > 0) {
+                        item.setFragmentProgress(fragmentIndex, fragmentCount);
+                    }
                     notifyItemChanged(i, new Object[]{"progress"});
                 }
                 found = true;
@@ -163,6 +174,7 @@ public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.
         private final TextView titleTextView;
         private final TextView statusTextView;
         private final TextView percentTextView;
+        private final TextView clipInfoTextView;
         private final ProgressBar progressBar;
         private final Button pauseResumeButton;
         private final Button cancelButton;
@@ -173,6 +185,7 @@ public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.
             titleTextView = itemView.findViewById(R.id.titleTextView);
             statusTextView = itemView.findViewById(R.id.statusTextView);
             percentTextView = itemView.findViewById(R.id.percentTextView);
+            clipInfoTextView = itemView.findViewById(R.id.clipInfoTextView);
             progressBar = itemView.findViewById(R.id.progressBar);
             pauseResumeButton = itemView.findViewById(R.id.pauseResumeButton);
             cancelButton = itemView.findViewById(R.id.cancelButton);
@@ -185,6 +198,7 @@ public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.
             
             percentTextView.setVisibility(View.VISIBLE);
             progressBar.setVisibility(View.VISIBLE);
+            updateClipInfo(item);
             
             if (item.isCompleted()) {
                 statusTextView.setText(itemView.getContext().getString(R.string.download_complete));
@@ -194,11 +208,41 @@ public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.
             } else {
                 String etaText = item.getEta();
                 if (etaText != null && !etaText.isEmpty()) {
-                    statusTextView.setText(itemView.getContext().getString(R.string.downloading) + " - 剩余时间: " + etaText);
+                    statusTextView.setText(itemView.getContext().getString(R.string.downloading) + " - 剩余时间: " + etaText
+                            + formatFragmentProgress(item));
                 }
             }
         }
 
+        /**
+         * 片段下载：显示时间段和相对完整视频节省的流量
+         */
+        private void updateClipInfo(DownloadItem item) {
+            if (!item.isClip()) {
+                clipInfoTextView.setVisibility(View.GONE);
+                return;
+            }
+            String text = "片段 " + formatTime(item.getClipStartMs()) + "-" + formatTime(item.getClipEndMs());
+            if (item.getSavedBytes() > 0) {
+                text += " · 节省约 " + Formatter.formatShortFileSize(itemView.getContext(), item.getSavedBytes())
+                        + "（完整视频约 " + Formatter.formatShortFileSize(itemView.getContext(), item.getFullSizeBytes()) + "）";
+            }
+            clipInfoTextView.setText(text);
+            clipInfoTextView.setVisibility(View.VISIBLE);
+        }
+
+        private String formatTime(long ms) {
+            long seconds = ms / 1000;
+            return String.format(Locale.US, "%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+
+        private String formatFragmentProgress(DownloadItem item) {
+            if (item.getFragmentCount() <= 0) {
+                return "";
+            }
+            return " · 分片 " + item.getFragmentIndex() + "/" + item.getFragmentCount();
+        }
+
         void bind(DownloadItem item) {
             titleTextView.setText(item.getTitle());
             
@@ -220,7 +264,8 @@ public class DownloadingAdapter extends RecyclerView.Adapter<DownloadingAdapter.
             } else {
                 String etaText = item.getEta();
                 if (etaText != null && !etaText.isEmpty()) {
-                    statusTextView.setText(itemView.getContext().getString(R.string.downloading) + " - 剩余时间: " + etaText);
+                    statusTextView.setText(itemView.getContext().getString(R.string.downloading) + " - 剩余时间: " + etaText
+                            + formatFragmentProgress(item));
                 } else {
                     statusTextView.setText(R.string.downloading);
                 }
@@ -1,5 +1,8 @@
 package com.alootcold.youtubedownloader.adapter;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,18 +14,75 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.alootcold.youtubedownloader.R;
 import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.util.HistoryChange;
 import com.bumptech.glide.Glide;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * 分页加载的历史列表：只知道总数，滚动到哪一页才在后台线程读取哪一页，并预取下一页；
+ * 内存中最多保留MAX_RESIDENT_ITEMS条，离开可见区域的记录会被丢弃，历史再多占用的内存也是固定的。
+ * 历史变化时按applyChange传入的增量原地插入、更新或删除，只有无法确定位置时才重新读取
+ */
 public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryViewHolder> {
+    private static final String TAG = "HistoryAdapter";
+    private static final int PAGE_SIZE = 50;
+    // 滚动到距离页尾还有这么多条时开始预取下一页
+    private static final int PREFETCH_DISTANCE = 15;
+    private static final int MAX_RESIDENT_ITEMS = 6 * PAGE_SIZE;
+
+    /**
+     * 数据来源，count和loadPage在后台线程中调用
+     */
+    public interface PageLoader {
+        int count();
+
+        List<DownloadItem> loadPage(int offset, int limit);
+
+        /**
+         * 记录是否应该出现在这个列表中，用于判断增量修改
+         */
+        boolean matches(DownloadItem item);
+    }
+
+    /**
+     * 总数变化时在主线程中调用，用于切换空列表提示
+     */
+    public interface OnCountListener {
+        void onCount(int count);
+    }
 
-    private final List<DownloadItem> historyItems = new ArrayList<>();
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "history-pager"));
+    // 位置 -> 已读取的记录，只包含可见区域附近的位置
+    private TreeMap<Integer, DownloadItem> resident = new TreeMap<>();
+    private final Set<Integer> loadingPages = new HashSet<>();
+    private final PageLoader pageLoader;
+    private OnCountListener countListener;
+    private int itemCount;
+    private int lastBoundPosition;
+    private boolean refreshPending;
+    // 刷新或插入删除后加一，丢弃之前发出的页请求的结果（位置已经变了）
+    private int generation;
+
+    public HistoryAdapter(PageLoader pageLoader, OnCountListener countListener) {
+        this.pageLoader = pageLoader;
+        this.countListener = countListener;
+    }
 
     @NonNull
     @Override
@@ -34,19 +94,255 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryV
 
     @Override
     public void onBindViewHolder(@NonNull HistoryViewHolder holder, int position) {
-        DownloadItem item = historyItems.get(position);
-        holder.bind(item);
+        lastBoundPosition = position;
+        int page = position / PAGE_SIZE;
+        DownloadItem item = resident.get(position);
+        if (item == null) {
+            holder.bindPlaceholder();
+            requestPage(page);
+        } else {
+            holder.bind(item);
+        }
+        if (position % PAGE_SIZE >= PAGE_SIZE - PREFETCH_DISTANCE && (page + 1) * PAGE_SIZE < itemCount) {
+            requestPage(page + 1);
+        }
     }
 
     @Override
     public int getItemCount() {
-        return historyItems.size();
+        return itemCount;
+    }
+
+    /**
+     * 重新读取总数和当前保留的各页，读取完成后一次性替换，刷新过程中列表不会闪烁
+     */
+    public void refresh() {
+        Set<Integer> residentPages = new TreeSet<>();
+        for (int position : resident.keySet()) {
+            residentPages.add(position / PAGE_SIZE);
+        }
+        if (residentPages.isEmpty()) {
+            residentPages.add(0);
+        }
+        refresh(residentPages);
+    }
+
+    /**
+     * 数据来源的条件变了（例如搜索词），从第一页重新读取
+     */
+    public void reload() {
+        refresh(Collections.singleton(0));
     }
 
-    public void updateHistoryItems(List<DownloadItem> items) {
-        historyItems.clear();
-        historyItems.addAll(items);
-        notifyDataSetChanged();
+    private void refresh(Set<Integer> residentPages) {
+        int refreshGeneration = ++generation;
+        refreshPending = true;
+        loadingPages.clear();
+        loadExecutor.execute(() -> {
+            try {
+                int count = pageLoader.count();
+                TreeMap<Integer, DownloadItem> loaded = new TreeMap<>();
+                for (int page : residentPages) {
+                    if (page * PAGE_SIZE < count) {
+                        putPage(loaded, page, pageLoader.loadPage(page * PAGE_SIZE, PAGE_SIZE));
+                    }
+                }
+                mainHandler.post(() -> {
+                    if (refreshGeneration != generation) {
+                        return;
+                    }
+                    refreshPending = false;
+                    resident = loaded;
+                    itemCount = count;
+                    notifyDataSetChanged();
+                    notifyCount();
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Error refreshing history", e);
+                // 保留当前内容，之后的变化照常增量应用，不会一直退回到刷新
+                mainHandler.post(() -> {
+                    if (refreshGeneration == generation) {
+                        refreshPending = false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 应用一次历史变化，在主线程中调用
+     * 新记录通常是最新的，直接插到顶部；已加载的记录原地更新或删除；
+     * 涉及没有加载的位置时无法知道具体位置，退回到refresh
+     */
+    public void applyChange(HistoryChange change) {
+        // 正在刷新时当前的位置都会被替换，增量没有意义，重新刷新一次即可
+        if (change.isCleared() || refreshPending) {
+            refresh();
+            return;
+        }
+        boolean needsRefresh = false;
+        for (String id : change.getRemoved()) {
+            int position = findPosition(id);
+            if (position >= 0) {
+                removeAt(position);
+            } else {
+                // 不知道被删除的记录在不在这个列表中
+                needsRefresh = true;
+            }
+        }
+        for (DownloadItem item : change.getUpdated()) {
+            int position = findPosition(item.getId());
+            if (position >= 0) {
+                if (pageLoader.matches(item)) {
+                    resident.put(position, item);
+                    notifyItemChanged(position);
+                } else {
+                    removeAt(position);
+                }
+            } else if (pageLoader.matches(item)) {
+                // 例如失败的记录重试成功后才出现在已完成列表中
+                needsRefresh = true;
+            }
+        }
+        for (DownloadItem item : change.getInserted()) {
+            if (pageLoader.matches(item) && !insert(item)) {
+                needsRefresh = true;
+            }
+        }
+        if (needsRefresh) {
+            refresh();
+        } else {
+            notifyCount();
+        }
+    }
+
+    /**
+     * 列表销毁时调用，停止后台加载
+     */
+    public void release() {
+        generation++;
+        countListener = null;
+        loadExecutor.shutdownNow();
+    }
+
+    private void requestPage(int page) {
+        if (isPageResident(page) || !loadingPages.add(page) || loadExecutor.isShutdown()) {
+            return;
+        }
+        int requestGeneration = generation;
+        loadExecutor.execute(() -> {
+            List<DownloadItem> items;
+            try {
+                items = pageLoader.loadPage(page * PAGE_SIZE, PAGE_SIZE);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading history page " + page, e);
+                items = new ArrayList<>();
+            }
+            List<DownloadItem> loaded = items;
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                loadingPages.remove(page);
+                putPage(resident, page, loaded);
+                evict();
+                int start = page * PAGE_SIZE;
+                notifyItemRangeChanged(start, Math.max(0, Math.min(PAGE_SIZE, itemCount - start)));
+            });
+        });
+    }
+
+    private boolean isPageResident(int page) {
+        int start = page * PAGE_SIZE;
+        int end = Math.min(start + PAGE_SIZE, itemCount);
+        return start < end && resident.subMap(start, end).size() == end - start;
+    }
+
+    private static void putPage(TreeMap<Integer, DownloadItem> target, int page, List<DownloadItem> items) {
+        for (int i = 0; i < items.size(); i++) {
+            target.put(page * PAGE_SIZE + i, items.get(i));
+        }
+    }
+
+    /**
+     * 超过上限时从离当前位置最远的一端丢弃
+     */
+    private void evict() {
+        while (resident.size() > MAX_RESIDENT_ITEMS) {
+            int first = resident.firstKey();
+            int last = resident.lastKey();
+            resident.remove(lastBoundPosition - first > last - lastBoundPosition ? first : last);
+        }
+    }
+
+    private int findPosition(String id) {
+        for (Map.Entry<Integer, DownloadItem> entry : resident.entrySet()) {
+            if (entry.getValue().getId().equals(id)) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按时间倒序找到新记录的位置并插入；位置落在没有加载的区域时返回false
+     */
+    private boolean insert(DownloadItem item) {
+        if (itemCount == 0) {
+            insertAt(0, item);
+            return true;
+        }
+        int previous = -1;
+        for (Map.Entry<Integer, DownloadItem> entry : resident.entrySet()) {
+            int position = entry.getKey();
+            if (item.getDownloadDate() >= entry.getValue().getDownloadDate()) {
+                // 前一个位置也已加载（或者是顶部）时才能确定就插在这里
+                if (position == 0 || position == previous + 1) {
+                    insertAt(position, item);
+                    return true;
+                }
+                return false;
+            }
+            previous = position;
+        }
+        if (previous == itemCount - 1) {
+            insertAt(itemCount, item);
+            return true;
+        }
+        return false;
+    }
+
+    private void insertAt(int position, DownloadItem item) {
+        shiftFrom(position, 1);
+        resident.put(position, item);
+        itemCount++;
+        notifyItemInserted(position);
+    }
+
+    private void removeAt(int position) {
+        resident.remove(position);
+        shiftFrom(position + 1, -1);
+        itemCount--;
+        notifyItemRemoved(position);
+    }
+
+    /**
+     * 把position及之后的记录移动delta个位置，正在读取的页的位置已经失效，丢弃它们的结果
+     */
+    private void shiftFrom(int position, int delta) {
+        TreeMap<Integer, DownloadItem> shifted = new TreeMap<>(resident.headMap(position));
+        for (Map.Entry<Integer, DownloadItem> entry : resident.tailMap(position).entrySet()) {
+            shifted.put(entry.getKey() + delta, entry.getValue());
+        }
+        resident = shifted;
+        generation++;
+        loadingPages.clear();
+    }
+
+    private void notifyCount() {
+        if (countListener != null) {
+            countListener.onCount(itemCount);
+        }
     }
 
     class HistoryViewHolder extends RecyclerView.ViewHolder {
@@ -63,6 +359,17 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryV
             dateTextView = itemView.findViewById(R.id.dateTextView);
         }
 
+        /**
+         * 所在的页还没有读取完成
+         */
+        void bindPlaceholder() {
+            titleTextView.setText("");
+            statusTextView.setText("");
+            dateTextView.setText("");
+            Glide.with(itemView.getContext()).clear(thumbnailImageView);
+            thumbnailImageView.setImageResource(R.color.light_gray);
+        }
+
         void bind(DownloadItem item) {
             titleTextView.setText(item.getTitle());
             
@@ -71,9 +378,16 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.HistoryV
                         .load(item.getThumbnailUrl())
                         .placeholder(R.color.light_gray)
                         .into(thumbnailImageView);
+            } else {
+                // 复用的视图可能还显示着之前记录的缩略图
+                Glide.with(itemView.getContext()).clear(thumbnailImageView);
+                thumbnailImageView.setImageResource(R.color.light_gray);
             }
 
-            statusTextView.setText(R.string.download_complete);
+            // 有阶段耗时记录时一并显示，便于比较下载、后处理和移动各花了多少时间
+            String timings = item.formatPhaseTimings();
+            String complete = itemView.getContext().getString(R.string.download_complete);
+            statusTextView.setText(timings.isEmpty() ? complete : complete + " · " + timings);
             
             if (item.getDownloadDate() > 0) {
                 dateTextView.setText(dateFormat.format(new Date(item.getDownloadDate())));
@@ -75,12 +75,14 @@ public class DownloadingFragment extends Fragment implements DownloadingAdapter.
                         String videoId = intent.getStringExtra(DownloadService.EXTRA_DOWNLOAD_ID);
                         int progress = intent.getIntExtra(DownloadService.EXTRA_PROGRESS, 0);
                         String eta = intent.getStringExtra(DownloadService.EXTRA_ETA);
+                        int fragmentIndex = intent.getIntExtra(DownloadService.EXTRA_FRAGMENT_INDEX, 0);
+                        int fragmentCount = intent.getIntExtra(DownloadService.EXTRA_FRAGMENT_COUNT, 0);
                         if (adapter != null) {
-                            adapter.updateDownloadProgress(videoId, progress, eta);
+                            adapter.updateDownloadProgress(videoId, progress, eta, fragmentIndex, fragmentCount);
                         }
                         break;
                     case DownloadService.ACTION_DOWNLOAD_COMPLETE:
-                        DownloadItem item = (DownloadItem) intent.getSerializableExtra(DownloadService.EXTRA_DOWNLOAD_ITEM);
+                        DownloadItem item = intent.getParcelableExtra(DownloadService.EXTRA_DOWNLOAD_ITEM);
                         videoId = intent.getStringExtra(DownloadService.EXTRA_DOWNLOAD_ID);
                         
                         // 当接收到下载完成通知时，立即更新整个列表
@@ -1,67 +1,48 @@
 package com.alootcold.youtubedownloader.fragment;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
-import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.alootcold.youtubedownloader.R;
 import com.alootcold.youtubedownloader.adapter.HistoryAdapter;
 import com.alootcold.youtubedownloader.model.DownloadItem;
-import com.alootcold.youtubedownloader.service.DownloadService;
+import com.alootcold.youtubedownloader.util.HistorySearch;
 import com.alootcold.youtubedownloader.util.PreferenceManager;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.subjects.PublishSubject;
 
 public class HistoryFragment extends Fragment {
     private static final String TAG = "HistoryFragment";
-    private static final long REFRESH_INTERVAL = 5000; // 每5秒刷新一次
+    private static final long SEARCH_DEBOUNCE_MS = 300;
 
     private RecyclerView historyRecyclerView;
     private TextView emptyHistoryView;
     private Button clearHistoryButton;
     private HistoryAdapter adapter;
     private PreferenceManager preferenceManager;
-    private final Handler refreshHandler = new Handler();
-    private final Runnable refreshRunnable = new Runnable() {
-        @Override
-        public void run() {
-            loadHistory();
-            refreshHandler.postDelayed(this, REFRESH_INTERVAL);
-        }
-    };
-
-    private final BroadcastReceiver downloadReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (action != null) {
-                switch (action) {
-                    case DownloadService.ACTION_DOWNLOAD_COMPLETE:
-                    case DownloadService.ACTION_DOWNLOAD_FAILED:
-                        // 下载完成或失败时都刷新历史记录
-                        loadHistory();
-                        break;
-                }
-            }
-        }
-    };
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final PublishSubject<String> searchInput = PublishSubject.create();
+    // 当前搜索词，在适配器的后台线程中读取
+    private volatile String searchQuery;
 
     @Nullable
     @Override
@@ -77,104 +58,96 @@ public class HistoryFragment extends Fragment {
         historyRecyclerView = view.findViewById(R.id.historyRecyclerView);
         emptyHistoryView = view.findViewById(R.id.emptyHistoryView);
         clearHistoryButton = view.findViewById(R.id.clearHistoryButton);
+        EditText searchEditText = view.findViewById(R.id.searchEditText);
         
         preferenceManager = new PreferenceManager(requireContext());
         
         // 设置RecyclerView
         historyRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
-        adapter = new HistoryAdapter();
+        // 分页读取已完成的记录，列表只保留可见附近的几页
+        adapter = new HistoryAdapter(new HistoryAdapter.PageLoader() {
+            @Override
+            public int count() {
+                return preferenceManager.getDownloadHistoryCount(true, searchQuery);
+            }
+
+            @Override
+            public List<DownloadItem> loadPage(int offset, int limit) {
+                return preferenceManager.getDownloadHistoryPage(true, searchQuery, offset, limit);
+            }
+
+            @Override
+            public boolean matches(DownloadItem item) {
+                // 过滤掉未完成或标题为"正在获取视频信息..."的项，搜索时还要匹配搜索词
+                return item.isCompleted() && !"正在获取视频信息...".equals(item.getTitle())
+                        && HistorySearch.matches(item, searchQuery);
+            }
+        }, this::updateEmptyView);
         historyRecyclerView.setAdapter(adapter);
 
         // 设置清除按钮
         clearHistoryButton.setOnClickListener(v -> clearHistory());
 
-        // 注册广播接收器
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(DownloadService.ACTION_DOWNLOAD_COMPLETE);
-        filter.addAction(DownloadService.ACTION_DOWNLOAD_FAILED);
-        LocalBroadcastManager.getInstance(requireContext()).registerReceiver(downloadReceiver, filter);
+        // 订阅历史变化，只把增量应用到列表；没有变化时不做任何工作。先订阅再加载，加载期间的变化不会丢失
+        disposables.add(preferenceManager.observeDownloadHistory()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(change -> adapter.applyChange(change),
+                        throwable -> Log.e(TAG, "Error observing history", throwable)));
+
+        // 边输入边搜索：停止输入一小段时间后才查询，查询走全文索引
+        disposables.add(searchInput
+                .debounce(SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                .map(String::trim)
+                .distinctUntilChanged()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(query -> {
+                    searchQuery = query.isEmpty() ? null : query;
+                    adapter.reload();
+                    historyRecyclerView.scrollToPosition(0);
+                }, throwable -> Log.e(TAG, "Error searching history", throwable)));
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
 
-        // 首次加载历史记录
-        loadHistory();
-    }
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
 
-    @Override
-    public void onResume() {
-        super.onResume();
-        loadHistory();
-        startPeriodicRefresh();
-    }
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchInput.onNext(s.toString());
+            }
+        });
 
-    @Override
-    public void onPause() {
-        super.onPause();
-        stopPeriodicRefresh();
+        // 首次加载历史记录：总数和当前页在适配器的后台线程中读取，完成后回调updateEmptyView
+        adapter.refresh();
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        stopPeriodicRefresh();
-        LocalBroadcastManager.getInstance(requireContext()).unregisterReceiver(downloadReceiver);
-    }
-
-    private void startPeriodicRefresh() {
-        refreshHandler.postDelayed(refreshRunnable, REFRESH_INTERVAL);
+        disposables.clear();
+        adapter.release();
     }
 
-    private void stopPeriodicRefresh() {
-        refreshHandler.removeCallbacks(refreshRunnable);
-    }
-
-    private void loadHistory() {
-        try {
-            List<DownloadItem> historyItems = preferenceManager.getDownloadHistory();
-            Log.d(TAG, "Loaded " + historyItems.size() + " history items");
-            
-            // 过滤掉未完成或标题为"正在获取视频信息..."的项
-            List<DownloadItem> validItems = new ArrayList<>();
-            for (DownloadItem item : historyItems) {
-                if (!item.getTitle().equals("正在获取视频信息...") && item.isCompleted()) {
-                    validItems.add(item);
-                }
-            }
-            
-            if (isAdded() && getActivity() != null) {
-                requireActivity().runOnUiThread(() -> {
-                    try {
-                        if (adapter != null) {
-                            adapter.updateHistoryItems(validItems);
-                        }
-                        
-                        if (validItems.isEmpty()) {
-                            if (emptyHistoryView != null && historyRecyclerView != null) {
-                                emptyHistoryView.setVisibility(View.VISIBLE);
-                                historyRecyclerView.setVisibility(View.GONE);
-                            }
-                        } else {
-                            if (emptyHistoryView != null && historyRecyclerView != null) {
-                                emptyHistoryView.setVisibility(View.GONE);
-                                historyRecyclerView.setVisibility(View.VISIBLE);
-                            }
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error updating UI with history items", e);
-                    }
-                });
-            } else {
-                Log.w(TAG, "Fragment not attached, cannot update UI");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading history", e);
+    private void updateEmptyView(int count) {
+        if (emptyHistoryView == null || historyRecyclerView == null) {
+            return;
         }
+        emptyHistoryView.setText(searchQuery != null ? "没有匹配的历史记录" : "没有下载历史");
+        emptyHistoryView.setVisibility(count == 0 ? View.VISIBLE : View.GONE);
+        historyRecyclerView.setVisibility(count == 0 ? View.GONE : View.VISIBLE);
     }
 
     private void clearHistory() {
-        try {
-            preferenceManager.clearDownloadHistory();
-            loadHistory();
-        } catch (Exception e) {
-            Log.e(TAG, "Error clearing history", e);
-        }
+        // 清空可能需要先完成旧版历史的迁移，放到后台线程；提交后列表通过变化通知刷新
+        new Thread(() -> {
+            try {
+                preferenceManager.clearDownloadHistory().get();
+            } catch (Exception e) {
+                Log.e(TAG, "Error clearing history", e);
+            }
+        }).start();
     }
 } 
\ No newline at end of file
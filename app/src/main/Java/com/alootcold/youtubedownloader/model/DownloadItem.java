@@ -1,12 +1,31 @@
 package com.alootcold.youtubedownloader.model;
 
-import java.io.Serializable;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.alootcold.youtubedownloader.util.YouTubeUrlUtils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DownloadItem implements Parcelable {
+    // 任务序号以启动时间为种子，保证进程重启后生成的ID也不会与历史记录中的重复
+    private static final AtomicLong JOB_SEQUENCE = new AtomicLong(System.currentTimeMillis());
+
+    public static final String PHASE_DOWNLOAD = "下载";
+    public static final String PHASE_POST_PROCESS = "后处理";
+    public static final String PHASE_PUBLISH = "移动";
 
-public class DownloadItem implements Serializable {
     private String id;
+    private String videoId;
     private String url;
     private String title;
     private String thumbnailUrl;
+    // 上传者（频道名），来自探测结果，用于搜索历史
+    private String channel;
     private int progress;
     private String eta;
     private boolean completed;
@@ -14,6 +33,44 @@ public class DownloadItem implements Serializable {
     private long downloadDate;
     private String format;
     private String status;
+    // 并发下载的分片数，0表示使用全局设置
+    private int concurrentFragments;
+    // 需要下载的字幕语言（逗号分隔），为空表示不下载字幕
+    private String subtitleLanguages;
+    private String subtitleFormat;
+    // 片段下载的起止时间（毫秒），结束时间为0表示下载完整视频
+    private long clipStartMs;
+    private long clipEndMs;
+    // 片段下载时完整视频的预计大小和片段实际下载的大小，用于显示节省的流量
+    private long fullSizeBytes;
+    private long clipSizeBytes;
+    // 完成的文件大小，用于下载统计
+    private long fileSizeBytes;
+    // 各阶段耗时（毫秒），按发生顺序保存
+    private LinkedHashMap<String, Long> phaseTimings;
+    private transient long phaseStartedAt;
+    // 分片进度只在下载过程中有意义，不写入历史记录
+    private transient int fragmentIndex;
+    private transient int fragmentCount;
+
+    /**
+     * 在广播和进程间传递时使用DownloadItemCodec的二进制编码，transient字段不传递
+     */
+    public static final Creator<DownloadItem> CREATOR = new Creator<DownloadItem>() {
+        @Override
+        public DownloadItem createFromParcel(Parcel in) {
+            try {
+                return DownloadItemCodec.decode(in.createByteArray());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Malformed DownloadItem parcel", e);
+            }
+        }
+
+        @Override
+        public DownloadItem[] newArray(int size) {
+            return new DownloadItem[size];
+        }
+    };
 
     public DownloadItem(String id, String url, String title, String thumbnailUrl) {
         this.id = id;
@@ -30,7 +87,8 @@ public class DownloadItem implements Serializable {
     }
 
     public DownloadItem(String url, String format, String title, String status, boolean isDownload) {
-        this.id = String.valueOf(System.currentTimeMillis());
+        this.videoId = YouTubeUrlUtils.extractVideoId(url);
+        this.id = createId(videoId != null ? videoId : url, format);
         this.url = url;
         this.format = format;
         this.title = title;
@@ -43,6 +101,28 @@ public class DownloadItem implements Serializable {
         this.status = status;
     }
 
+    /**
+     * 生成下载任务ID：规范视频ID + 格式 + 任务序号
+     * 同一毫秒内加入的多个任务也不会冲突
+     */
+    public static String createId(String videoKey, String format) {
+        String source = videoKey != null && YouTubeUrlUtils.isValidVideoId(videoKey)
+                ? videoKey
+                : "url" + Integer.toHexString(String.valueOf(videoKey).hashCode());
+        return source + "_" + formatKey(format) + "_" + Long.toString(JOB_SEQUENCE.incrementAndGet(), 36);
+    }
+
+    /**
+     * 将格式字符串压缩为适合放进ID的形式，例如 bestvideo[height<=1080]+bestaudio -> bestvideo-height-1080-bestaudio
+     */
+    private static String formatKey(String format) {
+        if (format == null || format.isEmpty()) {
+            return "best";
+        }
+        String key = format.replaceAll("[^A-Za-z0-9]+", "-").replaceAll("^-+|-+$", "");
+        return key.isEmpty() ? "best" : key;
+    }
+
     public String getId() {
         return id;
     }
@@ -51,6 +131,29 @@ public class DownloadItem implements Serializable {
         this.id = id;
     }
 
+    /**
+     * 获取规范的YouTube视频ID，旧的历史记录中没有该字段时从URL中解析
+     */
+    public String getVideoId() {
+        if (videoId == null) {
+            videoId = YouTubeUrlUtils.extractVideoId(url);
+        }
+        return videoId;
+    }
+
+    void setVideoId(String videoId) {
+        this.videoId = videoId;
+    }
+
+    /**
+     * 去重键：同一视频、同一格式（片段下载还要同一时间段）的任务视为重复任务
+     */
+    public String getDedupeKey() {
+        String key = getVideoId();
+        String dedupeKey = (key != null ? key : url) + "|" + format;
+        return isClip() ? dedupeKey + "|" + clipStartMs + "-" + clipEndMs : dedupeKey;
+    }
+
     public String getUrl() {
         return url;
     }
@@ -75,6 +178,14 @@ public class DownloadItem implements Serializable {
         this.thumbnailUrl = thumbnailUrl;
     }
 
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
     /**
      * 设置下载进度
      * @param progress 下载进度，0-100
@@ -133,6 +244,169 @@ public class DownloadItem implements Serializable {
         this.format = format;
     }
 
+    public int getConcurrentFragments() {
+        return concurrentFragments;
+    }
+
+    public void setConcurrentFragments(int concurrentFragments) {
+        this.concurrentFragments = Math.max(0, concurrentFragments);
+    }
+
+    public String getSubtitleLanguages() {
+        return subtitleLanguages;
+    }
+
+    public String getSubtitleFormat() {
+        return subtitleFormat != null ? subtitleFormat : "srt";
+    }
+
+    public void setSubtitles(String languages, String format) {
+        this.subtitleLanguages = languages;
+        this.subtitleFormat = format;
+    }
+
+    public boolean wantsSubtitles() {
+        return subtitleLanguages != null && !subtitleLanguages.trim().isEmpty();
+    }
+
+    public long getClipStartMs() {
+        return clipStartMs;
+    }
+
+    public long getClipEndMs() {
+        return clipEndMs;
+    }
+
+    /**
+     * 设置片段下载的时间段，结束时间不晚于开始时间时视为下载完整视频
+     */
+    public void setClip(long startMs, long endMs) {
+        if (endMs > startMs && startMs >= 0) {
+            this.clipStartMs = startMs;
+            this.clipEndMs = endMs;
+        } else {
+            this.clipStartMs = 0;
+            this.clipEndMs = 0;
+        }
+    }
+
+    public boolean isClip() {
+        return clipEndMs > clipStartMs;
+    }
+
+    public long getFullSizeBytes() {
+        return fullSizeBytes;
+    }
+
+    public long getClipSizeBytes() {
+        return clipSizeBytes;
+    }
+
+    public void setClipSizes(long fullSizeBytes, long clipSizeBytes) {
+        this.fullSizeBytes = fullSizeBytes;
+        this.clipSizeBytes = clipSizeBytes;
+    }
+
+    public long getFileSizeBytes() {
+        return fileSizeBytes;
+    }
+
+    public void setFileSizeBytes(long fileSizeBytes) {
+        this.fileSizeBytes = Math.max(0, fileSizeBytes);
+    }
+
+    /**
+     * 片段下载比下载完整视频节省的字节数，完整视频大小未知时返回0
+     */
+    public long getSavedBytes() {
+        return fullSizeBytes > 0 ? Math.max(0, fullSizeBytes - clipSizeBytes) : 0;
+    }
+
+    /**
+     * 解析时间戳：支持 秒、分:秒、时:分:秒，秒可以带小数，例如 90、1:30、1:02:03.5
+     *
+     * @return 毫秒数，无法解析时返回-1
+     */
+    public static long parseTimestamp(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return -1;
+        }
+        String[] parts = text.trim().split(":");
+        if (parts.length > 3) {
+            return -1;
+        }
+        try {
+            double seconds = 0;
+            for (String part : parts) {
+                double value = Double.parseDouble(part);
+                if (value < 0) {
+                    return -1;
+                }
+                seconds = seconds * 60 + value;
+            }
+            return Math.round(seconds * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 开始计时一个阶段
+     */
+    public synchronized void startPhase() {
+        phaseStartedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 结束当前阶段并记录耗时，同时开始计时下一个阶段
+     */
+    public synchronized void endPhase(String phase) {
+        long now = System.currentTimeMillis();
+        if (phaseStartedAt > 0) {
+            if (phaseTimings == null) {
+                phaseTimings = new LinkedHashMap<>();
+            }
+            phaseTimings.put(phase, now - phaseStartedAt);
+        }
+        phaseStartedAt = now;
+    }
+
+    public synchronized Map<String, Long> getPhaseTimings() {
+        return phaseTimings != null ? new LinkedHashMap<>(phaseTimings) : new LinkedHashMap<>();
+    }
+
+    synchronized void setPhaseTimings(Map<String, Long> phaseTimings) {
+        this.phaseTimings = phaseTimings != null && !phaseTimings.isEmpty() ? new LinkedHashMap<>(phaseTimings) : null;
+    }
+
+    /**
+     * 各阶段耗时的摘要，例如 下载 12.3s · 后处理 1.2s · 移动 0.4s；没有记录时返回空字符串
+     */
+    public String formatPhaseTimings() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : getPhaseTimings().entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(" · ");
+            }
+            builder.append(entry.getKey()).append(' ')
+                    .append(String.format(Locale.US, "%.1fs", entry.getValue() / 1000.0));
+        }
+        return builder.toString();
+    }
+
+    public int getFragmentIndex() {
+        return fragmentIndex;
+    }
+
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public void setFragmentProgress(int fragmentIndex, int fragmentCount) {
+        this.fragmentIndex = fragmentIndex;
+        this.fragmentCount = fragmentCount;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -141,6 +415,16 @@ public class DownloadItem implements Serializable {
         this.status = status;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(DownloadItemCodec.encode(this));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,380 @@
+package com.alootcold.youtubedownloader.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DownloadItem的二进制编码，用于历史记录存储和进程间传递（Parcelable）
+ * 格式：魔数、结构版本，之后是若干字段，每个字段以 (编号 << 3 | 类型) 开头，整数用变长编码。
+ * 值为默认值的字段不写入；读取时跳过不认识的字段，所以增加字段只需要使用新的编号，
+ * 新旧版本写入的数据可以互相读取。已经使用过的编号不能改变含义，不兼容的修改需要增加SCHEMA_VERSION。
+ * 字符串先查常用字符串表（下载格式、阶段名、字幕格式），命中时只写表中的序号；
+ * 解码出的格式字符串复用同一个实例，历史列表中的大量记录不会各自保存一份
+ */
+public final class DownloadItemCodec {
+    // 结构版本，只在字段编号不兼容时增加
+    public static final int SCHEMA_VERSION = 1;
+    private static final int MAGIC = 0xD1;
+
+    private static final int TYPE_VARINT = 0;
+    // 常用字符串表中的序号
+    private static final int TYPE_SHARED = 1;
+    // 长度 + UTF-8字节
+    private static final int TYPE_BYTES = 2;
+
+    private static final int FIELD_ID = 1;
+    private static final int FIELD_VIDEO_ID = 2;
+    private static final int FIELD_URL = 3;
+    private static final int FIELD_TITLE = 4;
+    private static final int FIELD_THUMBNAIL_URL = 5;
+    private static final int FIELD_CHANNEL = 6;
+    private static final int FIELD_PROGRESS = 7;
+    private static final int FIELD_ETA = 8;
+    private static final int FIELD_COMPLETED = 9;
+    private static final int FIELD_PAUSED = 10;
+    private static final int FIELD_DOWNLOAD_DATE = 11;
+    private static final int FIELD_FORMAT = 12;
+    private static final int FIELD_STATUS = 13;
+    private static final int FIELD_CONCURRENT_FRAGMENTS = 14;
+    private static final int FIELD_SUBTITLE_LANGUAGES = 15;
+    private static final int FIELD_SUBTITLE_FORMAT = 16;
+    private static final int FIELD_CLIP_START_MS = 17;
+    private static final int FIELD_CLIP_END_MS = 18;
+    private static final int FIELD_FULL_SIZE_BYTES = 19;
+    private static final int FIELD_CLIP_SIZE_BYTES = 20;
+    // 阶段耗时按顺序写成成对的 名称、毫秒
+    private static final int FIELD_PHASE_NAME = 21;
+    private static final int FIELD_PHASE_MS = 22;
+    private static final int FIELD_FILE_SIZE_BYTES = 23;
+
+    // 常用字符串表：只能在末尾追加，不能删除或调整顺序，否则已保存的序号会指向别的字符串。
+    // 旧版本不认识新追加的序号，追加时需要同时增加SCHEMA_VERSION
+    private static final String[] SHARED_STRINGS = {
+            "",
+            "best",
+            "bestvideo+bestaudio",
+            "bestvideo[height<=2160]+bestaudio",
+            "bestvideo[height<=1440]+bestaudio",
+            "bestvideo[height<=1080]+bestaudio",
+            "bestvideo[height<=720]+bestaudio",
+            "bestvideo[height<=480]+bestaudio",
+            "bestaudio",
+            "bestaudio[ext=m4a]",
+            "bestaudio[acodec=opus]",
+            DownloadItem.PHASE_DOWNLOAD,
+            DownloadItem.PHASE_POST_PROCESS,
+            DownloadItem.PHASE_PUBLISH,
+            "srt",
+            "vtt",
+            "zh-Hans,zh-Hant,en",
+    };
+    private static final Map<String, Integer> SHARED_INDEX = new HashMap<>();
+    // 不在常用字符串表中的格式，解码时复用已见过的实例；格式数量有限，超过上限后不再缓存
+    private static final int MAX_POOLED_FORMATS = 256;
+    private static final Map<String, String> FORMAT_POOL = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < SHARED_STRINGS.length; i++) {
+            SHARED_INDEX.put(SHARED_STRINGS[i], i);
+        }
+    }
+
+    private DownloadItemCodec() {
+    }
+
+    public static byte[] encode(DownloadItem item) {
+        Writer out = new Writer();
+        out.writeVarint(MAGIC);
+        out.writeVarint(SCHEMA_VERSION);
+        out.writeString(FIELD_ID, item.getId());
+        out.writeString(FIELD_VIDEO_ID, item.getVideoId());
+        out.writeString(FIELD_URL, item.getUrl());
+        out.writeString(FIELD_TITLE, item.getTitle());
+        out.writeString(FIELD_THUMBNAIL_URL, item.getThumbnailUrl());
+        out.writeString(FIELD_CHANNEL, item.getChannel());
+        out.writeLong(FIELD_PROGRESS, item.getProgress());
+        out.writeString(FIELD_ETA, item.getEta());
+        out.writeLong(FIELD_COMPLETED, item.isCompleted() ? 1 : 0);
+        out.writeLong(FIELD_PAUSED, item.isPaused() ? 1 : 0);
+        out.writeLong(FIELD_DOWNLOAD_DATE, item.getDownloadDate());
+        out.writeString(FIELD_FORMAT, item.getFormat());
+        out.writeString(FIELD_STATUS, item.getStatus());
+        out.writeLong(FIELD_CONCURRENT_FRAGMENTS, item.getConcurrentFragments());
+        out.writeString(FIELD_SUBTITLE_LANGUAGES, item.getSubtitleLanguages());
+        out.writeString(FIELD_SUBTITLE_FORMAT, item.getSubtitleFormat());
+        out.writeLong(FIELD_CLIP_START_MS, item.getClipStartMs());
+        out.writeLong(FIELD_CLIP_END_MS, item.getClipEndMs());
+        out.writeLong(FIELD_FULL_SIZE_BYTES, item.getFullSizeBytes());
+        out.writeLong(FIELD_CLIP_SIZE_BYTES, item.getClipSizeBytes());
+        out.writeLong(FIELD_FILE_SIZE_BYTES, item.getFileSizeBytes());
+        for (Map.Entry<String, Long> phase : item.getPhaseTimings().entrySet()) {
+            out.writeString(FIELD_PHASE_NAME, phase.getKey());
+            // 耗时为0时也要写，否则读取时这个阶段会丢失
+            out.writeTag(FIELD_PHASE_MS, TYPE_VARINT);
+            out.writeVarint(phase.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IOException 数据被截断、不是这种编码或结构版本不兼容
+     */
+    public static DownloadItem decode(byte[] data) throws IOException {
+        Reader in = new Reader(data);
+        if (in.readVarint() != MAGIC) {
+            throw new IOException("Not an encoded DownloadItem");
+        }
+        long version = in.readVarint();
+        if (version > SCHEMA_VERSION) {
+            throw new IOException("Unsupported DownloadItem schema version " + version);
+        }
+        DownloadItem item = new DownloadItem(null, null, null, null);
+        long clipStartMs = 0;
+        long clipEndMs = 0;
+        long fullSizeBytes = 0;
+        long clipSizeBytes = 0;
+        String subtitleLanguages = null;
+        String subtitleFormat = null;
+        LinkedHashMap<String, Long> phaseTimings = null;
+        String phase = null;
+        while (in.hasRemaining()) {
+            long tag = in.readVarint();
+            int field = (int) (tag >>> 3);
+            int type = (int) (tag & 0x7);
+            switch (field) {
+                case FIELD_ID:
+                    item.setId(in.readString(type));
+                    break;
+                case FIELD_VIDEO_ID:
+                    item.setVideoId(in.readString(type));
+                    break;
+                case FIELD_URL:
+                    item.setUrl(in.readString(type));
+                    break;
+                case FIELD_TITLE:
+                    item.setTitle(in.readString(type));
+                    break;
+                case FIELD_THUMBNAIL_URL:
+                    item.setThumbnailUrl(in.readString(type));
+                    break;
+                case FIELD_CHANNEL:
+                    item.setChannel(in.readString(type));
+                    break;
+                case FIELD_PROGRESS:
+                    item.setProgress((int) in.readLong(type));
+                    break;
+                case FIELD_ETA:
+                    item.setEta(in.readString(type));
+                    break;
+                case FIELD_COMPLETED:
+                    item.setCompleted(in.readLong(type) != 0);
+                    break;
+                case FIELD_PAUSED:
+                    item.setPaused(in.readLong(type) != 0);
+                    break;
+                case FIELD_DOWNLOAD_DATE:
+                    item.setDownloadDate(in.readLong(type));
+                    break;
+                case FIELD_FORMAT:
+                    item.setFormat(pooledFormat(in.readString(type)));
+                    break;
+                case FIELD_STATUS:
+                    item.setStatus(in.readString(type));
+                    break;
+                case FIELD_CONCURRENT_FRAGMENTS:
+                    item.setConcurrentFragments((int) in.readLong(type));
+                    break;
+                case FIELD_SUBTITLE_LANGUAGES:
+                    subtitleLanguages = in.readString(type);
+                    break;
+                case FIELD_SUBTITLE_FORMAT:
+                    subtitleFormat = in.readString(type);
+                    break;
+                case FIELD_CLIP_START_MS:
+                    clipStartMs = in.readLong(type);
+                    break;
+                case FIELD_CLIP_END_MS:
+                    clipEndMs = in.readLong(type);
+                    break;
+                case FIELD_FULL_SIZE_BYTES:
+                    fullSizeBytes = in.readLong(type);
+                    break;
+                case FIELD_CLIP_SIZE_BYTES:
+                    clipSizeBytes = in.readLong(type);
+                    break;
+                case FIELD_FILE_SIZE_BYTES:
+                    item.setFileSizeBytes(in.readLong(type));
+                    break;
+                case FIELD_PHASE_NAME:
+                    phase = in.readString(type);
+                    break;
+                case FIELD_PHASE_MS:
+                    long elapsed = in.readLong(type);
+                    if (phase != null) {
+                        if (phaseTimings == null) {
+                            phaseTimings = new LinkedHashMap<>();
+                        }
+                        phaseTimings.put(phase, elapsed);
+                        phase = null;
+                    }
+                    break;
+                default:
+                    // 新版本增加的字段
+                    in.skip(type);
+                    break;
+            }
+        }
+        item.setSubtitles(subtitleLanguages, subtitleFormat);
+        item.setClip(clipStartMs, clipEndMs);
+        item.setClipSizes(fullSizeBytes, clipSizeBytes);
+        item.setPhaseTimings(phaseTimings);
+        return item;
+    }
+
+    private static String pooledFormat(String format) {
+        if (format == null) {
+            return null;
+        }
+        String pooled = FORMAT_POOL.get(format);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (FORMAT_POOL.size() < MAX_POOLED_FORMATS) {
+            pooled = FORMAT_POOL.putIfAbsent(format, format);
+        }
+        return pooled != null ? pooled : format;
+    }
+
+    private static final class Writer {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+        void writeTag(int field, int type) {
+            writeVarint(((long) field << 3) | type);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.write((int) value);
+        }
+
+        /**
+         * 默认值0不写入
+         */
+        void writeLong(int field, long value) {
+            if (value != 0) {
+                writeTag(field, TYPE_VARINT);
+                writeVarint(value);
+            }
+        }
+
+        /**
+         * null不写入
+         */
+        void writeString(int field, String value) {
+            if (value == null) {
+                return;
+            }
+            Integer shared = SHARED_INDEX.get(value);
+            if (shared != null) {
+                writeTag(field, TYPE_SHARED);
+                writeVarint(shared);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeTag(field, TYPE_BYTES);
+            writeVarint(bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) throws IOException {
+            if (data == null) {
+                throw new IOException("No DownloadItem data");
+            }
+            this.data = data;
+        }
+
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) {
+                    throw new IOException("Truncated DownloadItem data");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in DownloadItem data");
+        }
+
+        long readLong(int type) throws IOException {
+            if (type != TYPE_VARINT) {
+                throw new IOException("Expected a number, found type " + type);
+            }
+            return readVarint();
+        }
+
+        String readString(int type) throws IOException {
+            if (type == TYPE_SHARED) {
+                long index = readVarint();
+                if (index >= SHARED_STRINGS.length) {
+                    throw new IOException("Unknown shared string " + index);
+                }
+                return SHARED_STRINGS[(int) index];
+            }
+            if (type != TYPE_BYTES) {
+                throw new IOException("Expected a string, found type " + type);
+            }
+            int length = readLength();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip(int type) throws IOException {
+            switch (type) {
+                case TYPE_VARINT:
+                case TYPE_SHARED:
+                    readVarint();
+                    break;
+                case TYPE_BYTES:
+                    // 先读出长度再移动位置，readLength本身也会移动位置
+                    int length = readLength();
+                    position += length;
+                    break;
+                default:
+                    throw new IOException("Unknown field type " + type);
+            }
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > data.length - position) {
+                throw new IOException("Truncated DownloadItem data");
+            }
+            return (int) length;
+        }
+    }
+}
\ No newline at end of file
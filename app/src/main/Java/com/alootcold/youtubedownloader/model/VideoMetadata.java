@@ -0,0 +1,71 @@
+package com.alootcold.youtubedownloader.model;
+
+/**
+ * 一次探测（yt-dlp --dump-json）得到的视频元数据
+ */
+public class VideoMetadata {
+    private final String videoId;
+    private final String title;
+    private final String thumbnailUrl;
+    private final String uploader;
+    private final long durationSeconds;
+    private final int formatCount;
+    // yt-dlp输出的原始JSON，包含完整的格式列表
+    private final String json;
+    private final long fetchedAt;
+
+    public VideoMetadata(String videoId, String title, String thumbnailUrl, String uploader,
+                         long durationSeconds, int formatCount, String json) {
+        this.videoId = videoId;
+        this.title = title;
+        this.thumbnailUrl = thumbnailUrl;
+        this.uploader = uploader;
+        this.durationSeconds = durationSeconds;
+        this.formatCount = formatCount;
+        this.json = json;
+        this.fetchedAt = System.currentTimeMillis();
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public String getUploader() {
+        return uploader;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getFormatCount() {
+        return formatCount;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public boolean hasJson() {
+        return json != null && !json.isEmpty();
+    }
+
+    /**
+     * 元数据是否在指定时间内获取
+     */
+    public boolean isFresh(long maxAgeMs) {
+        return System.currentTimeMillis() - fetchedAt < maxAgeMs;
+    }
+}
\ No newline at end of file
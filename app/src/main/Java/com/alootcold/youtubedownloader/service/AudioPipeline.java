@@ -0,0 +1,183 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.VideoMetadata;
+import com.alootcold.youtubedownloader.util.YouTubeUrlUtils;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 仅音频下载：直接选择最佳音频流下载，不走视频的格式回退和字幕流程，
+ * 再由后处理线程封装/转码为M4A、Opus或MP3，并写入标签和封面
+ */
+public final class AudioPipeline {
+    private static final String TAG = "AudioPipeline";
+
+    // M4A：YouTube的AAC音频流，只需重新封装
+    public static final String FORMAT_M4A = "bestaudio[ext=m4a]";
+    // Opus：YouTube的webm音频流，去掉webm容器封装为.opus
+    public static final String FORMAT_OPUS = "bestaudio[acodec=opus]";
+    // MP3：选最佳音频流后转码
+    public static final String FORMAT_MP3 = "bestaudio";
+
+    static final String CODEC_M4A = "m4a";
+    static final String CODEC_OPUS = "opus";
+    static final String CODEC_MP3 = "mp3";
+
+    private static final int COVER_TIMEOUT_MS = 10 * 1000;
+
+    private AudioPipeline() {
+    }
+
+    /**
+     * 只选择音频流的格式（不含视频+音频组合）
+     */
+    public static boolean isAudioFormat(String format) {
+        return format != null && format.startsWith("bestaudio") && !format.contains("+");
+    }
+
+    static String targetCodec(String format) {
+        if (format.contains("acodec=opus") || format.contains("ext=webm")) {
+            return CODEC_OPUS;
+        }
+        if (format.contains("ext=m4a")) {
+            return CODEC_M4A;
+        }
+        return CODEC_MP3;
+    }
+
+    /**
+     * 从探测结果中选择可直接下载的音频流：M4A选AAC，Opus选webm，MP3选码率最高的任意音频
+     */
+    static JSONObject selectAudio(String infoJson, String codec) {
+        String option;
+        if (CODEC_M4A.equals(codec)) {
+            option = "bestaudio[ext=m4a]";
+        } else if (CODEC_OPUS.equals(codec)) {
+            option = "bestaudio[ext=webm]";
+        } else {
+            option = "bestaudio";
+        }
+        try {
+            FormatSelector.Selection selection = FormatSelector.select(infoJson, option);
+            return selection != null ? selection.getAudio() : null;
+        } catch (Exception e) {
+            Log.e(TAG, "Error selecting audio format", e);
+            return null;
+        }
+    }
+
+    /**
+     * 没有可直接下载的音频流时，交给yt-dlp提取音频（同样只下载音频流）
+     */
+    static void addYtDlpOptions(YoutubeDLRequest request, String format, File outputDir) {
+        String codec = targetCodec(format);
+        request.addOption("--format", FORMAT_MP3.equals(format) ? format : format + "/bestaudio");
+        request.addOption("--extract-audio");
+        request.addOption("--audio-format", codec);
+        if (CODEC_MP3.equals(codec)) {
+            request.addOption("--audio-quality", "2");
+        }
+        request.addOption("--embed-metadata");
+        if (!CODEC_OPUS.equals(codec)) {
+            request.addOption("--embed-thumbnail");
+        }
+        request.addOption("--no-playlist");
+        request.addOption("--no-warnings");
+        request.addOption("-o", outputDir.getAbsolutePath() + "/%(title)s.%(ext)s");
+    }
+
+    /**
+     * 写入音频文件的标签
+     */
+    static Map<String, String> tags(VideoMetadata metadata, String url) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        putIfNotEmpty(tags, "title", metadata.getTitle());
+        putIfNotEmpty(tags, "artist", metadata.getUploader());
+        putIfNotEmpty(tags, "comment", url);
+        if (metadata.hasJson()) {
+            try {
+                // upload_date格式为YYYYMMDD
+                String uploadDate = new JSONObject(metadata.getJson()).optString("upload_date", "");
+                if (uploadDate.length() >= 4) {
+                    tags.put("date", uploadDate.substring(0, 4));
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Cannot read upload date: " + e.getMessage());
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * 下载封面图到输出目录，失败时返回null（没有封面不影响音频本身）
+     * 优先使用固定为JPEG的YouTube缩略图地址，webp封面无法嵌入M4A/MP3
+     */
+    static File downloadCover(VideoMetadata metadata, File dir, String baseName) {
+        String coverUrl = metadata.getVideoId() != null
+                ? YouTubeUrlUtils.defaultThumbnailUrl(metadata.getVideoId())
+                : metadata.getThumbnailUrl();
+        if (coverUrl == null || coverUrl.isEmpty()) {
+            return null;
+        }
+        File cover = new File(dir, baseName + ".cover.jpg");
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(coverUrl).openConnection();
+            connection.setConnectTimeout(COVER_TIMEOUT_MS);
+            connection.setReadTimeout(COVER_TIMEOUT_MS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(cover)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            return cover;
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot download cover art: " + e.getMessage());
+            cover.delete();
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 后处理：把下载的原始音频流封装/转码为目标格式并写入标签和封面，完成后删除中间文件
+     */
+    static void finish(File audioPart, File cover, File output, String codec, Map<String, String> tags)
+            throws Exception {
+        try {
+            FFmpegMuxer.convertAudio(audioPart, cover, output, codec, tags);
+            audioPart.delete();
+        } finally {
+            if (cover != null) {
+                cover.delete();
+            }
+        }
+    }
+
+    private static void putIfNotEmpty(Map<String, String> tags, String key, String value) {
+        if (value != null && !value.isEmpty()) {
+            tags.put(key, value);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.model.VideoMetadata;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * 片段下载：yt-dlp按时间段（--download-sections）只下载覆盖该时间段的分片，
+ * 分片边界落在关键帧上，不够精确，再由后处理线程用ffmpeg按毫秒精确裁剪
+ */
+final class ClipExtractor {
+    private static final String TAG = "ClipExtractor";
+    // 原始片段的文件名标记，用于在下载目录中找到yt-dlp写出的文件
+    static final String RAW_MARKER = ".clip-raw";
+    // 前后各多下载几秒，保证精确裁剪的起止点之前有关键帧
+    private static final long MARGIN_MS = 3000;
+    private static final String OUTPUT_CONTAINER = "mp4";
+
+    private ClipExtractor() {
+    }
+
+    static String outputTemplate(File outputDir) {
+        return outputDir.getAbsolutePath() + "/%(title)s" + RAW_MARKER + ".%(ext)s";
+    }
+
+    static void addYtDlpOptions(YoutubeDLRequest request, DownloadItem item) {
+        String section = "*" + seconds(sectionStartMs(item)) + "-" + seconds(item.getClipEndMs() + MARGIN_MS);
+        Log.d(TAG, "Download section " + section + " for " + item.getId());
+        request.addOption("--download-sections", section);
+    }
+
+    /**
+     * 按时长比例估算完整视频和片段的大小，用于显示片段下载节省的流量
+     */
+    static void estimateSizes(DownloadItem item, VideoMetadata metadata) {
+        if (metadata == null || !metadata.hasJson() || metadata.getDurationSeconds() <= 0) {
+            return;
+        }
+        try {
+            FormatSelector.Selection selection = FormatSelector.select(metadata.getJson(), item.getFormat());
+            if (selection == null || selection.getEstimatedSize() <= 0) {
+                return;
+            }
+            long fullSize = selection.getEstimatedSize();
+            long durationMs = metadata.getDurationSeconds() * 1000;
+            long sectionMs = Math.min(durationMs, item.getClipEndMs() + MARGIN_MS) - sectionStartMs(item);
+            item.setClipSizes(fullSize, fullSize * Math.max(0, sectionMs) / durationMs);
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot estimate clip size: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 精确裁剪后的文件名：<原文件名> [开始-结束].mp4
+     */
+    static File outputFile(File raw, DownloadItem item) {
+        String name = raw.getName();
+        int markerIndex = name.lastIndexOf(RAW_MARKER);
+        String baseName = markerIndex > 0 ? name.substring(0, markerIndex) : name;
+        String range = timestamp(item.getClipStartMs()) + "-" + timestamp(item.getClipEndMs());
+        return new File(raw.getParentFile(), baseName + " [" + range + "]." + OUTPUT_CONTAINER);
+    }
+
+    /**
+     * 后处理：从原始片段中裁剪出精确的时间段，完成后删除原始片段
+     */
+    static void finish(File raw, File output, DownloadItem item) throws Exception {
+        long offsetMs = item.getClipStartMs() - sectionStartMs(item);
+        FFmpegMuxer.trim(raw, output, offsetMs, item.getClipEndMs() - item.getClipStartMs());
+        raw.delete();
+    }
+
+    private static long sectionStartMs(DownloadItem item) {
+        return Math.max(0, item.getClipStartMs() - MARGIN_MS);
+    }
+
+    private static String seconds(long ms) {
+        return String.format(Locale.US, "%.3f", ms / 1000.0);
+    }
+
+    private static String timestamp(long ms) {
+        long totalSeconds = ms / 1000;
+        return String.format(Locale.US, "%02d.%02d.%02d", totalSeconds / 3600, totalSeconds / 60 % 60, totalSeconds % 60);
+    }
+}
\ No newline at end of file
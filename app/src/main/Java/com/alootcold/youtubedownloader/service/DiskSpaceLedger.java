@@ -0,0 +1,147 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 磁盘空间预留账本：任务开始传输前按探测到的预计大小预留空间，
+ * 与StatFs的可用空间比较决定立即开始、等待其他任务释放空间，还是直接拒绝。
+ * 在开始时拒绝比传到95%才因磁盘写满失败要便宜得多
+ */
+final class DiskSpaceLedger {
+    private static final String TAG = "DiskSpaceLedger";
+    // 给系统和其他应用留的余量
+    private static final long SAFETY_MARGIN_BYTES = 200L * 1024 * 1024;
+    // 合并和发布时原始文件与输出文件会同时存在，峰值按下载大小的两倍计算
+    private static final int PEAK_FACTOR = 2;
+    // 等待期间用户可能清理了文件，定期重新检查可用空间
+    static final long RECHECK_INTERVAL_MS = 30 * 1000;
+
+    private final Map<String, Reservation> reservations = new HashMap<>();
+    private final List<Runnable> releaseListeners = new ArrayList<>();
+
+    /**
+     * 空间不足、即使其他任务都完成也放不下时抛出
+     */
+    static final class InsufficientSpaceException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        InsufficientSpaceException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 现在放不下，但其他任务释放预留后可以放下时抛出。调用方应让出下载线程，收到释放通知后重试
+     */
+    static final class SpaceBusyException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SpaceBusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Reservation {
+        final long downloadBytes;
+        // 已写入磁盘的下载字节数。这部分已经计入StatFs的已用空间，不能再从可用空间中扣除一次
+        long writtenBytes;
+
+        Reservation(long downloadBytes) {
+            this.downloadBytes = downloadBytes;
+        }
+
+        long outstandingBytes() {
+            return Math.max(0, downloadBytes * PEAK_FACTOR - writtenBytes);
+        }
+    }
+
+    /**
+     * 预留空间，不阻塞调用线程
+     *
+     * @param downloadBytes     预计下载大小，0表示大小未知，不预留
+     * @param onSpaceReleased   放不下而抛出SpaceBusyException时登记，下次有任务释放预留时调用一次
+     */
+    synchronized void reserve(String id, long downloadBytes, File dir, Runnable onSpaceReleased)
+            throws InsufficientSpaceException, SpaceBusyException {
+        release(id);
+        if (downloadBytes <= 0) {
+            return;
+        }
+        long bytes = downloadBytes * PEAK_FACTOR;
+        long available = availableBytes(dir);
+        // 其他任务还没写入磁盘的那部分预留需要从可用空间中扣除
+        long outstanding = outstandingBytes();
+        long unreserved = available - outstanding - SAFETY_MARGIN_BYTES;
+        if (bytes <= unreserved) {
+            reservations.put(id, new Reservation(downloadBytes));
+            Log.d(TAG, "Reserved " + bytes + " bytes for " + id + ", outstanding " + (outstanding + bytes)
+                    + ", available " + available);
+            return;
+        }
+        if (outstanding == 0 || bytes > available - SAFETY_MARGIN_BYTES) {
+            throw new InsufficientSpaceException(String.format("存储空间不足：预计需要 %s，可用 %s",
+                    formatSize(bytes + SAFETY_MARGIN_BYTES), formatSize(available)));
+        }
+        Log.d(TAG, "Waiting for space: " + id + " needs " + bytes + ", unreserved " + unreserved);
+        if (onSpaceReleased != null) {
+            releaseListeners.add(onSpaceReleased);
+        }
+        throw new SpaceBusyException("等待存储空间");
+    }
+
+    /**
+     * 按下载进度更新已写入的字节数，预留随之减少。
+     * yt-dlp分别下载视频和音频时进度会从0重新开始，这里只取最大值
+     */
+    synchronized void onProgress(String id, int percent) {
+        Reservation reservation = reservations.get(id);
+        if (reservation != null) {
+            long written = reservation.downloadBytes * Math.min(100, percent) / 100;
+            reservation.writtenBytes = Math.max(reservation.writtenBytes, written);
+        }
+    }
+
+    /**
+     * 任务完成、失败或取消时释放预留，并通知等待空间的任务重试
+     */
+    void release(String id) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            Reservation reservation = reservations.remove(id);
+            if (reservation == null) {
+                return;
+            }
+            Log.d(TAG, "Released " + reservation.outstandingBytes() + " outstanding bytes for " + id
+                    + ", total outstanding " + outstandingBytes());
+            listeners = new ArrayList<>(releaseListeners);
+            releaseListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private long outstandingBytes() {
+        long total = 0;
+        for (Reservation reservation : reservations.values()) {
+            total += reservation.outstandingBytes();
+        }
+        return total;
+    }
+
+    private static long availableBytes(File dir) {
+        return new StatFs(dir.getAbsolutePath()).getAvailableBytes();
+    }
+
+    private static String formatSize(long bytes) {
+        return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,264 @@
+package com.alootcold.youtubedownloader.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 分段下载的续传检查点：文件校验头（ETag/Last-Modified）、每个分段已写入的字节数
+ * 保存在目标文件旁的.segments文件中，先写临时文件再重命名，进程被杀也不会留下写了一半的检查点
+ */
+final class DownloadCheckpoint {
+    static final String SUFFIX = ".segments";
+    private static final String MAGIC = "segments 2";
+
+    private final File stateFile;
+    private final long total;
+    private final long chunkSize;
+    private final long[] completedBytes;
+    private Validator validator = Validator.NONE;
+
+    private DownloadCheckpoint(File stateFile, long total, long chunkSize) {
+        this.stateFile = stateFile;
+        this.total = total;
+        this.chunkSize = chunkSize;
+        this.completedBytes = new long[(int) ((total + chunkSize - 1) / chunkSize)];
+    }
+
+    /**
+     * 服务器用来标识文件版本的校验头，CDN换了直链但内容相同时这两个值保持不变
+     */
+    static final class Validator {
+        static final Validator NONE = new Validator(null, null);
+
+        final String etag;
+        final String lastModified;
+
+        Validator(String etag, String lastModified) {
+            this.etag = emptyToNull(etag);
+            this.lastModified = emptyToNull(lastModified);
+        }
+
+        static Validator from(HttpURLConnection connection) {
+            return new Validator(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        }
+
+        boolean isEmpty() {
+            return etag == null && lastModified == null;
+        }
+
+        /**
+         * 两边都有的校验头必须一致；两边都没有时只能依靠文件长度判断
+         */
+        boolean matches(Validator other) {
+            if (etag != null && other.etag != null) {
+                return etag.equals(other.etag);
+            }
+            if (lastModified != null && other.lastModified != null) {
+                return lastModified.equals(other.lastModified);
+            }
+            return isEmpty() && other.isEmpty();
+        }
+
+        /**
+         * 响应中明确给出了与预期不同的校验头。分段响应可能省略校验头，省略不算冲突
+         */
+        boolean conflictsWith(Validator other) {
+            return (etag != null && other.etag != null && !etag.equals(other.etag))
+                    || (lastModified != null && other.lastModified != null && !lastModified.equals(other.lastModified));
+        }
+
+        /**
+         * If-Range只接受强ETag，弱ETag时改用Last-Modified，都没有时返回null
+         */
+        String ifRangeValue() {
+            if (etag != null && !etag.startsWith("W/")) {
+                return etag;
+            }
+            return lastModified;
+        }
+
+        private static String emptyToNull(String value) {
+            return value == null || value.trim().isEmpty() ? null : value.trim();
+        }
+    }
+
+    /**
+     * 读取检查点；长度或分段大小对不上、目标文件已不存在时返回空检查点
+     * 每个分段单独校验：已记录的字节超出目标文件当前长度（文件被截断）时只丢弃该分段
+     */
+    static DownloadCheckpoint load(File target, long total, long chunkSize) {
+        File stateFile = new File(target.getPath() + SUFFIX);
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint(stateFile, total, chunkSize);
+        if (!stateFile.exists() || !target.exists()) {
+            return checkpoint;
+        }
+        long targetLength = target.length();
+        String etag = null;
+        String lastModified = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8))) {
+            if (!MAGIC.equals(reader.readLine())) {
+                return checkpoint;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    continue;
+                }
+                String key = line.substring(0, space);
+                String value = line.substring(space + 1);
+                switch (key) {
+                    case "total":
+                        if (Long.parseLong(value) != total) {
+                            return checkpoint.reset();
+                        }
+                        break;
+                    case "chunk":
+                        if (Long.parseLong(value) != chunkSize) {
+                            return checkpoint.reset();
+                        }
+                        break;
+                    case "etag":
+                        etag = value;
+                        break;
+                    case "last-modified":
+                        lastModified = value;
+                        break;
+                    case "seg":
+                        String[] parts = value.split(" ");
+                        int index = Integer.parseInt(parts[0]);
+                        long bytes = Long.parseLong(parts[1]);
+                        if (index < checkpoint.completedBytes.length
+                                && bytes <= checkpoint.chunkLength(index)
+                                && checkpoint.chunkStart(index) + bytes <= targetLength) {
+                            checkpoint.completedBytes[index] = bytes;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return checkpoint.reset();
+        }
+        checkpoint.validator = new Validator(etag, lastModified);
+        return checkpoint;
+    }
+
+    /**
+     * 与服务器当前的校验头比较，不一致时丢弃已下载的分段，之后的分段都记在新校验头下
+     *
+     * @return 被丢弃的字节数
+     */
+    synchronized long retainIfMatches(Validator current) {
+        long discarded = 0;
+        if (!validator.matches(current)) {
+            discarded = getDownloadedBytes();
+            reset();
+        }
+        validator = current;
+        return discarded;
+    }
+
+    Validator getValidator() {
+        return validator;
+    }
+
+    int getChunkCount() {
+        return completedBytes.length;
+    }
+
+    long chunkStart(int index) {
+        return index * chunkSize;
+    }
+
+    long chunkLength(int index) {
+        return Math.min(chunkSize, total - index * chunkSize);
+    }
+
+    synchronized long getCompletedBytes(int index) {
+        return completedBytes[index];
+    }
+
+    synchronized boolean isComplete(int index) {
+        return completedBytes[index] >= chunkLength(index);
+    }
+
+    synchronized long getDownloadedBytes() {
+        long sum = 0;
+        for (long bytes : completedBytes) {
+            sum += bytes;
+        }
+        return sum;
+    }
+
+    /**
+     * 只在数据已经写入文件之后调用，保证计数不会超过实际写入的字节
+     */
+    synchronized void addBytes(int index, long bytes) {
+        completedBytes[index] = Math.min(chunkLength(index), completedBytes[index] + bytes);
+    }
+
+    synchronized void save() throws IOException {
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.write(MAGIC);
+            writer.newLine();
+            writer.write("total " + total);
+            writer.newLine();
+            writer.write("chunk " + chunkSize);
+            writer.newLine();
+            if (validator.etag != null) {
+                writer.write("etag " + validator.etag);
+                writer.newLine();
+            }
+            if (validator.lastModified != null) {
+                writer.write("last-modified " + validator.lastModified);
+                writer.newLine();
+            }
+            for (int i = 0; i < completedBytes.length; i++) {
+                if (completedBytes[i] > 0) {
+                    writer.write("seg " + i + " " + completedBytes[i]);
+                    writer.newLine();
+                }
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            throw new IOException("无法保存续传检查点: " + stateFile.getName());
+        }
+    }
+
+    void delete() {
+        stateFile.delete();
+        new File(stateFile.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * 放弃一个分段下载：删除目标文件和它的检查点
+     */
+    static void discard(File target) {
+        target.delete();
+        new File(target.getPath() + SUFFIX).delete();
+        new File(target.getPath() + SUFFIX + ".tmp").delete();
+    }
+
+    private DownloadCheckpoint reset() {
+        for (int i = 0; i < completedBytes.length; i++) {
+            completedBytes[i] = 0;
+        }
+        validator = Validator.NONE;
+        return this;
+    }
+}
\ No newline at end of file
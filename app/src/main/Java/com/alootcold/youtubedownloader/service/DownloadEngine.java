@@ -0,0 +1,98 @@
+package com.alootcold.youtubedownloader.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 下载引擎：把一个已解析出的直链下载到本地文件
+ * yt-dlp负责解析和合并，字节传输可以交给不同的实现
+ */
+public interface DownloadEngine {
+
+    /**
+     * 下载进度回调，可能在多个线程中调用
+     */
+    interface ProgressListener {
+        void onProgress(long downloadedBytes, long totalBytes);
+    }
+
+    /**
+     * 直链过期（HTTP 403/410）时重新解析同一格式的直链，返回null表示无法刷新
+     */
+    interface UrlRefresher {
+        String refresh(String expiredUrl) throws Exception;
+    }
+
+    /**
+     * 一次下载请求：直链、请求头和目标文件
+     */
+    class Request {
+        private volatile String url;
+        private final File target;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        // 单个HTTP请求最多请求的字节数，0表示使用引擎默认值
+        private long chunkSize;
+        private UrlRefresher urlRefresher;
+
+        public Request(String url, File target) {
+            this.url = url;
+            this.target = target;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * 直链刷新后由引擎更新
+         */
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        public Map<String, String> getHeaders() {
+            return Collections.unmodifiableMap(headers);
+        }
+
+        public Request addHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public long getChunkSize() {
+            return chunkSize;
+        }
+
+        public Request setChunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public UrlRefresher getUrlRefresher() {
+            return urlRefresher;
+        }
+
+        public Request setUrlRefresher(UrlRefresher urlRefresher) {
+            this.urlRefresher = urlRefresher;
+            return this;
+        }
+    }
+
+    /**
+     * 引擎名称，用于日志
+     */
+    String getName();
+
+    /**
+     * 下载到request指定的目标文件，已下载的部分会被续传；直链过期时通过UrlRefresher刷新后从原位置继续
+     * 调用线程被中断时尽快停止并保留已下载的数据
+     */
+    void download(Request request, ProgressListener listener) throws IOException, InterruptedException;
+}
\ No newline at end of file
@@ -7,10 +7,8 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.media.MediaScannerConnection;
 import android.os.Binder;
 import android.os.Build;
-import android.os.Environment;
 import android.os.IBinder;
 import android.os.Handler;
 import android.util.Log;
@@ -24,23 +22,37 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.alootcold.youtubedownloader.MainActivity;
 import com.alootcold.youtubedownloader.R;
 import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.model.VideoMetadata;
+import com.alootcold.youtubedownloader.util.DownloadStats;
 import com.alootcold.youtubedownloader.util.PreferenceManager;
+import com.alootcold.youtubedownloader.util.YouTubeUrlUtils;
 import com.yausername.youtubedl_android.DownloadProgressCallback;
 import com.yausername.youtubedl_android.YoutubeDL;
 import com.yausername.youtubedl_android.YoutubeDLRequest;
 
+import org.json.JSONObject;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.schedulers.Schedulers;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function3;
 
 import android.content.ClipData;
 import android.content.ClipboardManager;
@@ -48,10 +60,6 @@ import android.app.AlertDialog;
 
 import java.lang.reflect.Method;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 public class DownloadService extends Service {
 
     private static final String TAG = "DownloadService";
@@ -67,6 +75,7 @@ public class DownloadService extends Service {
     public static final String ACTION_DOWNLOAD_RESUMED = "com.alootcold.youtubedownloader.DOWNLOAD_RESUMED";
     public static final String ACTION_DOWNLOAD_CANCELED = "com.alootcold.youtubedownloader.DOWNLOAD_CANCELED";
     public static final String ACTION_START_DOWNLOAD = "com.alootcold.youtubedownloader.START_DOWNLOAD";
+    public static final String ACTION_START_BATCH_DOWNLOAD = "com.alootcold.youtubedownloader.START_BATCH_DOWNLOAD";
 
     public static final String EXTRA_DOWNLOAD_ID = "download_id";
     public static final String EXTRA_PROGRESS = "progress";
@@ -75,30 +84,59 @@ public class DownloadService extends Service {
     public static final String EXTRA_ERROR_MESSAGE = "error_message";
     public static final String EXTRA_URL = "url";
     public static final String EXTRA_FORMAT = "format";
+    public static final String EXTRA_URLS = "urls";
+    public static final String EXTRA_CONCURRENT_FRAGMENTS = "concurrent_fragments";
+    public static final String EXTRA_FRAGMENT_INDEX = "fragment_index";
+    public static final String EXTRA_FRAGMENT_COUNT = "fragment_count";
+    public static final String EXTRA_SUBTITLE_LANGUAGES = "subtitle_languages";
+    public static final String EXTRA_SUBTITLE_FORMAT = "subtitle_format";
+    public static final String EXTRA_CLIP_START_MS = "clip_start_ms";
+    public static final String EXTRA_CLIP_END_MS = "clip_end_ms";
 
-    private final Map<String, DownloadItem> downloads = new HashMap<>();
-    private final Map<String, Future<?>> downloadTasks = new HashMap<>();
+    // 以下Map均以DownloadItem.getId()为键，会被下载线程和主线程同时访问
+    private final Map<String, DownloadItem> downloads = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> downloadTasks = new ConcurrentHashMap<>();
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
     private final DownloadBinder binder = new DownloadBinder();
     private LocalBroadcastManager broadcaster;
 
     // 添加截流处理相关变量
     private final Handler handler = new Handler();
-    private final Map<String, Long> lastProgressUpdateTime = new HashMap<>();
+    private final Map<String, Long> lastProgressUpdateTime = new ConcurrentHashMap<>();
     private static final long PROGRESS_UPDATE_THROTTLE_MS = 500; // 每0.5秒最多更新一次UI
 
     // 添加常量定义下载完成后的停留时间
     private static final long COMPLETED_ITEM_RETENTION_MS = 10000; // 下载完成后保留10秒
     
     // 添加保存已完成下载项的列表
-    private final Map<String, DownloadItem> completedDownloads = new HashMap<>();
-    private final Map<String, Runnable> removalRunnables = new HashMap<>();
+    private final Map<String, DownloadItem> completedDownloads = new ConcurrentHashMap<>();
+    private final Map<String, Runnable> removalRunnables = new ConcurrentHashMap<>();
+
+    // 批量添加时同时探测的链接数，避免探测进程挤占下载所需的带宽和CPU
+    private static final int BATCH_PROBE_CONCURRENCY = 3;
+    private final ExecutorService probeExecutor = Executors.newFixedThreadPool(BATCH_PROBE_CONCURRENCY);
+
+    // 同时进行网络传输的任务数，其余任务排队；合并等后处理在PostProcessor中进行，不占用这里的名额
+    private static final int MAX_CONCURRENT_DOWNLOADS = 3;
+    private final ExecutorService downloadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
+    private final Map<String, Future<?>> postProcessTasks = new ConcurrentHashMap<>();
+    // 按探测到的预计大小预留磁盘空间
+    private final DiskSpaceLedger spaceLedger = new DiskSpaceLedger();
+    // 暂停或失败后保留的暂存数据，超过这个时间没有继续下载就删除
+    private static final long STAGING_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        // 清理很久以前暂停或失败后没有再下载的任务留下的暂存数据
+        new Thread(() -> new MediaPublisher(getApplicationContext()).pruneStaging(STAGING_MAX_AGE_MS)).start();
         createNotificationChannel();
         broadcaster = LocalBroadcastManager.getInstance(this);
+
+        // 常驻模式下提前启动工作进程，第一次探测无需等待yt-dlp导入
+        if (YtDlpWorkerPool.isEnabled(this)) {
+            YtDlpWorkerPool.getInstance(this).warmUp();
+        }
     }
 
     @Override
@@ -114,19 +152,7 @@ public class DownloadService extends Service {
                             // 根据Android版本处理前台服务启动
                             Notification notification = createNotification("准备下载...");
                             
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
-                                // Android 14+
-                                Log.d(TAG, "Starting foreground service on Android 14+");
-                                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
-                            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                                // Android 10-13
-                                Log.d(TAG, "Starting foreground service on Android 10-13");
-                                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
-                            } else {
-                                // Android 9及以下
-                                Log.d(TAG, "Starting foreground service on Android 9 or below");
-                                startForeground(NOTIFICATION_ID, notification);
-                            }
+                            startForegroundCompat(notification);
                             
                             // 创建一个临时的DownloadItem对象
                             DownloadItem item = new DownloadItem(
@@ -136,6 +162,11 @@ public class DownloadService extends Service {
                                 "准备下载",              // status
                                 true                    // isDownload
                             );
+                            item.setConcurrentFragments(intent.getIntExtra(EXTRA_CONCURRENT_FRAGMENTS, 0));
+                            item.setSubtitles(intent.getStringExtra(EXTRA_SUBTITLE_LANGUAGES),
+                                    intent.getStringExtra(EXTRA_SUBTITLE_FORMAT));
+                            item.setClip(intent.getLongExtra(EXTRA_CLIP_START_MS, 0),
+                                    intent.getLongExtra(EXTRA_CLIP_END_MS, 0));
                             startDownload(item);
                         } catch (SecurityException se) {
                             Log.e(TAG, "Security exception starting foreground service", se);
@@ -154,6 +185,28 @@ public class DownloadService extends Service {
                         Log.e(TAG, "URL or format is null");
                         Toast.makeText(getApplicationContext(), "无效的下载参数", Toast.LENGTH_SHORT).show();
                     }
+                } else if (ACTION_START_BATCH_DOWNLOAD.equals(action)) {
+                    ArrayList<String> urls = intent.getStringArrayListExtra(EXTRA_URLS);
+                    String format = intent.getStringExtra(EXTRA_FORMAT);
+                    if (urls != null && !urls.isEmpty() && format != null) {
+                        try {
+                            startForegroundCompat(createNotification("正在解析" + urls.size() + "个链接..."));
+                            int enqueued = enqueueBatch(urls, format,
+                                    intent.getStringExtra(EXTRA_SUBTITLE_LANGUAGES),
+                                    intent.getStringExtra(EXTRA_SUBTITLE_FORMAT));
+                            Toast.makeText(getApplicationContext(),
+                                    "已添加" + enqueued + "个下载任务", Toast.LENGTH_SHORT).show();
+                        } catch (SecurityException se) {
+                            Log.e(TAG, "Security exception starting foreground service", se);
+                            Toast.makeText(getApplicationContext(),
+                                "需要前台服务权限！请重新安装应用或在设置中授予权限。",
+                                Toast.LENGTH_LONG).show();
+                            stopSelf();
+                        }
+                    } else {
+                        Log.e(TAG, "URL list or format is null");
+                        Toast.makeText(getApplicationContext(), "无效的下载参数", Toast.LENGTH_SHORT).show();
+                    }
                 }
             }
         } catch (Exception e) {
@@ -177,22 +230,94 @@ public class DownloadService extends Service {
             handler.removeCallbacks(runnable);
         }
         removalRunnables.clear();
-        
+
+        probeExecutor.shutdownNow();
+        downloadExecutor.shutdownNow();
         compositeDisposable.dispose();
         super.onDestroy();
     }
 
+    /**
+     * 根据Android版本处理前台服务启动
+     */
+    private void startForegroundCompat(Notification notification) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            // Android 14+
+            Log.d(TAG, "Starting foreground service on Android 14+");
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // Android 10-13
+            Log.d(TAG, "Starting foreground service on Android 10-13");
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            // Android 9及以下
+            Log.d(TAG, "Starting foreground service on Android 9 or below");
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+
+    /**
+     * 批量添加下载：规范化并去重链接，以有限并发探测，每个探测完成后立即加入下载队列
+     *
+     * @return 实际加入队列的链接数
+     */
+    public int enqueueBatch(List<String> urls, String format, String subtitleLanguages, String subtitleFormat) {
+        // 同一视频的不同链接形式只保留一个
+        Map<String, String> uniqueUrls = new LinkedHashMap<>();
+        for (String url : urls) {
+            if (url == null || url.trim().isEmpty()) {
+                continue;
+            }
+            String canonical = YouTubeUrlUtils.canonicalizeUrl(url.trim());
+            String key = VideoInfoFetcher.keyFor(canonical);
+            if (!uniqueUrls.containsKey(key)) {
+                uniqueUrls.put(key, canonical);
+            }
+        }
+        Log.d(TAG, "Batch enqueue: " + urls.size() + " urls, " + uniqueUrls.size() + " unique");
+
+        int enqueued = 0;
+        for (String url : uniqueUrls.values()) {
+            DownloadItem item = new DownloadItem(url, format, "正在获取视频信息...", "准备下载", true);
+            item.setSubtitles(subtitleLanguages, subtitleFormat);
+            if (findActiveDuplicate(item) != null) {
+                Log.d(TAG, "Batch item already downloading: " + item.getDedupeKey());
+                continue;
+            }
+            probeExecutor.execute(() -> {
+                try {
+                    VideoMetadata metadata = VideoInfoFetcher.getInstance(getApplicationContext()).fetch(url);
+                    applyMetadata(item, metadata);
+                } catch (Exception e) {
+                    // 探测失败不影响下载，下载流程会使用回退格式
+                    Log.e(TAG, "Batch probe failed: " + url, e);
+                }
+                handler.post(() -> startDownload(item));
+            });
+            enqueued++;
+        }
+        return enqueued;
+    }
+
     public void startDownload(DownloadItem item) {
         try {
             String videoId = item.getId();
-            if (downloads.containsKey(videoId)) {
+            if (downloadTasks.containsKey(videoId)) {
                 Log.w(TAG, "Download already in progress for video ID: " + videoId);
                 return;
             }
 
+            // 同一视频、同一格式的任务已在下载中，视为重复任务
+            DownloadItem duplicate = findActiveDuplicate(item);
+            if (duplicate != null) {
+                Log.w(TAG, "Duplicate download skipped: " + item.getDedupeKey() + " (active: " + duplicate.getId() + ")");
+                return;
+            }
+
             downloads.put(videoId, item);
-            updateNotification(item, 0);
-            broadcastDownloadProgress(videoId, 0, "");
+            // 暂停后恢复的任务从检查点继续，进度不从0开始
+            updateNotification(item, item.getProgress());
+            broadcastDownloadProgress(videoId, item.getProgress(), "");
             
             // 重复发送进度更新，确保UI能收到至少一次
             handler.postDelayed(() -> {
@@ -201,511 +326,593 @@ public class DownloadService extends Service {
                 }
             }, 1000);
 
-            // 尝试获取视频信息（包括缩略图）
+            // 尝试获取视频信息（包括缩略图），同一视频的并发探测会被合并
             new Thread(() -> {
                 try {
                     // 只有当缩略图URL为空时才获取
                     if (item.getThumbnailUrl() == null || item.getThumbnailUrl().isEmpty()) {
-                        // 获取视频信息
-                        YoutubeDL.getInstance().init(getApplicationContext());
-                        YoutubeDLRequest infoRequest = new YoutubeDLRequest(item.getUrl());
-                        infoRequest.addOption("--dump-json");
-                        infoRequest.addOption("--no-playlist");
-                        infoRequest.addOption("--flat-playlist");
-                        
-                        try {
-                            // 获取视频信息，然后转换为JSON字符串
-                            com.yausername.youtubedl_android.mapper.VideoInfo videoInfo = YoutubeDL.getInstance().getInfo(infoRequest);
-                            
-                            // 尝试多种方法获取JSON数据
-                            String videoInfoJson = null;
-                            try {
-                                // 尝试使用反射获取getJson方法
-                                java.lang.reflect.Method getJsonMethod = videoInfo.getClass().getMethod("getJson");
-                                videoInfoJson = (String) getJsonMethod.invoke(videoInfo);
-                            } catch (Exception e) {
-                                Log.d(TAG, "getJson方法不存在，尝试其他方法", e);
-                                
-                                // 尝试使用toString方法
-                                videoInfoJson = videoInfo.toString();
-                                
-                                // 检查返回的字符串是否为JSON格式
-                                if (videoInfoJson != null && !videoInfoJson.startsWith("{") && !videoInfoJson.endsWith("}")) {
-                                    Log.d(TAG, "toString不是JSON格式，尝试获取其他字段");
-                                    
-                                    // 尝试获取原始信息
-                                    try {
-                                        // 尝试使用反射获取原始json字段
-                                        java.lang.reflect.Field jsonField = videoInfo.getClass().getDeclaredField("json");
-                                        jsonField.setAccessible(true);
-                                        Object jsonObject = jsonField.get(videoInfo);
-                                        if (jsonObject != null) {
-                                            videoInfoJson = jsonObject.toString();
-                                        }
-                                    } catch (Exception ex) {
-                                        Log.e(TAG, "无法通过反射获取json字段", ex);
-                                    }
-                                }
-                            }
-                            
-                            // 如果所有获取JSON的尝试都失败，尝试从VideoInfo对象直接获取信息
-                            if (videoInfoJson == null || videoInfoJson.isEmpty()) {
-                                Log.d(TAG, "无法获取JSON数据，尝试直接获取字段");
-                                
-                                // 如果当前标题是默认的，尝试直接获取标题
-                                if (item.getTitle().equals("正在获取视频信息...")) {
-                                    try {
-                                        String title = videoInfo.getTitle(); // 直接使用getTitle方法
-                                        if (title != null && !title.isEmpty()) {
-                                            item.setTitle(title);
-                                            Log.d(TAG, "从VideoInfo直接获取标题: " + title);
-                                        }
-                                    } catch (Exception e) {
-                                        Log.e(TAG, "无法从VideoInfo获取标题", e);
-                                    }
-                                }
-                                
-                                // 尝试直接获取缩略图URL
-                                try {
-                                    // 尝试使用反射查找getThumbnail或getThumbnailUrl方法
-                                    for (String methodName : new String[]{"getThumbnail", "getThumbnailUrl", "getThumbnail_url"}) {
-                                        try {
-                                            java.lang.reflect.Method thumbMethod = videoInfo.getClass().getMethod(methodName);
-                                            Object thumbObj = thumbMethod.invoke(videoInfo);
-                                            if (thumbObj != null && thumbObj instanceof String) {
-                                                String thumbnailUrl = (String) thumbObj;
-                                                if (!thumbnailUrl.isEmpty()) {
-                                                    item.setThumbnailUrl(thumbnailUrl);
-                                                    Log.d(TAG, "从VideoInfo直接获取缩略图URL: " + thumbnailUrl);
-                                                    break;
-                                                }
-                                            }
-                                        } catch (Exception e) {
-                                            // 继续尝试下一个方法名
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    Log.e(TAG, "无法从VideoInfo获取缩略图", e);
-                                }
-                                
-                                // 如果无法获取缩略图，使用YouTube ID回退方案
-                                if (item.getThumbnailUrl() == null || item.getThumbnailUrl().isEmpty()) {
-                                    String youtubeId = extractYouTubeId(item.getUrl());
-                                    if (youtubeId != null && !youtubeId.isEmpty()) {
-                                        String thumbnailUrl = "https://img.youtube.com/vi/" + youtubeId + "/0.jpg";
-                                        item.setThumbnailUrl(thumbnailUrl);
-                                        Log.d(TAG, "使用YouTube ID设置缩略图URL: " + thumbnailUrl);
-                                    }
-                                }
-                                
-                                // 更新通知和广播进度
-                                if (downloads.containsKey(videoId)) {
-                                    handler.post(() -> {
-                                        updateNotification(item, item.getProgress());
-                                        broadcastDownloadProgress(videoId, item.getProgress(), item.getEta());
-                                    });
-                                }
-                            } else {
-                                try {
-                                    JSONObject json = new JSONObject(videoInfoJson);
-                                    
-                                    // 提取视频标题（如果当前标题是默认的）
-                                    if (item.getTitle().equals("正在获取视频信息...") && json.has("title")) {
-                                        String title = json.getString("title");
-                                        item.setTitle(title);
-                                        Log.d(TAG, "Updated title to: " + title);
-                                    }
-                                    
-                                    // 提取视频缩略图
-                                    if (json.has("thumbnail")) {
-                                        String thumbnailUrl = json.getString("thumbnail");
-                                        item.setThumbnailUrl(thumbnailUrl);
-                                        Log.d(TAG, "Set thumbnail URL: " + thumbnailUrl);
-                                    } else if (json.has("thumbnails") && json.getJSONArray("thumbnails").length() > 0) {
-                                        JSONArray thumbnails = json.getJSONArray("thumbnails");
-                                        JSONObject bestThumbnail = thumbnails.getJSONObject(thumbnails.length() - 1);
-                                        if (bestThumbnail.has("url")) {
-                                            String thumbnailUrl = bestThumbnail.getString("url");
-                                            item.setThumbnailUrl(thumbnailUrl);
-                                            Log.d(TAG, "Set best thumbnail URL: " + thumbnailUrl);
-                                        }
-                                    }
-                                    
-                                    // 更新通知并广播进度
-                                    if (downloads.containsKey(videoId)) {
-                                        handler.post(() -> {
-                                            updateNotification(item, item.getProgress());
-                                            broadcastDownloadProgress(videoId, item.getProgress(), item.getEta());
-                                        });
-                                    }
-                                } catch (JSONException e) {
-                                    Log.e(TAG, "Error parsing video info JSON", e);
-                                }
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to get video info: " + e.getMessage(), e);
-                            
-                            // 后备方案：尝试使用YouTube视频ID来设置缩略图
-                            String youtubeId = extractYouTubeId(item.getUrl());
-                            if (youtubeId != null && !youtubeId.isEmpty()) {
-                                String thumbnailUrl = "https://img.youtube.com/vi/" + youtubeId + "/0.jpg";
-                                item.setThumbnailUrl(thumbnailUrl);
-                                Log.d(TAG, "Set fallback thumbnail URL: " + thumbnailUrl);
-                            }
+                        VideoMetadata metadata = VideoInfoFetcher.getInstance(getApplicationContext()).fetch(item.getUrl());
+                        applyMetadata(item, metadata);
+
+                        // 更新通知并广播进度
+                        if (downloads.containsKey(videoId)) {
+                            handler.post(() -> {
+                                updateNotification(item, item.getProgress());
+                                broadcastDownloadProgress(videoId, item.getProgress(), item.getEta());
+                            });
                         }
                     }
                 } catch (Exception e) {
-                    Log.e(TAG, "Error getting video info", e);
+                    Log.e(TAG, "Failed to get video info: " + e.getMessage(), e);
+
+                    // 后备方案：尝试使用YouTube视频ID来设置缩略图
+                    String youtubeId = item.getVideoId();
+                    if (youtubeId != null && !youtubeId.isEmpty()) {
+                        String thumbnailUrl = YouTubeUrlUtils.defaultThumbnailUrl(youtubeId);
+                        item.setThumbnailUrl(thumbnailUrl);
+                        Log.d(TAG, "Set fallback thumbnail URL: " + thumbnailUrl);
+                    }
                     // 不要因为缩略图获取失败而中断主下载流程
                 }
             }).start();
 
-            Future<?> downloadTask = Executors.newSingleThreadExecutor().submit(() -> {
-                String downloadDir;
-                try {
-                    // 初始化YouTube-DL
-                    try {
-                        YoutubeDL.getInstance().init(getApplicationContext());
-                        Log.d(TAG, "YouTube-DL initialized successfully");
-                        
-                        // 尝试更新youtube-dl，解决"Sign in to confirm you're not a bot"问题
-                        updateYoutubeDL();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to initialize YouTube-DL", e);
-                        throw new Exception("YouTube-DL初始化失败: " + e.getMessage());
-                    }
+            downloadTasks.put(videoId, downloadExecutor.submit(() -> runDownload(item)));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start download", e);
+            Toast.makeText(getApplicationContext(), "启动下载失败: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
 
-                    // 确保DCIM目录存在
-                    File dcimDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM);
-                    File youtubeDCIMDir = new File(dcimDir, "YouTubeDownloads");
-                    if (!youtubeDCIMDir.exists()) {
-                        boolean dirCreated = youtubeDCIMDir.mkdirs();
-                        if (!dirCreated) {
-                            Log.e(TAG, "Failed to create DCIM/YouTubeDownloads directory");
-                            throw new Exception("无法创建下载目录 DCIM/YouTubeDownloads");
-                        }
-                    }
+    /**
+     * 下载线程中执行的任务主体
+     */
+    private void runDownload(DownloadItem item) {
+        String videoId = item.getId();
+        try {
+            // 初始化YouTube-DL
+            try {
+                YoutubeDL.getInstance().init(getApplicationContext());
+                Log.d(TAG, "YouTube-DL initialized successfully");
+                
+                // 尝试更新youtube-dl，解决"Sign in to confirm you're not a bot"问题
+                updateYoutubeDL();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to initialize YouTube-DL", e);
+                throw new Exception("YouTube-DL初始化失败: " + e.getMessage());
+            }
 
-                    // 使用DCIM目录作为下载路径
-                    downloadDir = youtubeDCIMDir.getAbsolutePath();
-                    
-                    // 检查下载目录权限
-                    if (!youtubeDCIMDir.canWrite()) {
-                        throw new Exception("没有DCIM目录的写入权限");
-                    }
+            // 下载和后处理都在内部存储中本任务的暂存目录进行，完成后才发布到媒体库
+            File youtubeDLDir = new MediaPublisher(getApplicationContext()).getStagingDir(item.getDedupeKey());
+            item.startPhase();
 
-                    File youtubeDLDir = new File(downloadDir, "YouTubeDownloads");
-                    if (!youtubeDLDir.exists()) {
-                        boolean dirCreated = youtubeDLDir.mkdirs(); // 使用mkdirs()而不是mkdir()，创建多级目录
-                        if (!dirCreated) {
-                            throw new Exception("无法创建下载目录");
-                        }
-                    }
+            // 仅音频：跳过视频格式回退和字幕，走单独的音频流程（片段下载统一走yt-dlp分段下载）
+            if (AudioPipeline.isAudioFormat(item.getFormat()) && !item.isClip()) {
+                downloadAudio(item, youtubeDLDir);
+                return;
+            }
 
-                    YoutubeDLRequest request = new YoutubeDLRequest(item.getUrl());
-                    
-                    // 使用用户选择的格式而不是固定的best格式
-                    String formatOption = item.getFormat();
-                    if (formatOption == null || formatOption.isEmpty()) {
-                        formatOption = "best";  // 默认使用最佳质量
-                    }
-                    
-                    // 修改为更安全的格式选择，添加回退选项
-                    // 避免"Requested format is not available"错误
-                    if (formatOption.equals("best")) {
-                        // 使用更可靠的格式字符串，优先选择最高质量视频+音频
-                        // 添加多个分辨率选项，按质量降序排列
-                        formatOption = "bestvideo[height>=1080]+bestaudio/bestvideo+bestaudio/best";
-                    } else if (formatOption.equals("bestvideo+bestaudio")) {
-                        // 确保能获取最高质量的视频
-                        formatOption = "bestvideo[height>=1080]+bestaudio/bestvideo+bestaudio/best";
-                    } else if (formatOption.contains("1080")) {
-                        // 对于1080p，添加可能的更高分辨率选项
-                        formatOption = "bestvideo[height>=1080]+bestaudio/bestvideo[height=1080]+bestaudio/best[height>=1080]/best";
-                    } else if (formatOption.contains("720")) {
-                        // 对于720p，尝试获取至少720p的视频
-                        formatOption = "bestvideo[height>=720]+bestaudio/bestvideo[height=720]+bestaudio/best[height>=720]/best";
-                    }
-                    
-                    Log.d(TAG, "Using format option: " + formatOption);
+            YoutubeDLRequest request = new YoutubeDLRequest(item.getUrl());
+            
+            // 使用用户选择的格式而不是固定的best格式
+            String formatOption = item.getFormat();
+            if (formatOption == null || formatOption.isEmpty()) {
+                formatOption = "best";  // 默认使用最佳质量
+            }
+            
+            // 修改为更安全的格式选择，添加回退选项
+            // 避免"Requested format is not available"错误
+            if (formatOption.equals("best")) {
+                // 使用更可靠的格式字符串，优先选择最高质量视频+音频
+                // 添加多个分辨率选项，按质量降序排列
+                formatOption = "bestvideo[height>=1080]+bestaudio/bestvideo+bestaudio/best";
+            } else if (formatOption.equals("bestvideo+bestaudio")) {
+                // 确保能获取最高质量的视频
+                formatOption = "bestvideo[height>=1080]+bestaudio/bestvideo+bestaudio/best";
+            } else if (formatOption.contains("1080")) {
+                // 对于1080p，添加可能的更高分辨率选项
+                formatOption = "bestvideo[height>=1080]+bestaudio/bestvideo[height=1080]+bestaudio/best[height>=1080]/best";
+            } else if (formatOption.contains("720")) {
+                // 对于720p，尝试获取至少720p的视频
+                formatOption = "bestvideo[height>=720]+bestaudio/bestvideo[height=720]+bestaudio/best[height>=720]/best";
+            }
+            
+            Log.d(TAG, "Using format option: " + formatOption);
+            request.addOption("--format", formatOption);
+            
+            // 检查可用格式：复用探测结果（与缩略图探测共享同一个yt-dlp进程），不再单独执行--list-formats
+            VideoMetadata probeMetadata = null;
+            try {
+                Log.d(TAG, "Checking available formats for: " + item.getUrl());
+                VideoMetadata metadata = VideoInfoFetcher.getInstance(getApplicationContext()).fetch(item.getUrl());
+                probeMetadata = metadata;
+                applyMetadata(item, metadata);
+                Log.d(TAG, "Available formats: " + metadata.getFormatCount());
+
+                // 如果没有解析到任何格式，尝试更简单的格式
+                if (metadata.getFormatCount() == 0) {
+                    Log.w(TAG, "No formats in probe result, switching to basic format");
+                    formatOption = "bestvideo[height>=720]+bestaudio/best[height>=720]/best";
                     request.addOption("--format", formatOption);
-                    
-                    // 首先尝试获取可用格式列表
-                    try {
-                        Log.d(TAG, "Checking available formats for: " + item.getUrl());
-                        YoutubeDLRequest formatRequest = new YoutubeDLRequest(item.getUrl());
-                        formatRequest.addOption("--list-formats");
-                        formatRequest.addOption("--no-playlist");
-                        formatRequest.addOption("--no-warnings");
-                        // 添加绕过YouTube限制的选项
-                        addBypassOptions(formatRequest);
-                        
-                        // 尝试使用反射调用getCommandOutput方法，因为这个方法可能不存在于所有版本的库中
-                        String formatsOutput = "";
-                        try {
-                            Method getCommandOutputMethod = YoutubeDL.class.getMethod("getCommandOutput", YoutubeDLRequest.class);
-                            formatsOutput = (String) getCommandOutputMethod.invoke(YoutubeDL.getInstance(), formatRequest);
-                            Log.d(TAG, "Available formats: " + formatsOutput);
-                            
-                            // 如果输出包含错误信息，尝试更简单的格式
-                            if (formatsOutput.contains("ERROR") || formatsOutput.contains("error")) {
-                                Log.w(TAG, "Error in formats list, switching to basic format");
-                                formatOption = "bestvideo[height>=720]+bestaudio/best[height>=720]/best";
-                                request.addOption("--format", formatOption);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error checking formats, using fallback format", e);
+                // 出错时使用更通用的回退格式
+                formatOption = "bestvideo[height>=720]+bestaudio/best[height>=720]/best";
+                request.addOption("--format", formatOption);
+            }
+            
+            // 基本选项
+            request.addOption("--no-warnings");
+            request.addOption("--no-playlist");
+            request.addOption("--prefer-ffmpeg");
+            
+            // 添加额外的debug选项
+            request.addOption("--verbose");
+            
+            // 设置文件名模板，使用youtube-dl的安全文件名功能
+            String outputTemplate = item.isClip()
+                    ? ClipExtractor.outputTemplate(youtubeDLDir)
+                    : youtubeDLDir.getAbsolutePath() + "/%(title)s.%(ext)s";
+            request.addOption("-o", outputTemplate);
+            
+            // 添加绕过YouTube限制的选项
+            addBypassOptions(request);
+            
+            // 在Android 10+上添加额外选项以处理权限问题
+            if (Build.VERSION.SDK_INT >= 29) {
+                request.addOption("--no-mtime");
+            }
+
+            // 分片并发下载和带宽分配
+            DownloadTuning.apply(getApplicationContext(), request, item, Math.max(1, downloadTasks.size()));
+
+            // 按探测到的预计大小预留磁盘空间，放不下时在开始传输前就失败
+            reserveSpace(item, estimateDownloadSize(item, probeMetadata), youtubeDLDir);
+
+            // 字幕只在任务需要时获取；完整字幕的时间轴与片段对不上，片段下载不获取字幕
+            List<SubtitleFetcher.Track> subtitles = item.isClip()
+                    ? Collections.<SubtitleFetcher.Track>emptyList()
+                    : fetchSubtitles(item, probeMetadata, request);
+
+            // 片段下载：只下载覆盖时间段的分片，精确裁剪交给后处理线程
+            if (item.isClip()) {
+                downloadClip(item, probeMetadata, request, youtubeDLDir);
+                return;
+            }
+
+            Log.d(TAG, "Starting download for: " + item.getTitle());
+            Log.d(TAG, "Download directory: " + youtubeDLDir.getAbsolutePath());
+            Log.d(TAG, "Video URL: " + item.getUrl());
+            Log.d(TAG, "Format option: " + item.getFormat());
+            
+            // Java分段下载引擎：yt-dlp只负责解析，直链由Java多连接下载，无法处理时回退到yt-dlp
+            NativeDownload nativeDownload = null;
+            if (probeMetadata != null && probeMetadata.hasJson()
+                    && new PreferenceManager(getApplicationContext()).isNativeEngineEnabled()) {
+                nativeDownload = downloadWithNativeEngine(item, probeMetadata, youtubeDLDir);
+            }
+
+            try {
+                if (nativeDownload == null) {
+                    executeRequest(
+                            request,
+                            videoId,
+                            (progress, etaInSeconds, line) -> {
+                                onProgressUpdate(item, progress, etaInSeconds, line);
+                                return null;
                             }
-                        } catch (NoSuchMethodException methodEx) {
-                            // getCommandOutput方法不存在，使用回退格式
-                            Log.w(TAG, "getCommandOutput method not available, using fallback format", methodEx);
-                            formatOption = "bestvideo[height>=720]+bestaudio/best[height>=720]/best";
-                            request.addOption("--format", formatOption);
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error checking formats, using fallback format", e);
-                        // 出错时使用更通用的回退格式
-                        formatOption = "bestvideo[height>=720]+bestaudio/best[height>=720]/best";
-                        request.addOption("--format", formatOption);
-                    }
-                    
-                    // 基本选项
-                    request.addOption("--no-warnings");
-                    request.addOption("--no-playlist");
-                    request.addOption("--prefer-ffmpeg");
-                    
-                    // 添加额外的debug选项
-                    request.addOption("--verbose");
-                    
-                    // 设置文件名模板，使用youtube-dl的安全文件名功能
-                    String outputTemplate = youtubeDLDir.getAbsolutePath() + "/%(title)s.%(ext)s";
-                    request.addOption("-o", outputTemplate);
-                    
-                    // 添加自动匹配字幕选项
-                    request.addOption("--write-auto-sub");
+                    );
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Exception during YoutubeDL execute: " + e.getMessage(), e);
+                
+                // 检查是否是格式不可用错误
+                if (e.getMessage() != null && (e.getMessage().contains("Requested format is not available") 
+                        || e.getMessage().contains("format not available"))) {
                     
-                    // 添加绕过YouTube限制的选项
-                    addBypassOptions(request);
-                    
-                    // 在Android 10+上添加额外选项以处理权限问题
-                    if (Build.VERSION.SDK_INT >= 29) {
-                        request.addOption("--no-mtime");
-                    }
-
-                    Log.d(TAG, "Starting download for: " + item.getTitle());
-                    Log.d(TAG, "Download directory: " + youtubeDLDir.getAbsolutePath());
-                    Log.d(TAG, "Video URL: " + item.getUrl());
-                    Log.d(TAG, "Format option: " + item.getFormat());
+                    Log.w(TAG, "Format not available error, trying with simpler format");
                     
+                    // 尝试使用更简单的格式重试下载
                     try {
-                        YoutubeDL.getInstance().execute(
-                                request,
+                        // 创建新的请求，使用更高清晰度的格式
+                        YoutubeDLRequest retryRequest = new YoutubeDLRequest(item.getUrl());
+                        // 尝试获取更高清晰度的视频 (720p或更高)
+                        retryRequest.addOption("--format", "bestvideo[height>=720]+bestaudio/bestvideo+bestaudio/best");
+                        
+                        // 复制其他基本选项
+                        retryRequest.addOption("--no-warnings");
+                        retryRequest.addOption("--no-playlist");
+                        retryRequest.addOption("--prefer-ffmpeg");
+                        retryRequest.addOption("--verbose");
+                        
+                        // 设置输出模板
+                        String retryOutputTemplate = youtubeDLDir.getAbsolutePath() + "/%(title)s.%(ext)s";
+                        retryRequest.addOption("-o", retryOutputTemplate);
+                        
+                        // 添加其他选项
+                        addBypassOptions(retryRequest);
+                        
+                        // 在Android 10+上添加额外选项以处理权限问题
+                        if (Build.VERSION.SDK_INT >= 29) {
+                            retryRequest.addOption("--no-mtime");
+                        }
+                        DownloadTuning.apply(getApplicationContext(), retryRequest, item, Math.max(1, downloadTasks.size()));
+                        
+                        Log.d(TAG, "Retrying download with format: bestvideo[height>=720]+bestaudio/bestvideo+bestaudio/best");
+                        
+                        // 执行重试下载
+                        executeRequest(
+                                retryRequest,
                                 videoId,
                                 (progress, etaInSeconds, line) -> {
-                                    // 确保进度值在0-100之间
-                                    int progressPercent = Math.min(100, Math.max(0, (int) (progress * 100)));
-                                    // 记录原始进度值和处理后的进度值，用于调试
-                                    if (progress > 1.0) {
-                                        Log.w(TAG, "Abnormal progress value detected: " + progress + 
-                                              " -> corrected to: " + progressPercent + "%");
-                                    }
-                                    
-                                    item.setProgress(progressPercent);
-                                    item.setEta(formatEta(etaInSeconds));
-                                    
-                                    // 记录下载进度日志
-                                    if (progressPercent % 10 == 0) {
-                                        Log.d(TAG, "Download progress: " + progressPercent + "% - " + item.getTitle());
-                                    }
-                                    
-                                    if (line != null && !line.isEmpty()) {
-                                        Log.d(TAG, "YoutubeDL output: " + line);
-                                    }
-                                    
-                                    // 截流处理，避免过于频繁的UI更新
-                                    long currentTime = System.currentTimeMillis();
-                                    Long lastUpdate = lastProgressUpdateTime.get(videoId);
-                                    if (lastUpdate == null || (currentTime - lastUpdate) >= PROGRESS_UPDATE_THROTTLE_MS) {
-                                        updateNotification(item, progressPercent);
-                                        broadcastDownloadProgress(videoId, progressPercent, formatEta(etaInSeconds));
-                                        lastProgressUpdateTime.put(videoId, currentTime);
-                                    }
-                                    
+                                    // 与上面相同的进度处理逻辑
+                                    onProgressUpdate(item, progress, etaInSeconds, line);
                                     return null;
                                 }
                         );
-                    } catch (Exception e) {
-                        Log.e(TAG, "Exception during YoutubeDL execute: " + e.getMessage(), e);
-                        
-                        // 检查是否是格式不可用错误
-                        if (e.getMessage() != null && (e.getMessage().contains("Requested format is not available") 
-                                || e.getMessage().contains("format not available"))) {
-                            
-                            Log.w(TAG, "Format not available error, trying with simpler format");
-                            
-                            // 尝试使用更简单的格式重试下载
-                            try {
-                                // 创建新的请求，使用更高清晰度的格式
-                                YoutubeDLRequest retryRequest = new YoutubeDLRequest(item.getUrl());
-                                // 尝试获取更高清晰度的视频 (720p或更高)
-                                retryRequest.addOption("--format", "bestvideo[height>=720]+bestaudio/bestvideo+bestaudio/best");
-                                
-                                // 复制其他基本选项
-                                retryRequest.addOption("--no-warnings");
-                                retryRequest.addOption("--no-playlist");
-                                retryRequest.addOption("--prefer-ffmpeg");
-                                retryRequest.addOption("--verbose");
-                                
-                                // 设置输出模板
-                                String retryOutputTemplate = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM), 
-                                        "YouTubeDownloads/YouTubeDownloads/%(title)s.%(ext)s").getAbsolutePath();
-                                retryRequest.addOption("-o", retryOutputTemplate);
-                                
-                                // 添加其他选项
-                                retryRequest.addOption("--write-auto-sub");
-                                addBypassOptions(retryRequest);
-                                
-                                // 在Android 10+上添加额外选项以处理权限问题
-                                if (Build.VERSION.SDK_INT >= 29) {
-                                    retryRequest.addOption("--no-mtime");
-                                }
-                                
-                                Log.d(TAG, "Retrying download with format: bestvideo[height>=720]+bestaudio/bestvideo+bestaudio/best");
-                                
-                                // 执行重试下载
-                                YoutubeDL.getInstance().execute(
-                                        retryRequest,
-                                        videoId,
-                                        (progress, etaInSeconds, line) -> {
-                                            // 与上面相同的进度处理逻辑
-                                            int progressPercent = Math.min(100, Math.max(0, (int) (progress * 100)));
-                                            item.setProgress(progressPercent);
-                                            item.setEta(formatEta(etaInSeconds));
-                                            
-                                            long currentTime = System.currentTimeMillis();
-                                            Long lastUpdate = lastProgressUpdateTime.get(videoId);
-                                            if (lastUpdate == null || (currentTime - lastUpdate) >= PROGRESS_UPDATE_THROTTLE_MS) {
-                                                updateNotification(item, progressPercent);
-                                                broadcastDownloadProgress(videoId, progressPercent, formatEta(etaInSeconds));
-                                                lastProgressUpdateTime.put(videoId, currentTime);
-                                            }
-                                            
-                                            return null;
-                                        }
-                                );
-                                
-                                // 如果重试成功，直接返回，不抛出原始异常
-                                return;
-                                
-                            } catch (Exception retryEx) {
-                                Log.e(TAG, "Retry download also failed", retryEx);
-                                // 重试也失败，继续处理原始异常
-                            }
-                        }
-                        
-                        // 检查是否是机器人验证错误
-                        if (e.getMessage() != null && e.getMessage().contains("Sign in to confirm you're not a bot")) {
-                            throw new Exception("YouTube需要验证您不是机器人。请尝试以下解决方法：\n\n" +
-                                    "1. 在浏览器中登录您的YouTube账号\n" +
-                                    "2. 打开需要下载的视频，正常观看一会儿\n" +
-                                    "3. 更新应用程序以获取最新的下载引擎\n" +
-                                    "4. 使用VPN或更换网络连接");
-                        }
-                        throw e;
+
+                        // 重试成功，与正常下载一样发布输出文件、释放预留空间
+                        completeFromStagedFile(item, youtubeDLDir, subtitles);
+                        return;
+
+                    } catch (Exception retryEx) {
+                        Log.e(TAG, "Retry download also failed", retryEx);
+                        // 重试也失败，继续处理原始异常
                     }
+                }
+                
+                // 检查是否是机器人验证错误
+                if (e.getMessage() != null && e.getMessage().contains("Sign in to confirm you're not a bot")) {
+                    throw new Exception("YouTube需要验证您不是机器人。请尝试以下解决方法：\n\n" +
+                            "1. 在浏览器中登录您的YouTube账号\n" +
+                            "2. 打开需要下载的视频，正常观看一会儿\n" +
+                            "3. 更新应用程序以获取最新的下载引擎\n" +
+                            "4. 使用VPN或更换网络连接");
+                }
+                throw e;
+            }
 
-                    // youtube-dl会处理文件名和扩展名，所以我们不能确定确切的文件名和扩展名
-                    // 我们需要扫描下载目录查找新文件
-                    File[] files = youtubeDLDir.listFiles();
-                    if (files != null && files.length > 0) {
-                        long latestModified = 0;
-                        File latestFile = null;
-                        
-                        for (File file : files) {
-                            if (file.lastModified() > latestModified) {
-                                latestModified = file.lastModified();
-                                latestFile = file;
-                            }
+            if (nativeDownload != null) {
+                // 原始音视频已经写入磁盘，合并交给后处理线程，下载线程立即去处理下一个任务
+                submitPostProcess(item, nativeDownload, subtitles);
+                return;
+            }
+
+            completeFromStagedFile(item, youtubeDLDir, subtitles);
+
+        } catch (DiskSpaceLedger.SpaceBusyException e) {
+            // 等待其他任务释放空间期间不占用下载线程，释放后重新排队
+            Log.d(TAG, "Waiting for disk space: " + videoId);
+        } catch (Exception e) {
+            // 暂停和取消都是中断下载线程，之后抛出的异常不是失败
+            if (e instanceof InterruptedException || isStopped(item)) {
+                onDownloadStopped(item);
+            } else {
+                failDownload(item, e);
+            }
+        }
+    }
+
+    /**
+     * 任务已被暂停或取消
+     */
+    private boolean isStopped(DownloadItem item) {
+        return item.isPaused() || !downloads.containsKey(item.getId());
+    }
+
+    /**
+     * 任务已被暂停或取消时抛出InterruptedException，不把中断引起的IO异常当成引擎出错去回退
+     */
+    private void throwIfStopped(DownloadItem item, Exception e) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted() || isStopped(item)) {
+            InterruptedException interrupted = new InterruptedException("Download stopped: " + item.getId());
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+    }
+
+    /**
+     * 下载线程被中断而结束：不记失败、不写历史。
+     * 暂停（或服务退出时线程池被关闭）保留暂存目录中的分段文件和检查点，恢复后从断点继续；取消时删除
+     */
+    private void onDownloadStopped(DownloadItem item) {
+        String videoId = item.getId();
+        lastProgressUpdateTime.remove(videoId);
+        if (downloads.containsKey(videoId)) {
+            Log.d(TAG, "Stopped " + videoId + " at " + item.getProgress() + "%, keeping staged data");
+            return;
+        }
+        // cancelDownload已经删除过一次，这时下载线程的写入都已结束，再删除一次
+        Log.d(TAG, "Canceled " + videoId);
+        new MediaPublisher(getApplicationContext()).discardStaging(item.getDedupeKey());
+    }
+
+    /**
+     * 等待空间的任务重新提交到下载线程池，只提交一次，取消的任务不再提交
+     */
+    private Runnable requeueTask(DownloadItem item) {
+        AtomicBoolean requeued = new AtomicBoolean();
+        return () -> {
+            String videoId = item.getId();
+            if (!requeued.compareAndSet(false, true) || isStopped(item) || downloadExecutor.isShutdown()) {
+                return;
+            }
+            Log.d(TAG, "Requeue download waiting for space: " + videoId);
+            downloadTasks.put(videoId, downloadExecutor.submit(() -> runDownload(item)));
+        };
+    }
+
+    /**
+     * yt-dlp下载完成后，在本任务的暂存目录中找到输出文件，发布到媒体库并标记完成
+     */
+    private void completeFromStagedFile(DownloadItem item, File stagingDir, List<SubtitleFetcher.Track> subtitles)
+            throws Exception {
+        // yt-dlp在下载过程中已经完成了合并
+        item.endPhase(DownloadItem.PHASE_DOWNLOAD);
+
+        // yt-dlp会处理文件名和扩展名，无法预先知道确切的文件名；
+        // 暂存目录只属于这个任务，其中最新的非中间文件就是输出
+        File output = findStagedOutput(stagingDir);
+        if (output == null) {
+            throw new Exception("下载完成但找不到输出文件");
+        }
+        Log.d(TAG, "Downloaded file: " + output.getAbsolutePath());
+
+        // 更新标题为实际文件名(如果当前标题是默认的)
+        if (item.getTitle().equals("正在获取视频信息...")) {
+            String fileName = output.getName();
+            // 移除扩展名
+            int dotIndex = fileName.lastIndexOf(".");
+            if (dotIndex > 0) {
+                fileName = fileName.substring(0, dotIndex);
+            }
+            item.setTitle(fileName);
+            Log.d(TAG, "Updated title to: " + fileName);
+        }
+
+        // 发布到媒体库
+        publishMedia(item, output, subtitles);
+        completeDownload(item);
+    }
+
+    private static File findStagedOutput(File stagingDir) {
+        File[] files = stagingDir.listFiles();
+        File latest = null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !isStagingLeftover(file.getName())
+                        && (latest == null || file.lastModified() > latest.lastModified())) {
+                    latest = file;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * 下载过程中的中间文件（.part、分片、续传检查点）以及字幕和封面，不是要发布的输出
+     */
+    private static boolean isStagingLeftover(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return lower.endsWith(".part") || lower.contains(".part-frag") || lower.endsWith(".ytdl")
+                || lower.endsWith(DownloadCheckpoint.SUFFIX) || lower.endsWith(".tmp")
+                || lower.endsWith(".vtt") || lower.endsWith(".srt") || lower.endsWith(".ass")
+                || lower.endsWith(".jpg") || lower.endsWith(".png") || lower.endsWith(".webp");
+    }
+
+    /**
+     * 下载（及后处理）成功完成
+     */
+    private void completeDownload(DownloadItem item) {
+        String videoId = item.getId();
+        spaceLedger.release(videoId);
+        new MediaPublisher(getApplicationContext()).discardStaging(item.getDedupeKey());
+        Log.d(TAG, "Completed " + videoId + ": " + item.formatPhaseTimings());
+        item.setProgress(100);
+        item.setCompleted(true);
+        item.setDownloadDate(System.currentTimeMillis());
+        downloads.remove(videoId);
+        downloadTasks.remove(videoId);
+        postProcessTasks.remove(videoId);
+        lastProgressUpdateTime.remove(videoId);
+        DownloadStats.getInstance(getApplicationContext()).record(item, true);
+        broadcastDownloadComplete(item);
+        showDownloadCompleteToast(item.getTitle());
+    }
+
+    /**
+     * 下载或后处理失败
+     */
+    private void failDownload(DownloadItem item, Exception e) {
+        String videoId = item.getId();
+        // 后处理线程被取消时ffmpeg被结束，回调也会走到这里；取消不是失败，不计入统计和历史
+        if (isStopped(item)) {
+            onDownloadStopped(item);
+            return;
+        }
+        Log.e(TAG, "Failed to download video: " + videoId, e);
+        Log.e(TAG, "Error message: " + e.getMessage());
+        Log.e(TAG, "Stack trace: " + Log.getStackTraceString(e));
+        Log.e(TAG, "Video URL: " + item.getUrl());
+        Log.e(TAG, "Video format: " + item.getFormat());
+        
+        item.setCompleted(false);
+        spaceLedger.release(videoId);
+        if (isRetryable(e)) {
+            // 网络问题：保留已下载的分段和检查点，重新下载同一内容时从断点继续
+            Log.d(TAG, "Keeping staged data of " + videoId + " for retry");
+        } else {
+            new MediaPublisher(getApplicationContext()).discardStaging(item.getDedupeKey());
+        }
+        downloads.remove(videoId);
+        downloadTasks.remove(videoId);
+        postProcessTasks.remove(videoId);
+        lastProgressUpdateTime.remove(videoId);
+        DownloadStats.getInstance(getApplicationContext()).record(item, false);
+        
+        // 构建更详细的错误信息
+        String errorMessage = e.getMessage();
+        if (errorMessage == null || errorMessage.isEmpty()) {
+            errorMessage = "未知错误";
+        }
+        String detailedError = String.format("下载失败: %s\n\n详细信息:\n%s\n\n视频URL: %s\n格式: %s", 
+            errorMessage, Log.getStackTraceString(e), item.getUrl(), item.getFormat());
+        
+        broadcastDownloadFailed(videoId, detailedError);
+        
+        // 在主线程显示错误信息toast
+        handler.post(() -> {
+            Toast.makeText(
+                getApplicationContext(),
+                getString(R.string.download_failed) + ": " + item.getTitle(),
+                Toast.LENGTH_LONG
+            ).show();
+        });
+    }
+
+    /**
+     * 失败是否值得重试：连接、超时、直链过期等IO问题重试后通常能成功，已下载的数据值得保留；
+     * 格式不可用、需要验证、合并失败等重试也不会变的错误不保留
+     */
+    private static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            String message = cause.getMessage();
+            if (message != null && (message.contains("timed out") || message.contains("Connection reset")
+                    || message.contains("Unable to download") || message.contains("HTTP Error 5"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按任务的语言白名单获取字幕。有探测结果时直接下载字幕地址并缓存，否则交给yt-dlp下载
+     */
+    private List<SubtitleFetcher.Track> fetchSubtitles(DownloadItem item, VideoMetadata metadata,
+                                                       YoutubeDLRequest request) {
+        if (!item.wantsSubtitles()) {
+            return Collections.emptyList();
+        }
+        if (metadata == null || !metadata.hasJson()) {
+            request.addOption("--write-subs");
+            request.addOption("--write-auto-subs");
+            request.addOption("--sub-langs", item.getSubtitleLanguages());
+            request.addOption("--convert-subs", item.getSubtitleFormat());
+            return Collections.emptyList();
+        }
+        try {
+            return new SubtitleFetcher(getApplicationContext()).fetch(metadata, item.getSubtitleLanguages());
+        } catch (Exception e) {
+            // 字幕获取失败不影响视频下载
+            Log.e(TAG, "Failed to fetch subtitles", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 把完成的文件和字幕发布到媒体库，标题和作者直接使用探测结果
+     */
+    private void publishMedia(DownloadItem item, File media, List<SubtitleFetcher.Track> subtitles) throws IOException {
+        List<File> subtitleFiles = subtitles.isEmpty()
+                ? Collections.<File>emptyList()
+                : new SubtitleFetcher(getApplicationContext()).place(subtitles, media, item.getSubtitleFormat());
+        VideoMetadata metadata = VideoInfoFetcher.getInstance(getApplicationContext())
+                .getCached(VideoInfoFetcher.keyFor(item.getUrl()));
+        MediaPublisher publisher = new MediaPublisher(getApplicationContext());
+        // 发布后文件可能被移走，先记下大小用于统计
+        item.setFileSizeBytes(media.length());
+        item.startPhase();
+        publisher.publish(media, item.getTitle(), metadata);
+        item.endPhase(DownloadItem.PHASE_PUBLISH);
+        for (File subtitle : subtitleFiles) {
+            try {
+                publisher.publishSubtitle(subtitle);
+            } catch (IOException e) {
+                // 字幕发布失败不影响视频本身
+                Log.e(TAG, "Failed to publish subtitle " + subtitle.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 把原始文件的合并交给后处理线程池
+     */
+    private void submitPostProcess(DownloadItem item, NativeDownload nativeDownload,
+                                   List<SubtitleFetcher.Track> subtitles) {
+        String videoId = item.getId();
+        downloadTasks.remove(videoId);
+        item.endPhase(DownloadItem.PHASE_DOWNLOAD);
+        item.setEta("等待合并");
+        handler.post(() -> broadcastDownloadProgress(videoId, item.getProgress(), item.getEta()));
+
+        Future<?> task = PostProcessor.getInstance(getApplicationContext()).submit(
+                "merge " + nativeDownload.output.getName(),
+                () -> {
+                    // 只计算实际处理的时间，不包括排队等待
+                    item.startPhase();
+                    nativeDownload.finish();
+                    item.endPhase(DownloadItem.PHASE_POST_PROCESS);
+                },
+                new PostProcessor.Callback() {
+                    @Override
+                    public void onSuccess() {
+                        if (!downloads.containsKey(videoId)) {
+                            // 合并期间任务被取消，合并好的文件不再发布
+                            postProcessTasks.remove(videoId);
+                            new MediaPublisher(getApplicationContext()).discardStaging(item.getDedupeKey());
+                            return;
                         }
-                        
-                        if (latestFile != null) {
-                            Log.d(TAG, "Downloaded file: " + latestFile.getAbsolutePath());
-                            
-                            // 更新标题为实际文件名(如果当前标题是默认的)
-                            if (item.getTitle().equals("正在获取视频信息...")) {
-                                String fileName = latestFile.getName();
-                                // 移除扩展名
-                                int dotIndex = fileName.lastIndexOf(".");
-                                if (dotIndex > 0) {
-                                    fileName = fileName.substring(0, dotIndex);
-                                }
-                                item.setTitle(fileName);
-                                Log.d(TAG, "Updated title to: " + fileName);
-                            }
-                            
-                            // 扫描文件添加到媒体库
-                            MediaScannerConnection.scanFile(
-                                    getApplicationContext(),
-                                    new String[]{latestFile.getAbsolutePath()},
-                                    null,
-                                    (path, uri) -> {
-                                        Log.i(TAG, "Media scanned: " + path);
-                                        Log.i(TAG, "Uri: " + uri);
-                                    }
-                            );
-                        } else {
-                            // 如果找不到任何文件，抛出异常
-                            throw new Exception("下载完成但找不到任何文件");
+                        try {
+                            publishMedia(item, nativeDownload.output, subtitles);
+                        } catch (Exception e) {
+                            failDownload(item, e);
+                            return;
                         }
-                    } else {
-                        // 如果目录为空，抛出异常
-                        throw new Exception("下载完成但下载目录为空");
+                        completeDownload(item);
                     }
 
-                    item.setProgress(100);
-                    item.setCompleted(true);
-                    item.setDownloadDate(System.currentTimeMillis());
-                    downloads.remove(videoId);
-                    downloadTasks.remove(videoId);
-                    broadcastDownloadComplete(item);
-                    showDownloadCompleteToast(item.getTitle());
-
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to download video: " + videoId, e);
-                    Log.e(TAG, "Error message: " + e.getMessage());
-                    Log.e(TAG, "Stack trace: " + Log.getStackTraceString(e));
-                    Log.e(TAG, "Video URL: " + item.getUrl());
-                    Log.e(TAG, "Video format: " + item.getFormat());
-                    
-                    item.setCompleted(false);
-                    downloads.remove(videoId);
-                    downloadTasks.remove(videoId);
-                    
-                    // 构建更详细的错误信息
-                    String errorMessage = e.getMessage();
-                    if (errorMessage == null || errorMessage.isEmpty()) {
-                        errorMessage = "未知错误";
+                    @Override
+                    public void onFailure(Exception e) {
+                        failDownload(item, e);
                     }
-                    String detailedError = String.format("下载失败: %s\n\n详细信息:\n%s\n\n视频URL: %s\n格式: %s", 
-                        errorMessage, Log.getStackTraceString(e), item.getUrl(), item.getFormat());
-                    
-                    broadcastDownloadFailed(videoId, detailedError);
-                    
-                    // 在主线程显示错误信息toast
-                    handler.post(() -> {
-                        Toast.makeText(
-                            getApplicationContext(),
-                            getString(R.string.download_failed) + ": " + item.getTitle(),
-                            Toast.LENGTH_LONG
-                        ).show();
-                    });
-                }
-            });
+                });
+        postProcessTasks.put(videoId, task);
+    }
 
-            downloadTasks.put(videoId, downloadTask);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to start download", e);
-            Toast.makeText(getApplicationContext(), "启动下载失败: " + e.getMessage(), Toast.LENGTH_LONG).show();
+    /**
+     * 将探测结果写入下载项（标题仅在仍为默认值时替换），同时记录频道名
+     */
+    private void applyMetadata(DownloadItem item, VideoMetadata metadata) {
+        if (item.getTitle().equals("正在获取视频信息...") && metadata.getTitle() != null && !metadata.getTitle().isEmpty()) {
+            item.setTitle(metadata.getTitle());
+            Log.d(TAG, "Updated title to: " + metadata.getTitle());
+        }
+        if ((item.getThumbnailUrl() == null || item.getThumbnailUrl().isEmpty())
+                && metadata.getThumbnailUrl() != null && !metadata.getThumbnailUrl().isEmpty()) {
+            item.setThumbnailUrl(metadata.getThumbnailUrl());
+            Log.d(TAG, "Set thumbnail URL: " + metadata.getThumbnailUrl());
+        }
+        if (item.getChannel() == null && metadata.getUploader() != null && !metadata.getUploader().isEmpty()) {
+            item.setChannel(metadata.getUploader());
         }
     }
 
+    /**
+     * 查找与给定任务重复（相同视频ID和格式）的进行中任务
+     */
+    private DownloadItem findActiveDuplicate(DownloadItem item) {
+        String dedupeKey = item.getDedupeKey();
+        for (DownloadItem active : downloads.values()) {
+            if (!active.getId().equals(item.getId()) && dedupeKey.equals(active.getDedupeKey())) {
+                return active;
+            }
+        }
+        return null;
+    }
+
     /**
      * 尝试更新youtube-dl
      */
@@ -756,52 +963,350 @@ public class DownloadService extends Service {
     }
     
     /**
-     * 添加绕过YouTube限制的选项
+     * 处理yt-dlp的进度回调，progress为0-100的百分比
      */
-    private void addBypassOptions(YoutubeDLRequest request) {
-        // 添加额外的User-Agent
-        request.addOption("--user-agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/94.0.4606.61 Safari/537.36");
-        
-        // 强制使用IPv4，避免IPv6网络问题
-        request.addOption("--force-ipv4");
-        
-        // 禁用缓存目录，避免权限问题
-        request.addOption("--no-cache-dir");
-        
-        // 绕过地理限制
-        request.addOption("--geo-bypass");
-        
-        // 重试次数
-        request.addOption("--retries", "10");
-        
-        // 超时设置
-        request.addOption("--socket-timeout", "30");
-        
-        // 添加cookies文件支持（如果可能）
+    private void onProgressUpdate(DownloadItem item, float progress, long etaInSeconds, String line) {
+        String videoId = item.getId();
+        int progressPercent = Math.min(100, Math.max(0, Math.round(progress)));
+        item.setProgress(progressPercent);
+        item.setEta(formatEta(etaInSeconds));
+        // 已写入的部分不再占用预留
+        spaceLedger.onProgress(videoId, progressPercent);
+
+        // 分片下载时记录当前分片，便于界面显示分片级进度
+        int[] fragment = DownloadTuning.parseFragmentProgress(line);
+        if (fragment != null) {
+            item.setFragmentProgress(fragment[0], fragment[1]);
+        }
+
+        // 记录下载进度日志
+        if (progressPercent % 10 == 0) {
+            Log.d(TAG, "Download progress: " + progressPercent + "% - " + item.getTitle());
+        }
+
+        if (line != null && !line.isEmpty()) {
+            Log.d(TAG, "YoutubeDL output: " + line);
+        }
+
+        // 截流处理，避免过于频繁的UI更新
+        long currentTime = System.currentTimeMillis();
+        Long lastUpdate = lastProgressUpdateTime.get(videoId);
+        if (lastUpdate == null || (currentTime - lastUpdate) >= PROGRESS_UPDATE_THROTTLE_MS) {
+            updateNotification(item, progressPercent);
+            broadcastDownloadProgress(videoId, progressPercent, formatEta(etaInSeconds));
+            lastProgressUpdateTime.put(videoId, currentTime);
+        }
+    }
+
+    /**
+     * 使用Java分段下载引擎下载选中的音视频直链，合并由调用方交给后处理线程池
+     *
+     * @return null表示没有可直接下载的格式或引擎出错，调用方应回退到yt-dlp
+     */
+    private NativeDownload downloadWithNativeEngine(DownloadItem item, VideoMetadata metadata, File outputDir)
+            throws InterruptedException {
+        FormatSelector.Selection selection;
+        try {
+            selection = FormatSelector.select(metadata.getJson(), item.getFormat());
+        } catch (Exception e) {
+            Log.e(TAG, "Error selecting formats for native engine", e);
+            return null;
+        }
+        if (selection == null) {
+            Log.d(TAG, "No direct HTTP formats for " + item.getFormat() + ", using yt-dlp");
+            return null;
+        }
+
+        String title = metadata.getTitle() != null && !metadata.getTitle().isEmpty() ? metadata.getTitle() : metadata.getVideoId();
+        String baseName = sanitizeFileName(title);
+        File output = new File(outputDir, baseName + "." + selection.getContainer());
+        JSONObject video = selection.getVideo();
+        JSONObject audio = selection.getAudio();
+        File videoPart = video != null ? partFile(outputDir, baseName, video) : null;
+        File audioPart = partFile(outputDir, baseName, audio);
+
+        // 两个流按预计大小合并计算总进度
+        long videoSize = FormatSelector.estimatedSize(video);
+        long audioSize = FormatSelector.estimatedSize(audio);
+        long startTime = System.currentTimeMillis();
+        DownloadEngine engine = new SegmentedHttpEngine();
+        try {
+            Log.d(TAG, "Downloading with " + engine.getName() + ": "
+                    + (video != null ? video.optString("format_id") + "+" : "") + audio.optString("format_id"));
+            if (video != null) {
+                engine.download(engineRequest(item, video, videoPart), (downloaded, total) ->
+                        onNativeProgress(item, downloaded, total > 0 ? total : videoSize, audioSize, startTime));
+            }
+            final long videoTotal = videoPart != null ? videoPart.length() : 0;
+            engine.download(engineRequest(item, audio, audioPart), (downloaded, total) ->
+                    onNativeProgress(item, videoTotal + downloaded, videoTotal, total > 0 ? total : audioSize, startTime));
+
+            Log.d(TAG, "Native transfer finished in " + (System.currentTimeMillis() - startTime) + "ms: " + output.getName());
+            if (video == null) {
+                return new NativeDownload(output, () -> {
+                    if (!audioPart.renameTo(output)) {
+                        throw new IOException("无法重命名 " + audioPart.getName());
+                    }
+                });
+            }
+            return new NativeDownload(output, () -> {
+                FFmpegMuxer.mux(videoPart, audioPart, output);
+                videoPart.delete();
+                audioPart.delete();
+            });
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // 中断时写文件会抛出ClosedByInterruptException等IO异常，这时是暂停或取消，分块要留给恢复使用
+            throwIfStopped(item, e);
+            // yt-dlp用自己的文件名重新下载，已下载的分块用不上，不留在暂存目录里
+            Log.e(TAG, "Native engine failed, falling back to yt-dlp", e);
+            if (videoPart != null) {
+                DownloadCheckpoint.discard(videoPart);
+            }
+            DownloadCheckpoint.discard(audioPart);
+            return null;
+        }
+    }
+
+    /**
+     * 原始文件已下载完成，finish()在后处理线程中生成最终文件
+     */
+    private static class NativeDownload {
+        final File output;
+        final PostProcessor.Task finisher;
+
+        NativeDownload(File output, PostProcessor.Task finisher) {
+            this.output = output;
+            this.finisher = finisher;
+        }
+
+        void finish() throws Exception {
+            finisher.run();
+        }
+    }
+
+    /**
+     * 仅音频下载：直接下载最佳音频流，封装/转码、标签和封面交给后处理线程；
+     * 没有可直接下载的音频流时由yt-dlp提取音频
+     */
+    private void downloadAudio(DownloadItem item, File outputDir) throws Exception {
+        String format = item.getFormat();
+        String codec = AudioPipeline.targetCodec(format);
+        VideoMetadata metadata = null;
         try {
-            File cookiesFile = new File(getApplicationContext().getFilesDir(), "youtube_cookies.txt");
-            if (cookiesFile.exists()) {
-                request.addOption("--cookies", cookiesFile.getAbsolutePath());
-                Log.d(TAG, "Using cookies file: " + cookiesFile.getAbsolutePath());
+            metadata = VideoInfoFetcher.getInstance(getApplicationContext()).fetch(item.getUrl());
+            applyMetadata(item, metadata);
+        } catch (Exception e) {
+            Log.e(TAG, "Error probing audio formats, using yt-dlp", e);
+        }
+
+        JSONObject audio = metadata != null && metadata.hasJson() ? AudioPipeline.selectAudio(metadata.getJson(), codec) : null;
+        if (audio != null) {
+            String title = metadata.getTitle() != null && !metadata.getTitle().isEmpty() ? metadata.getTitle() : metadata.getVideoId();
+            String baseName = sanitizeFileName(title);
+            File audioPart = partFile(outputDir, baseName, audio);
+            File output = new File(outputDir, baseName + "." + codec);
+            long audioSize = FormatSelector.estimatedSize(audio);
+            reserveSpace(item, audioSize, outputDir);
+            long startTime = System.currentTimeMillis();
+            try {
+                Log.d(TAG, "Downloading audio stream " + audio.optString("format_id") + " as " + codec);
+                new SegmentedHttpEngine().download(engineRequest(item, audio, audioPart), (downloaded, total) ->
+                        onNativeProgress(item, downloaded, total > 0 ? total : audioSize, 0, startTime));
+                // ffmpeg无法把封面写入Ogg(Opus)，只给M4A/MP3下载封面
+                File cover = AudioPipeline.CODEC_OPUS.equals(codec) ? null : AudioPipeline.downloadCover(metadata, outputDir, baseName);
+                Map<String, String> tags = AudioPipeline.tags(metadata, item.getUrl());
+                submitPostProcess(item, new NativeDownload(output, () ->
+                        AudioPipeline.finish(audioPart, cover, output, codec, tags)), Collections.emptyList());
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throwIfStopped(item, e);
+                Log.e(TAG, "Audio stream download failed, using yt-dlp", e);
+                DownloadCheckpoint.discard(audioPart);
             }
+        }
+
+        YoutubeDLRequest request = new YoutubeDLRequest(item.getUrl());
+        AudioPipeline.addYtDlpOptions(request, format, outputDir);
+        addBypassOptions(request);
+        if (Build.VERSION.SDK_INT >= 29) {
+            request.addOption("--no-mtime");
+        }
+        DownloadTuning.apply(getApplicationContext(), request, item, Math.max(1, downloadTasks.size()));
+        executeRequest(request, item.getId(), (progress, etaInSeconds, line) -> {
+            onProgressUpdate(item, progress, etaInSeconds, line);
+            return null;
+        });
+        completeFromStagedFile(item, outputDir, Collections.emptyList());
+    }
+
+    /**
+     * 按探测结果估算下载大小，无法估算时返回0
+     */
+    private long estimateDownloadSize(DownloadItem item, VideoMetadata metadata) {
+        if (metadata == null || !metadata.hasJson()) {
+            return 0;
+        }
+        if (item.isClip()) {
+            ClipExtractor.estimateSizes(item, metadata);
+            return item.getClipSizeBytes();
+        }
+        try {
+            FormatSelector.Selection selection = FormatSelector.select(metadata.getJson(), item.getFormat());
+            return selection != null ? selection.getEstimatedSize() : 0;
         } catch (Exception e) {
-            Log.e(TAG, "Error setting cookies file", e);
+            Log.w(TAG, "Cannot estimate download size: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * 预留磁盘空间。其他任务完成后才放得下时抛出SpaceBusyException，
+     * 任务让出下载线程，空间释放后重新排队；怎样都放不下时抛出InsufficientSpaceException
+     */
+    private void reserveSpace(DownloadItem item, long estimatedBytes, File dir) throws Exception {
+        Runnable requeue = requeueTask(item);
+        try {
+            spaceLedger.reserve(item.getId(), estimatedBytes, dir, () -> handler.post(requeue));
+        } catch (DiskSpaceLedger.SpaceBusyException e) {
+            item.setEta("等待存储空间");
+            handler.post(() -> broadcastDownloadProgress(item.getId(), item.getProgress(), item.getEta()));
+            // 用户可能清理了文件，没有任务释放空间时也定期重新检查
+            handler.postDelayed(requeue, DiskSpaceLedger.RECHECK_INTERVAL_MS);
+            throw e;
         }
     }
 
+    /**
+     * 片段下载：yt-dlp按时间段下载原始片段，后处理线程精确裁剪为最终文件
+     */
+    private void downloadClip(DownloadItem item, VideoMetadata metadata, YoutubeDLRequest request, File outputDir)
+            throws Exception {
+        ClipExtractor.addYtDlpOptions(request, item);
+        executeRequest(request, item.getId(), (progress, etaInSeconds, line) -> {
+            onProgressUpdate(item, progress, etaInSeconds, line);
+            return null;
+        });
+
+        File raw = null;
+        File[] files = outputDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().contains(ClipExtractor.RAW_MARKER)
+                        && (raw == null || file.lastModified() > raw.lastModified())) {
+                    raw = file;
+                }
+            }
+        }
+        if (raw == null) {
+            throw new Exception("片段下载完成但找不到文件");
+        }
+        Log.d(TAG, "Clip section downloaded: " + raw.getName() + " (" + raw.length() + " bytes)");
+        item.setClipSizes(item.getFullSizeBytes(), raw.length());
+        File clipRaw = raw;
+        File output = ClipExtractor.outputFile(raw, item);
+        submitPostProcess(item, new NativeDownload(output, () -> ClipExtractor.finish(clipRaw, output, item)),
+                Collections.emptyList());
+    }
+
+    private DownloadEngine.Request engineRequest(DownloadItem item, JSONObject format, File target) {
+        DownloadEngine.Request request = new DownloadEngine.Request(format.optString("url"), target);
+        // 直链过期时只重新解析这一个格式，引擎从原来的位置继续下载
+        String formatId = format.optString("format_id");
+        request.setUrlRefresher(expiredUrl -> {
+            Log.w(TAG, "Stream URL expired for format " + formatId + ", re-resolving");
+            return VideoInfoFetcher.getInstance(getApplicationContext()).refreshFormatUrl(item.getUrl(), formatId, expiredUrl);
+        });
+        JSONObject headers = format.optJSONObject("http_headers");
+        if (headers != null) {
+            Iterator<String> names = headers.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                request.addHeader(name, headers.optString(name));
+            }
+        }
+        JSONObject downloaderOptions = format.optJSONObject("downloader_options");
+        if (downloaderOptions != null) {
+            request.setChunkSize(downloaderOptions.optLong("http_chunk_size", 0));
+        }
+        return request;
+    }
+
+    private void onNativeProgress(DownloadItem item, long downloaded, long firstTotal, long secondTotal, long startTime) {
+        long total = firstTotal + secondTotal;
+        if (total <= 0) {
+            return;
+        }
+        float percent = downloaded * 100f / total;
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - startTime);
+        long bytesPerSecond = downloaded * 1000 / elapsedMs;
+        long eta = bytesPerSecond > 0 ? (total - downloaded) / bytesPerSecond : -1;
+        onProgressUpdate(item, percent, eta, String.format(Locale.US, "[native] %.1f%% of %d bytes", percent, total));
+    }
+
+    private static File partFile(File dir, String baseName, JSONObject format) {
+        return new File(dir, baseName + ".f" + format.optString("format_id") + "." + format.optString("ext") + ".part");
+    }
+
+    /**
+     * 与yt-dlp的文件名处理一致：去掉文件系统不允许的字符并限制长度
+     */
+    private static String sanitizeFileName(String name) {
+        String sanitized = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        if (sanitized.length() > 150) {
+            sanitized = sanitized.substring(0, 150);
+        }
+        return sanitized.isEmpty() ? "video" : sanitized;
+    }
+
+    /**
+     * 执行yt-dlp请求：开启常驻模式时优先交给空闲的工作进程，不可用时启动新进程
+     */
+    private void executeRequest(YoutubeDLRequest request, String processId,
+                                Function3<Float, Long, String, Unit> callback) throws Exception {
+        if (YtDlpWorkerPool.isEnabled(this)) {
+            try {
+                YtDlpWorkerPool.getInstance(this).download(request, callback);
+                return;
+            } catch (YtDlpWorkerPool.WorkerUnavailableException e) {
+                Log.w(TAG, "Worker unavailable, downloading with a new process: " + e.getMessage());
+            }
+        }
+        YoutubeDL.getInstance().execute(request, processId, callback);
+    }
+
+    /**
+     * 添加绕过YouTube限制的选项
+     */
+    private void addBypassOptions(YoutubeDLRequest request) {
+        YtDlpOptions.addBypassOptions(getApplicationContext(), request);
+    }
+
     public void pauseDownload(String videoId) {
         Future<?> task = downloadTasks.get(videoId);
         if (task != null) {
-            task.cancel(true);
-            downloadTasks.remove(videoId);
+            // 先标记暂停再中断，下载线程据此保留已下载的数据，不按失败处理
             DownloadItem item = downloads.get(videoId);
             if (item != null) {
                 item.setPaused(true);
+            }
+            task.cancel(true);
+            downloadTasks.remove(videoId);
+            // 恢复时重新预留
+            spaceLedger.release(videoId);
+            if (item != null) {
                 broadcastDownloadPaused(videoId);
             }
         }
     }
 
+    /**
+     * 恢复暂停的任务：暂存目录中的分段和检查点都还在，Java引擎从各分段的断点继续，yt-dlp从.part文件继续；
+     * 暂停期间直链过期时，引擎探测到403后通过VideoInfoFetcher.refreshFormatUrl换成新直链
+     */
     public void resumeDownload(String videoId) {
         DownloadItem item = downloads.get(videoId);
         if (item != null && item.isPaused()) {
@@ -812,12 +1317,22 @@ public class DownloadService extends Service {
     }
 
     public void cancelDownload(String videoId) {
+        // 先移出列表再中断，下载线程据此判断是取消而不是失败
+        DownloadItem item = downloads.remove(videoId);
         Future<?> task = downloadTasks.get(videoId);
         if (task != null) {
             task.cancel(true);
             downloadTasks.remove(videoId);
         }
-        downloads.remove(videoId);
+        Future<?> postProcessTask = postProcessTasks.remove(videoId);
+        if (postProcessTask != null) {
+            postProcessTask.cancel(true);
+        }
+        spaceLedger.release(videoId);
+        // 下载线程被中断后会在onDownloadStopped中再清理一次，那时进行中的写入都已结束
+        if (item != null) {
+            new MediaPublisher(getApplicationContext()).discardStaging(item.getDedupeKey());
+        }
         broadcastDownloadCanceled(videoId);
     }
 
@@ -833,10 +1348,14 @@ public class DownloadService extends Service {
         intent.putExtra(EXTRA_DOWNLOAD_ID, videoId);
         intent.putExtra(EXTRA_PROGRESS, progress);
         intent.putExtra(EXTRA_ETA, eta);
+        DownloadItem item = downloads.get(videoId);
+        if (item != null && item.getFragmentCount() > 0) {
+            intent.putExtra(EXTRA_FRAGMENT_INDEX, item.getFragmentIndex());
+            intent.putExtra(EXTRA_FRAGMENT_COUNT, item.getFragmentCount());
+        }
         broadcaster.sendBroadcast(intent);
         
         // 更新通知
-        DownloadItem item = downloads.get(videoId);
         if (item != null) {
             updateNotification(item, progress);
         }
@@ -855,13 +1374,12 @@ public class DownloadService extends Service {
             // 再次检查缩略图是否存在，如果不存在则尝试获取一个默认的YouTube缩略图
             if (item.getThumbnailUrl() == null || item.getThumbnailUrl().isEmpty()) {
                 try {
-                    // 尝试从URL提取YouTube视频ID
-                    String videoUrl = item.getUrl();
-                    String youtubeId = extractYouTubeId(videoUrl);
+                    // 使用规范的YouTube视频ID
+                    String youtubeId = item.getVideoId();
                     
                     if (youtubeId != null && !youtubeId.isEmpty()) {
                         // 使用YouTube默认缩略图URL
-                        String thumbnailUrl = "https://img.youtube.com/vi/" + youtubeId + "/0.jpg";
+                        String thumbnailUrl = YouTubeUrlUtils.defaultThumbnailUrl(youtubeId);
                         item.setThumbnailUrl(thumbnailUrl);
                         Log.d(TAG, "Set default YouTube thumbnail URL: " + thumbnailUrl);
                     }
@@ -870,7 +1388,7 @@ public class DownloadService extends Service {
                 }
             }
             
-            // 添加到下载历史
+            // 添加到下载历史：只是放进写入队列，同一批完成的任务在一个事务中提交
             PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
             preferenceManager.addDownloadToHistory(item);
             
@@ -905,45 +1423,6 @@ public class DownloadService extends Service {
         }
     }
 
-    /**
-     * 从YouTube URL中提取视频ID
-     */
-    private String extractYouTubeId(String youtubeUrl) {
-        if (youtubeUrl == null || youtubeUrl.trim().isEmpty()) {
-            return null;
-        }
-        
-        String videoId = null;
-        
-        // 标准YouTube URL格式：https://www.youtube.com/watch?v=VIDEO_ID
-        if (youtubeUrl.contains("youtube.com/watch")) {
-            try {
-                android.net.Uri uri = android.net.Uri.parse(youtubeUrl);
-                videoId = uri.getQueryParameter("v");
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing YouTube URL", e);
-            }
-        } 
-        // 短链接格式：https://youtu.be/VIDEO_ID
-        else if (youtubeUrl.contains("youtu.be/")) {
-            try {
-                String[] parts = youtubeUrl.split("youtu\\.be/");
-                if (parts.length > 1) {
-                    videoId = parts[1];
-                    // 移除URL可能的参数
-                    int questionMarkPos = videoId.indexOf('?');
-                    if (questionMarkPos != -1) {
-                        videoId = videoId.substring(0, questionMarkPos);
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing YouTube short URL", e);
-            }
-        }
-        
-        return videoId;
-    }
-
     private void broadcastDownloadFailed(String videoId, String errorMessage) {
         Intent intent = new Intent(ACTION_DOWNLOAD_FAILED);
         intent.putExtra(EXTRA_DOWNLOAD_ID, videoId);
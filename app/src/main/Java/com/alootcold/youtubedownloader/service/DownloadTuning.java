@@ -0,0 +1,133 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.util.PreferenceManager;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分片并发与带宽分配
+ * 高分辨率格式是分片的DASH流，yt-dlp默认逐个下载分片，高延迟网络下速度受限于每个分片的往返时间
+ */
+public final class DownloadTuning {
+    private static final String TAG = "DownloadTuning";
+
+    public static final int MAX_CONCURRENT_FRAGMENTS = 16;
+    private static final int FRAGMENTS_UNMETERED = 8;
+    private static final int FRAGMENTS_CELLULAR = 4;
+    private static final int FRAGMENTS_UNKNOWN = 2;
+    // 限速时每个分片至少分到的速率，低于此值时减少并发分片数，否则分片越多每个分片越慢
+    static final long MIN_RATE_PER_FRAGMENT = 128 * 1024;
+
+    // yt-dlp进度行中的分片信息，例如 "... ETA 00:30 (frag 5/40)"
+    private static final Pattern FRAGMENT_PATTERN = Pattern.compile("\\(frag (\\d+)/(\\d+)\\)");
+
+    private DownloadTuning() {
+    }
+
+    /**
+     * 为下载请求添加分片并发和限速选项
+     *
+     * @param activeDownloads 包括本任务在内正在下载的任务数，总带宽在它们之间平均分配
+     */
+    public static void apply(Context context, YoutubeDLRequest request, DownloadItem item, int activeDownloads) {
+        PreferenceManager preferences = new PreferenceManager(context);
+        int fragments = resolveConcurrentFragments(context, item, preferences);
+
+        long rateLimit = perDownloadRateLimit(preferences.getBandwidthLimitKbps() * 1024L, activeDownloads);
+        if (rateLimit > 0) {
+            fragments = fitFragmentsToRate(fragments, rateLimit);
+            // yt-dlp对每个分片线程单独限速，需要把单个任务的份额再平分给各个分片
+            request.addOption("--limit-rate", String.valueOf(rateLimit / fragments));
+        }
+        request.addOption("--concurrent-fragments", String.valueOf(fragments));
+        Log.d(TAG, "Concurrent fragments: " + fragments + ", rate limit: "
+                + (rateLimit > 0 ? rateLimit + "B/s" : "unlimited") + ", active downloads: " + activeDownloads);
+    }
+
+    /**
+     * 并发分片数：任务单独设置 > 全局设置 > 根据网络类型自动选择
+     */
+    static int resolveConcurrentFragments(Context context, DownloadItem item, PreferenceManager preferences) {
+        int fragments = item.getConcurrentFragments();
+        if (fragments <= 0) {
+            fragments = preferences.getConcurrentFragments();
+        }
+        if (fragments <= 0) {
+            fragments = defaultForNetwork(context);
+        }
+        return Math.min(MAX_CONCURRENT_FRAGMENTS, fragments);
+    }
+
+    /**
+     * 根据当前网络类型选择默认并发分片数：不计流量的网络更激进，移动网络保守一些
+     */
+    static int defaultForNetwork(Context context) {
+        try {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (connectivityManager == null) {
+                return FRAGMENTS_UNKNOWN;
+            }
+            Network network = connectivityManager.getActiveNetwork();
+            NetworkCapabilities capabilities = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+            if (capabilities == null) {
+                return FRAGMENTS_UNKNOWN;
+            }
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                    || capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+                return FRAGMENTS_UNMETERED;
+            }
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                return FRAGMENTS_CELLULAR;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error checking network type", e);
+        }
+        return FRAGMENTS_UNKNOWN;
+    }
+
+    /**
+     * 单个任务分到的带宽（字节/秒），0表示不限速
+     */
+    static long perDownloadRateLimit(long budgetBytesPerSecond, int activeDownloads) {
+        if (budgetBytesPerSecond <= 0) {
+            return 0;
+        }
+        return budgetBytesPerSecond / Math.max(1, activeDownloads);
+    }
+
+    /**
+     * 限速后减少并发分片数，保证每个分片至少有MIN_RATE_PER_FRAGMENT的速率
+     */
+    static int fitFragmentsToRate(int fragments, long rateLimit) {
+        int maxByRate = (int) Math.max(1, rateLimit / MIN_RATE_PER_FRAGMENT);
+        return Math.max(1, Math.min(fragments, maxByRate));
+    }
+
+    /**
+     * 从yt-dlp输出行解析分片进度，返回{当前分片, 分片总数}，没有分片信息时返回null
+     */
+    public static int[] parseFragmentProgress(String line) {
+        if (line == null) {
+            return null;
+        }
+        Matcher matcher = FRAGMENT_PATTERN.matcher(line);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 调用ffmpeg把分别下载的视频流和音频流无损合并（-c copy，不重新编码），以及音频的封装/转码和片段裁剪
+ */
+final class FFmpegMuxer {
+    private static final String TAG = "FFmpegMuxer";
+
+    private FFmpegMuxer() {
+    }
+
+    static void mux(File video, File audio, File output) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add("-i");
+        command.add(video.getAbsolutePath());
+        command.add("-i");
+        command.add(audio.getAbsolutePath());
+        command.add("-map");
+        command.add("0:v:0");
+        command.add("-map");
+        command.add("1:a:0");
+        command.add("-c");
+        command.add("copy");
+        run(command, output);
+    }
+
+    /**
+     * 把单独的音频流封装（m4a/opus，不重新编码）或转码（mp3）为目标格式，写入标签，cover不为null时嵌入封面
+     */
+    static void convertAudio(File audio, File cover, File output, String codec, Map<String, String> tags)
+            throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add("-i");
+        command.add(audio.getAbsolutePath());
+        if (cover != null) {
+            command.add("-i");
+            command.add(cover.getAbsolutePath());
+        }
+        command.add("-map");
+        command.add("0:a:0");
+        if (cover != null) {
+            command.add("-map");
+            command.add("1:v:0");
+            command.add("-c:v");
+            command.add("copy");
+            command.add("-disposition:v");
+            command.add("attached_pic");
+        }
+        if (AudioPipeline.CODEC_MP3.equals(codec)) {
+            command.add("-c:a");
+            command.add("libmp3lame");
+            command.add("-q:a");
+            command.add("2");
+            command.add("-id3v2_version");
+            command.add("3");
+        } else {
+            command.add("-c:a");
+            command.add("copy");
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            command.add("-metadata");
+            command.add(tag.getKey() + "=" + tag.getValue());
+        }
+        run(command, output);
+    }
+
+    /**
+     * 字幕格式转换（例如vtt转srt），格式由输出文件的扩展名决定
+     */
+    static void convertSubtitle(File input, File output) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add("-i");
+        command.add(input.getAbsolutePath());
+        run(command, output);
+    }
+
+    /**
+     * 从offsetMs开始精确裁剪durationMs长的片段。-c copy只能在关键帧处切开，这里必须重新编码，
+     * 片段通常只有几十秒，重新编码的开销可以接受
+     */
+    static void trim(File input, File output, long offsetMs, long durationMs) throws Exception {
+        List<String> command = new ArrayList<>();
+        // -ss放在-i之前：先跳到附近的关键帧再逐帧解码到准确位置，不用从头解码
+        command.add("-ss");
+        command.add(seconds(offsetMs));
+        command.add("-i");
+        command.add(input.getAbsolutePath());
+        command.add("-t");
+        command.add(seconds(durationMs));
+        command.add("-c:a");
+        command.add("aac");
+        command.add("-movflags");
+        command.add("+faststart");
+        run(command, output);
+    }
+
+    private static String seconds(long ms) {
+        return String.format(Locale.US, "%.3f", ms / 1000.0);
+    }
+
+    private static void run(List<String> arguments, File output) throws Exception {
+        String ffmpegPath = YtDlpEnvironment.ffmpegPath();
+        if (ffmpegPath == null) {
+            throw new Exception("找不到ffmpeg，无法处理音视频");
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        command.add("-loglevel");
+        command.add("error");
+        command.addAll(arguments);
+        command.add(output.getAbsolutePath());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        YtDlpEnvironment.apply(builder.environment());
+
+        long start = System.currentTimeMillis();
+        Process process = builder.start();
+        // 输出在单独的线程中读取：当前线程阻塞在waitFor()上，取消任务时能响应中断并结束ffmpeg
+        StringBuilder log = new StringBuilder();
+        Thread drainer = new Thread(() -> drain(process, log), "ffmpeg-output");
+        drainer.start();
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            output.delete();
+            throw e;
+        }
+        drainer.join();
+        if (exitCode != 0) {
+            output.delete();
+            throw new Exception("ffmpeg处理失败(" + exitCode + "): " + log);
+        }
+        Log.d(TAG, "Wrote " + output.getName() + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void drain(Process process, StringBuilder log) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.append(line).append("\n");
+            }
+        } catch (IOException e) {
+            // 进程被结束后管道关闭
+            Log.d(TAG, "ffmpeg output closed: " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,197 @@
+package com.alootcold.youtubedownloader.service;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 从探测结果（yt-dlp的info JSON）中按用户选择的格式挑出可以直接HTTP下载的音视频流
+ * 只处理常用的几种格式写法，无法匹配时返回null，由yt-dlp按原格式字符串处理
+ */
+public final class FormatSelector {
+
+    private static final Pattern MAX_HEIGHT_PATTERN = Pattern.compile("height<=(\\d+)");
+    private static final Pattern EXT_PATTERN = Pattern.compile("\\[ext=(\\w+)]");
+
+    private FormatSelector() {
+    }
+
+    /**
+     * 选中的直链格式：video为null时表示仅音频
+     */
+    public static class Selection {
+        private final JSONObject video;
+        private final JSONObject audio;
+
+        Selection(JSONObject video, JSONObject audio) {
+            this.video = video;
+            this.audio = audio;
+        }
+
+        public JSONObject getVideo() {
+            return video;
+        }
+
+        public JSONObject getAudio() {
+            return audio;
+        }
+
+        public boolean isAudioOnly() {
+            return video == null;
+        }
+
+        /**
+         * 合并后的容器格式：mp4+m4a直接封装为mp4，webm+webm为webm，其余组合使用mkv
+         */
+        public String getContainer() {
+            String audioExt = audio.optString("ext", "m4a");
+            if (video == null) {
+                return audioExt;
+            }
+            String videoExt = video.optString("ext", "mp4");
+            if (videoExt.equals("mp4") && audioExt.equals("m4a")) {
+                return "mp4";
+            }
+            if (videoExt.equals("webm") && audioExt.equals("webm")) {
+                return "webm";
+            }
+            return "mkv";
+        }
+
+        /**
+         * 预计总大小（字节），未知时返回0
+         */
+        public long getEstimatedSize() {
+            return estimatedSize(video) + estimatedSize(audio);
+        }
+    }
+
+    /**
+     * @param formatOption 用户选择的格式，例如 best、bestvideo[height<=1080]+bestaudio、bestaudio[ext=m4a]
+     */
+    public static Selection select(String infoJson, String formatOption) throws JSONException {
+        JSONArray formats = new JSONObject(infoJson).optJSONArray("formats");
+        if (formats == null || formats.length() == 0) {
+            return null;
+        }
+        String option = formatOption != null ? formatOption : "best";
+        boolean audioOnly = option.startsWith("bestaudio") && !option.contains("+");
+        int maxHeight = Integer.MAX_VALUE;
+        Matcher heightMatcher = MAX_HEIGHT_PATTERN.matcher(option);
+        if (heightMatcher.find()) {
+            maxHeight = Integer.parseInt(heightMatcher.group(1));
+        }
+        Matcher extMatcher = EXT_PATTERN.matcher(option);
+        String audioExt = audioOnly && extMatcher.find() ? extMatcher.group(1) : null;
+
+        JSONObject video = null;
+        if (!audioOnly) {
+            for (int i = 0; i < formats.length(); i++) {
+                JSONObject format = formats.optJSONObject(i);
+                if (format == null || !isDirectHttp(format) || !isVideoOnly(format)) {
+                    continue;
+                }
+                if (format.optInt("height", 0) > maxHeight) {
+                    continue;
+                }
+                if (video == null || compareVideo(format, video) > 0) {
+                    video = format;
+                }
+            }
+            if (video == null) {
+                return null;
+            }
+            // 优先选择可以无损封装进同一容器的音频
+            audioExt = video.optString("ext").equals("webm") ? "webm" : "m4a";
+        }
+
+        JSONObject audio = null;
+        for (int i = 0; i < formats.length(); i++) {
+            JSONObject format = formats.optJSONObject(i);
+            if (format == null || !isDirectHttp(format) || !isAudioOnly(format)) {
+                continue;
+            }
+            if (audio == null || compareAudio(format, audio, audioExt) > 0) {
+                audio = format;
+            }
+        }
+        if (audio == null || (audioOnly && audioExt != null && !audioExt.equals(audio.optString("ext")))) {
+            return null;
+        }
+        return new Selection(video, audio);
+    }
+
+    /**
+     * 只有普通HTTP(S)直链才能分段下载，分片的DASH/HLS流和加密流交给yt-dlp
+     */
+    private static boolean isDirectHttp(JSONObject format) {
+        String protocol = format.optString("protocol", "");
+        return (protocol.equals("https") || protocol.equals("http"))
+                && !format.optString("url", "").isEmpty()
+                && !format.has("fragments")
+                && !format.optBoolean("has_drm", false);
+    }
+
+    private static boolean isVideoOnly(JSONObject format) {
+        return !"none".equals(format.optString("vcodec", "none")) && "none".equals(format.optString("acodec", "none"));
+    }
+
+    private static boolean isAudioOnly(JSONObject format) {
+        return "none".equals(format.optString("vcodec", "none")) && !"none".equals(format.optString("acodec", "none"));
+    }
+
+    private static int compareVideo(JSONObject a, JSONObject b) {
+        int result = Integer.compare(a.optInt("height", 0), b.optInt("height", 0));
+        if (result == 0) {
+            result = Double.compare(a.optDouble("fps", 0), b.optDouble("fps", 0));
+        }
+        if (result == 0) {
+            // 同分辨率下优先mp4(H.264)，兼容性更好
+            result = Boolean.compare(a.optString("ext").equals("mp4"), b.optString("ext").equals("mp4"));
+        }
+        if (result == 0) {
+            result = Double.compare(a.optDouble("tbr", 0), b.optDouble("tbr", 0));
+        }
+        return result;
+    }
+
+    private static int compareAudio(JSONObject a, JSONObject b, String preferredExt) {
+        int result = 0;
+        if (preferredExt != null) {
+            result = Boolean.compare(preferredExt.equals(a.optString("ext")), preferredExt.equals(b.optString("ext")));
+        }
+        if (result == 0) {
+            result = Double.compare(a.optDouble("abr", a.optDouble("tbr", 0)), b.optDouble("abr", b.optDouble("tbr", 0)));
+        }
+        return result;
+    }
+
+    /**
+     * 按format_id查找格式的直链，找不到时返回null
+     */
+    static String findFormatUrl(String infoJson, String formatId) throws JSONException {
+        JSONArray formats = new JSONObject(infoJson).optJSONArray("formats");
+        if (formats == null) {
+            return null;
+        }
+        for (int i = 0; i < formats.length(); i++) {
+            JSONObject format = formats.optJSONObject(i);
+            if (format != null && formatId.equals(format.optString("format_id"))) {
+                String url = format.optString("url", "");
+                return url.isEmpty() ? null : url;
+            }
+        }
+        return null;
+    }
+
+    static long estimatedSize(JSONObject format) {
+        if (format == null) {
+            return 0;
+        }
+        long size = format.optLong("filesize", 0);
+        return size > 0 ? size : format.optLong("filesize_approx", 0);
+    }
+}
\ No newline at end of file
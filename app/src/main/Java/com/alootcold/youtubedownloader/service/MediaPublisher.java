@@ -0,0 +1,291 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import com.alootcold.youtubedownloader.model.VideoMetadata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * 把下载完成的文件发布到系统媒体库
+ * 下载中的分片、.part文件和ffmpeg临时文件都放在内部存储的暂存目录，避免共享存储（FUSE）对每次小块写入的开销，
+ * 完成后只移动一次最终文件：
+ * Android 10+先建一个IS_PENDING的MediaStore条目，用一次transferTo把文件写进去再一次性发布，
+ * 标题等信息直接取自探测结果，不需要存储权限，也不需要再扫描文件；
+ * 更早的版本移动到公共目录（同一文件系统时直接重命名），再直接向媒体库插入该文件的记录
+ */
+final class MediaPublisher {
+    private static final String TAG = "MediaPublisher";
+    private static final String FOLDER = "YouTubeDownloads";
+    private static final String STAGING_DIR = "staging";
+
+    private final Context context;
+
+    MediaPublisher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * 一个任务的暂存目录（内部存储，不参与备份）。每个任务单独一个子目录，
+     * 并发任务的.part文件、续传检查点、封面和输出文件互不干扰。
+     * 按去重键（视频、格式、片段范围）区分，暂停或因网络失败后重新下载同一内容时找到原来的分段继续
+     */
+    File getStagingDir(String stagingKey) throws IOException {
+        return ensureWritable(stagingDir(stagingKey));
+    }
+
+    /**
+     * 删除任务的暂存目录及其中剩下的中间文件，任务完成、取消或失败且不值得重试时调用
+     */
+    void discardStaging(String stagingKey) {
+        File dir = stagingDir(stagingKey);
+        if (dir.exists() && !deleteRecursively(dir)) {
+            Log.w(TAG, "Could not fully delete staging dir " + dir.getName());
+        }
+    }
+
+    /**
+     * 删除超过maxAgeMs没有写入的暂存目录：暂停或失败后再也没有重新下载的任务留下的数据
+     */
+    void pruneStaging(long maxAgeMs) {
+        File[] dirs = new File(context.getNoBackupFilesDir(), STAGING_DIR).listFiles();
+        if (dirs == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        for (File dir : dirs) {
+            if (lastModified(dir) < cutoff) {
+                Log.d(TAG, "Pruning stale staging dir " + dir.getName());
+                deleteRecursively(dir);
+            }
+        }
+    }
+
+    private File stagingDir(String stagingKey) {
+        // 去重键中有URL和格式字符串，过滤成单层的安全目录名；过滤会让不同的键相同（例如<=和>=），再加上哈希区分
+        String name = stagingKey.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.length() > 80) {
+            name = name.substring(0, 80);
+        }
+        name += "_" + Integer.toHexString(stagingKey.hashCode());
+        return new File(new File(context.getNoBackupFilesDir(), STAGING_DIR), name);
+    }
+
+    private static long lastModified(File file) {
+        long lastModified = file.lastModified();
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                lastModified = Math.max(lastModified, lastModified(child));
+            }
+        }
+        return lastModified;
+    }
+
+    private static boolean deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        return file.delete() || !file.exists();
+    }
+
+    /**
+     * Android 9及以下发布的公共目录
+     */
+    @SuppressWarnings("deprecation")
+    private File getLegacyPublicDir() throws IOException {
+        File dcimDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM);
+        return ensureWritable(new File(new File(dcimDir, FOLDER), FOLDER));
+    }
+
+    private static File ensureWritable(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建下载目录 " + dir.getAbsolutePath());
+        }
+        if (!dir.canWrite()) {
+            throw new IOException("没有下载目录的写入权限: " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    /**
+     * 发布音视频文件：视频放在DCIM/YouTubeDownloads/YouTubeDownloads，音频放在Music/YouTubeDownloads
+     *
+     * @param metadata 探测结果，可以为null
+     */
+    Uri publish(File media, String title, VideoMetadata metadata) throws IOException {
+        String mimeType = mimeType(media);
+        boolean audio = mimeType.startsWith("audio/");
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.TITLE, title);
+        if (metadata != null && metadata.getUploader() != null && !metadata.getUploader().isEmpty()) {
+            values.put(audio ? MediaStore.Audio.AudioColumns.ARTIST : MediaStore.Video.VideoColumns.ARTIST,
+                    metadata.getUploader());
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return insertLegacy(moveTo(media, getLegacyPublicDir()), mimeType, audio, values);
+        }
+        Uri collection = audio
+                ? MediaStore.Audio.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY)
+                : MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+        String relativePath = audio
+                ? Environment.DIRECTORY_MUSIC + "/" + FOLDER
+                : Environment.DIRECTORY_DCIM + "/" + FOLDER + "/" + FOLDER;
+        return writePending(collection, media, mimeType, relativePath, values);
+    }
+
+    /**
+     * 发布字幕文件。DCIM等媒体目录只接受音视频，Android 10+的字幕放在Download/YouTubeDownloads；
+     * 更早的版本移动到视频旁边
+     */
+    void publishSubtitle(File subtitle) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            moveTo(subtitle, getLegacyPublicDir());
+            return;
+        }
+        String mimeType = subtitle.getName().endsWith(".vtt") ? "text/vtt" : "application/x-subrip";
+        writePending(MediaStore.Downloads.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY), subtitle, mimeType,
+                Environment.DIRECTORY_DOWNLOADS + "/" + FOLDER, new ContentValues());
+    }
+
+    /**
+     * 先插入IS_PENDING的条目（其他应用看不到），用transferTo写完后再清除标记一次性发布；
+     * 写入失败时删除条目，不会在图库中留下不完整的文件
+     */
+    private Uri writePending(Uri collection, File source, String mimeType, String relativePath, ContentValues values)
+            throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, source.getName());
+        values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+        values.put(MediaStore.MediaColumns.RELATIVE_PATH, relativePath);
+        values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        Uri uri = resolver.insert(collection, values);
+        if (uri == null) {
+            throw new IOException("无法创建媒体库条目: " + source.getName());
+        }
+        try {
+            try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "w")) {
+                if (descriptor == null) {
+                    throw new IOException("无法写入媒体库条目: " + source.getName());
+                }
+                try (FileOutputStream out = new FileOutputStream(descriptor.getFileDescriptor())) {
+                    transfer(source, out.getChannel());
+                }
+            }
+            ContentValues published = new ContentValues();
+            published.put(MediaStore.MediaColumns.IS_PENDING, 0);
+            resolver.update(uri, published, null, null);
+        } catch (IOException | RuntimeException e) {
+            resolver.delete(uri, null, null);
+            throw e;
+        }
+        source.delete();
+        Log.d(TAG, "Published " + source.getName() + " -> " + uri);
+        return uri;
+    }
+
+    /**
+     * Android 9及以下：文件已经在公共目录，直接插入记录；插入失败时才退回到扫描文件
+     */
+    @SuppressWarnings("deprecation")
+    private Uri insertLegacy(File media, String mimeType, boolean audio, ContentValues values) {
+        long now = System.currentTimeMillis() / 1000;
+        values.put(MediaStore.MediaColumns.DATA, media.getAbsolutePath());
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, media.getName());
+        values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+        values.put(MediaStore.MediaColumns.SIZE, media.length());
+        values.put(MediaStore.MediaColumns.DATE_ADDED, now);
+        values.put(MediaStore.MediaColumns.DATE_MODIFIED, now);
+        Uri collection = audio ? MediaStore.Audio.Media.EXTERNAL_CONTENT_URI : MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+        Uri uri = null;
+        try {
+            uri = context.getContentResolver().insert(collection, values);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot insert media record: " + e.getMessage());
+        }
+        if (uri == null) {
+            MediaScannerConnection.scanFile(context, new String[]{media.getAbsolutePath()}, new String[]{mimeType}, null);
+        }
+        Log.d(TAG, "Published " + media.getName() + " -> " + uri);
+        return uri;
+    }
+
+    /**
+     * 移动到目标目录：同一文件系统时直接重命名，否则用transferTo复制一次再删除源文件；重名时加序号
+     */
+    private static File moveTo(File source, File dir) throws IOException {
+        File target = new File(dir, source.getName());
+        String name = source.getName();
+        int dotIndex = name.lastIndexOf('.');
+        String baseName = dotIndex > 0 ? name.substring(0, dotIndex) : name;
+        String extension = dotIndex > 0 ? name.substring(dotIndex) : "";
+        for (int i = 1; target.exists(); i++) {
+            target = new File(dir, baseName + " (" + i + ")" + extension);
+        }
+        if (source.renameTo(target)) {
+            return target;
+        }
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            transfer(source, out.getChannel());
+            out.getFD().sync();
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        source.delete();
+        return target;
+    }
+
+    private static void transfer(File source, FileChannel target) throws IOException {
+        try (FileChannel in = new FileInputStream(source).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            // transferTo单次可能只传输一部分，循环直到传完
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("复制中断: " + source.getName());
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private static String mimeType(File file) {
+        String name = file.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.US);
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        if (mimeType != null) {
+            return mimeType;
+        }
+        switch (extension) {
+            case "opus":
+                return "audio/ogg";
+            case "m4a":
+                return "audio/mp4";
+            case "mkv":
+                return "video/x-matroska";
+            default:
+                return "video/" + extension;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后处理（ffmpeg合并/转码）线程池
+ * 与网络下载分开排队：下载线程把原始文件写完后立即提交到这里，然后去下载下一个任务，
+ * 合并这种CPU密集的工作不再占用下载名额。线程数按CPU核数确定，设备发热时自动减少
+ */
+public class PostProcessor {
+    private static final String TAG = "PostProcessor";
+    // ffmpeg -c copy主要是磁盘IO，再多的并发也只会互相抢占存储带宽
+    private static final int MAX_THREADS = 3;
+
+    private static PostProcessor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final int normalPoolSize;
+
+    /**
+     * 后处理任务，在后处理线程中执行
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * 后处理结果回调，在后处理线程中调用
+     */
+    public interface Callback {
+        void onSuccess();
+
+        void onFailure(Exception e);
+    }
+
+    private PostProcessor(Context context) {
+        // 至少保留一半的核心给界面和下载线程
+        normalPoolSize = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "post-process-" + threadNumber.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(normalPoolSize, normalPoolSize, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        watchThermalStatus(context.getApplicationContext());
+    }
+
+    public static synchronized PostProcessor getInstance(Context context) {
+        if (instance == null) {
+            instance = new PostProcessor(context);
+        }
+        return instance;
+    }
+
+    public Future<?> submit(String name, Task task, Callback callback) {
+        Log.d(TAG, "Queued " + name + " (pool " + executor.getMaximumPoolSize()
+                + ", waiting " + executor.getQueue().size() + ")");
+        return executor.submit(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                task.run();
+                Log.d(TAG, name + " finished in " + (System.currentTimeMillis() - start) + "ms");
+                callback.onSuccess();
+            } catch (Exception e) {
+                Log.e(TAG, name + " failed", e);
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * 设备发热（THERMAL_STATUS_MODERATE及以上）时只保留一个后处理线程，恢复后还原
+     */
+    private void watchThermalStatus(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return;
+        }
+        applyThermalStatus(powerManager.getCurrentThermalStatus());
+        powerManager.addThermalStatusListener(this::applyThermalStatus);
+    }
+
+    private synchronized void applyThermalStatus(int status) {
+        int size = status >= PowerManager.THERMAL_STATUS_MODERATE ? 1 : normalPoolSize;
+        if (size == executor.getMaximumPoolSize()) {
+            return;
+        }
+        Log.d(TAG, "Thermal status " + status + ", post-process threads -> " + size);
+        // 缩小时先降核心数，扩大时先升最大值，否则会抛IllegalArgumentException
+        if (size < executor.getCorePoolSize()) {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        } else {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,493 @@
+package com.alootcold.youtubedownloader.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分段HTTP下载引擎
+ * 把文件按固定大小切块，多个连接并行请求Range，直接通过FileChannel按位置写入预先分配好大小的文件。
+ * 续传检查点（校验头和每个分段已写入的字节数）见DownloadCheckpoint，中断后再次下载从各分段的断点继续，
+ * 续传请求带If-Range，文件版本变化时不会把新旧内容拼在一起。
+ * 不依赖Android API，可以直接在JVM上对本地HTTP服务器测试
+ */
+public class SegmentedHttpEngine implements DownloadEngine {
+    public static final int DEFAULT_CONNECTIONS = 4;
+    // YouTube对单个超大Range请求会限速，yt-dlp同样按10MB切分请求
+    public static final long DEFAULT_CHUNK_SIZE = 10 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETRIES = 3;
+    // 下载过程中文件版本变化后最多重新开始几次
+    private static final int MAX_CONTENT_CHANGES = 2;
+    // 一次下载中最多刷新几次过期的直链
+    private static final int MAX_URL_REFRESHES = 3;
+    // 分段进行中也定期保存已写入的字节数，减少被杀进程后重复下载的数据
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+    private static final long PROGRESS_INTERVAL_MS = 200;
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+)");
+
+    private final int connections;
+    private final long defaultChunkSize;
+    private final int readTimeoutMs;
+
+    public SegmentedHttpEngine() {
+        this(DEFAULT_CONNECTIONS, DEFAULT_CHUNK_SIZE);
+    }
+
+    public SegmentedHttpEngine(int connections, long chunkSize) {
+        this(connections, chunkSize, READ_TIMEOUT_MS);
+    }
+
+    SegmentedHttpEngine(int connections, long chunkSize, int readTimeoutMs) {
+        this.connections = Math.max(1, connections);
+        this.defaultChunkSize = Math.max(BUFFER_SIZE, chunkSize);
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    @Override
+    public String getName() {
+        return "segmented-http";
+    }
+
+    @Override
+    public void download(Request request, ProgressListener listener) throws IOException, InterruptedException {
+        long chunkSize = request.getChunkSize() > 0 ? request.getChunkSize() : defaultChunkSize;
+        File target = request.getTarget();
+        UrlSource source = new UrlSource(request);
+        for (int attempt = 0; ; attempt++) {
+            Probe probe = probe(source);
+            if (probe.total <= 0) {
+                // 服务器不支持Range或长度未知，只能单连接顺序下载
+                DownloadCheckpoint.load(target, 0, chunkSize).delete();
+                downloadSingleStream(request, listener);
+                return;
+            }
+
+            DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, probe.total, chunkSize);
+            // 直链刷新后内容不变时校验头相同，已下载的分段全部保留；内容变了才丢弃
+            checkpoint.retainIfMatches(probe.validator);
+            try {
+                transfer(source, checkpoint, probe.total, listener);
+                checkpoint.delete();
+                return;
+            } catch (ContentChangedException e) {
+                // 下载过程中服务器上的文件换了版本：重新探测，丢弃旧版本的分段
+                if (attempt >= MAX_CONTENT_CHANGES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void transfer(UrlSource source, DownloadCheckpoint checkpoint, long total, ProgressListener listener)
+            throws IOException, InterruptedException {
+        File target = source.request.getTarget();
+        ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < checkpoint.getChunkCount(); i++) {
+            if (!checkpoint.isComplete(i)) {
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty() && target.length() == total) {
+            report(listener, total, total);
+            return;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            // 预先分配完整大小，各连接按位置直接写入，不需要再拼接
+            if (file.length() != total) {
+                file.setLength(total);
+            }
+            FileChannel channel = file.getChannel();
+            Progress progress = new Progress(checkpoint.getDownloadedBytes(), total, listener);
+            Checkpointer checkpointer = new Checkpointer(checkpoint, channel);
+
+            int workers = Math.max(1, Math.min(connections, pending.size()));
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            List<Future<?>> futures = new ArrayList<>();
+            try {
+                for (int w = 0; w < workers; w++) {
+                    futures.add(executor.submit(() -> {
+                        Integer index;
+                        while ((index = pending.poll()) != null) {
+                            fetchChunk(source, channel, checkpoint, index, progress, checkpointer);
+                            checkpointer.save(true);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            } finally {
+                executor.shutdownNow();
+                executor.awaitTermination(readTimeoutMs, TimeUnit.MILLISECONDS);
+                // 中断或出错时也记下各分段已写入的字节数，下次从断点继续
+                checkpointer.saveQuietly();
+            }
+            channel.force(false);
+            progress.finish();
+        }
+    }
+
+    /**
+     * 请求第一个字节，判断服务器是否支持Range并获得文件总长度和校验头，不支持时total为-1
+     */
+    private Probe probe(UrlSource source) throws IOException {
+        while (true) {
+            String url = source.request.getUrl();
+            HttpURLConnection connection = openConnection(source.request, url, 0, 0, null);
+            try {
+                int code = connection.getResponseCode();
+                if (isExpired(code) && source.refresh(url)) {
+                    continue;
+                }
+                return readProbe(connection, code);
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private Probe readProbe(HttpURLConnection connection, int code) throws IOException {
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            String contentRange = connection.getHeaderField("Content-Range");
+            Matcher matcher = contentRange != null ? CONTENT_RANGE_PATTERN.matcher(contentRange) : null;
+            DownloadCheckpoint.Validator validator = DownloadCheckpoint.Validator.from(connection);
+            drain(connection);
+            long total = matcher != null && matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+            return new Probe(total, validator);
+        }
+        if (code == HttpURLConnection.HTTP_OK) {
+            return new Probe(-1, DownloadCheckpoint.Validator.NONE);
+        }
+        throw new IOException("HTTP " + code + " " + connection.getResponseMessage());
+    }
+
+    /**
+     * 下载一个分段中尚未写入的部分，出错时从已写入的位置重试
+     * 请求带If-Range，服务器上的文件换了版本时会返回200整个文件，此时不写入任何数据
+     * 直链过期（403/410）时刷新直链，从同一位置继续，不计入重试次数
+     */
+    private void fetchChunk(UrlSource source, FileChannel channel, DownloadCheckpoint checkpoint, int index,
+                            Progress progress, Checkpointer checkpointer) throws IOException {
+        DownloadCheckpoint.Validator expected = checkpoint.getValidator();
+        long end = checkpoint.chunkStart(index) + checkpoint.chunkLength(index) - 1;
+        int attempt = 0;
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("下载已取消");
+            }
+            long position = checkpoint.chunkStart(index) + checkpoint.getCompletedBytes(index);
+            if (position > end) {
+                return;
+            }
+            String url = source.request.getUrl();
+            HttpURLConnection connection = openConnection(source.request, url, position, end, expected.ifRangeValue());
+            try {
+                int code = connection.getResponseCode();
+                if (isExpired(code)) {
+                    connection.disconnect();
+                    if (source.refresh(url)) {
+                        continue;
+                    }
+                    throw new UrlExpiredException("HTTP " + code + "，直链已过期且无法刷新");
+                }
+                DownloadCheckpoint.Validator actual = DownloadCheckpoint.Validator.from(connection);
+                if (code == HttpURLConnection.HTTP_OK || (code == HttpURLConnection.HTTP_PARTIAL && actual.conflictsWith(expected))) {
+                    throw new ContentChangedException("分段" + index + "的校验头已变化");
+                }
+                if (code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("HTTP " + code + " for range " + position + "-" + end);
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                    int read;
+                    while (position <= end && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                        byteBuffer.clear().limit(read);
+                        while (byteBuffer.hasRemaining()) {
+                            position += channel.write(byteBuffer, position);
+                        }
+                        checkpoint.addBytes(index, read);
+                        progress.add(read);
+                        checkpointer.save(false);
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedIOException("下载已取消");
+                        }
+                    }
+                }
+                if (position <= end) {
+                    throw new IOException("连接提前结束: " + position + "/" + end);
+                }
+                return;
+            } catch (ContentChangedException | UrlExpiredException e) {
+                connection.disconnect();
+                throw e;
+            } catch (IOException e) {
+                connection.disconnect();
+                // 连接或读取超时（SocketTimeoutException也是InterruptedIOException）属于网络问题，照常重试；
+                // 只有线程确实被中断才是取消
+                if (Thread.currentThread().isInterrupted() || ++attempt > MAX_RETRIES) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(1000L * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("下载已取消");
+                }
+            }
+        }
+    }
+
+    private void downloadSingleStream(Request request, ProgressListener listener) throws IOException {
+        HttpURLConnection connection = openConnection(request, request.getUrl(), -1, -1, null);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " " + connection.getResponseMessage());
+            }
+            long total = connection.getContentLength();
+            Progress progress = new Progress(0, total, listener);
+            try (InputStream in = connection.getInputStream();
+                 FileChannel channel = new FileOutputStream(request.getTarget()).getChannel()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                    progress.add(read);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("下载已取消");
+                    }
+                }
+            }
+            progress.finish();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * start小于0时不发送Range头，ifRange不为空时发送条件Range请求。
+     * 连接由HttpURLConnection的keep-alive池复用，读完响应体后关闭输入流即可归还
+     */
+    private HttpURLConnection openConnection(Request request, String url, long start, long end, String ifRange)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setInstanceFollowRedirects(true);
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (start >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (ifRange != null) {
+                connection.setRequestProperty("If-Range", ifRange);
+            }
+        }
+        // 不让服务器压缩，否则Range和长度都对不上
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    /**
+     * googlevideo的直链过期后返回403，部分CDN返回410
+     */
+    private static boolean isExpired(int code) {
+        return code == HttpURLConnection.HTTP_FORBIDDEN || code == HttpURLConnection.HTTP_GONE;
+    }
+
+    private static void drain(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) != -1) {
+                // 读完响应体，连接才能放回keep-alive池
+            }
+        }
+    }
+
+    private static void report(ProgressListener listener, long downloaded, long total) {
+        if (listener != null) {
+            listener.onProgress(downloaded, total);
+        }
+    }
+
+    /**
+     * 一次下载使用的直链，多个连接同时遇到过期时只刷新一次
+     */
+    private static class UrlSource {
+        final Request request;
+        private int refreshes;
+
+        UrlSource(Request request) {
+            this.request = request;
+        }
+
+        /**
+         * @return true表示已换成新的直链（可能是其他连接刷新的），可以重试
+         */
+        synchronized boolean refresh(String expiredUrl) throws IOException {
+            if (!expiredUrl.equals(request.getUrl())) {
+                return true;
+            }
+            UrlRefresher refresher = request.getUrlRefresher();
+            if (refresher == null || refreshes >= MAX_URL_REFRESHES) {
+                return false;
+            }
+            refreshes++;
+            String freshUrl;
+            try {
+                freshUrl = refresher.refresh(expiredUrl);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("下载已取消");
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("刷新直链失败: " + e.getMessage(), e);
+            }
+            if (freshUrl == null || freshUrl.isEmpty() || freshUrl.equals(expiredUrl)) {
+                return false;
+            }
+            request.setUrl(freshUrl);
+            return true;
+        }
+    }
+
+    private static class Probe {
+        final long total;
+        final DownloadCheckpoint.Validator validator;
+
+        Probe(long total, DownloadCheckpoint.Validator validator) {
+            this.total = total;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * 服务器上的文件已不是检查点记录的版本
+     */
+    static class ContentChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ContentChangedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 直链已过期且无法刷新，重试没有意义
+     */
+    static class UrlExpiredException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UrlExpiredException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 保存检查点前先把文件数据刷到磁盘，保证检查点记录的字节确实已经落盘
+     */
+    private static class Checkpointer {
+        private final DownloadCheckpoint checkpoint;
+        private final FileChannel channel;
+        private final AtomicLong lastSave = new AtomicLong(System.currentTimeMillis());
+
+        Checkpointer(DownloadCheckpoint checkpoint, FileChannel channel) {
+            this.checkpoint = checkpoint;
+            this.channel = channel;
+        }
+
+        void save(boolean force) throws IOException {
+            long now = System.currentTimeMillis();
+            long last = lastSave.get();
+            if (!force && (now - last < CHECKPOINT_INTERVAL_MS || !lastSave.compareAndSet(last, now))) {
+                return;
+            }
+            lastSave.set(now);
+            synchronized (checkpoint) {
+                channel.force(false);
+                checkpoint.save();
+            }
+        }
+
+        /**
+         * 出错或取消时调用，通道可能已因中断关闭，此时只保存检查点
+         */
+        void saveQuietly() {
+            synchronized (checkpoint) {
+                try {
+                    if (channel.isOpen()) {
+                        channel.force(false);
+                    }
+                    checkpoint.save();
+                } catch (IOException ignored) {
+                    // 保存失败时下次按上一次的检查点续传
+                }
+            }
+        }
+    }
+
+    /**
+     * 多个连接共享的进度计数，回调按时间间隔节流
+     */
+    private static class Progress {
+        private final AtomicLong downloaded;
+        private final AtomicLong lastReport = new AtomicLong();
+        private final long total;
+        private final ProgressListener listener;
+
+        Progress(long initial, long total, ProgressListener listener) {
+            this.downloaded = new AtomicLong(initial);
+            this.total = total;
+            this.listener = listener;
+        }
+
+        void add(long bytes) {
+            long value = downloaded.addAndGet(bytes);
+            long now = System.currentTimeMillis();
+            long last = lastReport.get();
+            if (now - last >= PROGRESS_INTERVAL_MS && lastReport.compareAndSet(last, now)) {
+                report(listener, value, total);
+            }
+        }
+
+        void finish() {
+            report(listener, downloaded.get(), total);
+        }
+    }
+}
\ No newline at end of file
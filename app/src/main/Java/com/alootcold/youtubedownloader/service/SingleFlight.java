@@ -0,0 +1,51 @@
+package com.alootcold.youtubedownloader.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 请求合并：同一个键同时只执行一次加载，并发调用者共享同一个结果
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 在当前线程执行加载；如果同一键已有进行中的请求，则等待并复用它的结果
+     */
+    public V execute(K key, Callable<V> loader) throws Exception {
+        FutureTask<V> task = new FutureTask<>(loader);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return await(task);
+    }
+
+    /**
+     * 当前是否有该键的进行中请求
+     */
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    private V await(Future<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
\ No newline at end of file
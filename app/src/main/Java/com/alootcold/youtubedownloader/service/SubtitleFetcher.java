@@ -0,0 +1,261 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.VideoMetadata;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 按语言白名单获取字幕（可选，默认不下载）
+ * 字幕地址直接取自探测结果，不需要额外启动yt-dlp；下载的字幕按视频ID和语言缓存，
+ * 同一视频换分辨率重新下载时直接复用
+ */
+final class SubtitleFetcher {
+    private static final String TAG = "SubtitleFetcher";
+    private static final String CACHE_DIR = "subtitles";
+    // YouTube的每个字幕轨道都提供vtt，缓存统一保存vtt，需要其他格式时由ffmpeg转换
+    private static final String SOURCE_EXT = "vtt";
+    private static final long MAX_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 15 * 1000;
+
+    private final File cacheDir;
+
+    /**
+     * 一个已缓存的字幕轨道
+     */
+    static final class Track {
+        final String language;
+        final File file;
+
+        Track(String language, File file) {
+            this.language = language;
+            this.file = file;
+        }
+    }
+
+    SubtitleFetcher(Context context) {
+        this.cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * 获取白名单中各语言的字幕，优先使用缓存；没有的语言跳过
+     *
+     * @param languages 逗号分隔的语言代码，例如 zh-Hans,en；"zh"也会匹配zh-Hans、zh-Hant
+     */
+    List<Track> fetch(VideoMetadata metadata, String languages) throws Exception {
+        List<Track> tracks = new ArrayList<>();
+        JSONObject info = new JSONObject(metadata.getJson());
+        String videoId = info.optString("id", "");
+        if (videoId.isEmpty()) {
+            return tracks;
+        }
+        File videoDir = new File(cacheDir, videoId);
+        JSONObject manual = info.optJSONObject("subtitles");
+        JSONObject automatic = info.optJSONObject("automatic_captions");
+
+        for (String wanted : parseLanguages(languages)) {
+            // 人工字幕优先，其次才是自动生成的字幕
+            String language = matchLanguage(manual, wanted);
+            JSONObject source = manual;
+            if (language == null) {
+                language = matchLanguage(automatic, wanted);
+                source = automatic;
+            }
+            if (language == null) {
+                Log.d(TAG, "No subtitle for " + wanted + ": " + videoId);
+                continue;
+            }
+
+            File cached = new File(videoDir, language + "." + SOURCE_EXT);
+            if (cached.exists() && cached.length() > 0) {
+                Log.d(TAG, "Subtitle cache hit: " + videoId + "/" + language);
+                cached.setLastModified(System.currentTimeMillis());
+                tracks.add(new Track(language, cached));
+                continue;
+            }
+            String url = trackUrl(source.optJSONArray(language));
+            if (url == null) {
+                continue;
+            }
+            try {
+                download(url, cached);
+                tracks.add(new Track(language, cached));
+            } catch (IOException e) {
+                // 单个语言失败不影响其他语言和视频本身
+                Log.e(TAG, "Failed to fetch subtitle " + language + ": " + e.getMessage());
+            }
+        }
+        trimCache();
+        return tracks;
+    }
+
+    /**
+     * 把字幕放到媒体文件旁边，命名为 <文件名>.<语言>.<格式>，播放器可以自动识别
+     *
+     * @return 成功写出的字幕文件
+     */
+    List<File> place(List<Track> tracks, File media, String format) {
+        List<File> placed = new ArrayList<>();
+        String baseName = media.getName();
+        int dotIndex = baseName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            baseName = baseName.substring(0, dotIndex);
+        }
+        for (Track track : tracks) {
+            File target = new File(media.getParentFile(), baseName + "." + track.language + "." + format);
+            try {
+                if (SOURCE_EXT.equals(format)) {
+                    copy(track.file, target);
+                } else {
+                    FFmpegMuxer.convertSubtitle(track.file, target);
+                }
+                Log.d(TAG, "Saved subtitle: " + target.getName());
+                placed.add(target);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to save subtitle " + track.language, e);
+            }
+        }
+        return placed;
+    }
+
+    static List<String> parseLanguages(String languages) {
+        List<String> result = new ArrayList<>();
+        if (languages == null) {
+            return result;
+        }
+        for (String language : languages.split("[,\\s]+")) {
+            if (!language.isEmpty() && !result.contains(language)) {
+                result.add(language);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 精确匹配优先，其次匹配带地区/书写系统后缀的语言（zh -> zh-Hans）
+     */
+    private static String matchLanguage(JSONObject tracks, String wanted) {
+        if (tracks == null) {
+            return null;
+        }
+        if (tracks.has(wanted)) {
+            return wanted;
+        }
+        Iterator<String> keys = tracks.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.startsWith(wanted + "-")) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static String trackUrl(JSONArray formats) {
+        if (formats == null) {
+            return null;
+        }
+        for (int i = 0; i < formats.length(); i++) {
+            JSONObject format = formats.optJSONObject(i);
+            if (format != null && SOURCE_EXT.equals(format.optString("ext")) && !format.optString("url", "").isEmpty()) {
+                return format.optString("url");
+            }
+        }
+        return null;
+    }
+
+    private static void download(String url, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建字幕缓存目录");
+        }
+        File tempFile = new File(target.getPath() + ".tmp");
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code);
+            }
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(tempFile)) {
+                copy(in, out);
+            }
+            if (!tempFile.renameTo(target)) {
+                throw new IOException("无法保存字幕缓存");
+            }
+        } finally {
+            connection.disconnect();
+            tempFile.delete();
+        }
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = new FileOutputStream(target)) {
+            copy(in, out);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * 缓存超过上限时按最近使用时间删除最旧的字幕
+     */
+    private void trimCache() {
+        List<File> files = new ArrayList<>();
+        File[] videoDirs = cacheDir.listFiles();
+        if (videoDirs == null) {
+            return;
+        }
+        long total = 0;
+        for (File videoDir : videoDirs) {
+            File[] subtitles = videoDir.listFiles();
+            if (subtitles == null) {
+                continue;
+            }
+            for (File subtitle : subtitles) {
+                files.add(subtitle);
+                total += subtitle.length();
+            }
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+        files.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+            File parent = file.getParentFile();
+            String[] remaining = parent != null ? parent.list() : null;
+            if (remaining != null && remaining.length == 0) {
+                parent.delete();
+            }
+        }
+    }
+}
\ No newline at end of file
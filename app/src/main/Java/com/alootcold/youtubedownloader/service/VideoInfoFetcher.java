@@ -0,0 +1,219 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.model.VideoMetadata;
+import com.alootcold.youtubedownloader.util.YouTubeUrlUtils;
+import com.yausername.youtubedl_android.YoutubeDL;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+import com.yausername.youtubedl_android.YoutubeDLResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 视频元数据/格式探测入口
+ * 同一规范视频ID的并发探测只会启动一个yt-dlp进程，结果在短时间内缓存复用
+ */
+public class VideoInfoFetcher {
+    private static final String TAG = "VideoInfoFetcher";
+    private static final int MAX_CACHE_ENTRIES = 8;
+    // 格式列表中的直链几个小时后就会失效，缓存只保留较短时间
+    private static final long CACHE_TTL_MS = 30 * 60 * 1000;
+
+    private static VideoInfoFetcher instance;
+
+    private final Context context;
+    private final SingleFlight<String, VideoMetadata> singleFlight = new SingleFlight<>();
+    private final Map<String, VideoMetadata> cache = new LinkedHashMap<String, VideoMetadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VideoMetadata> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+
+    private VideoInfoFetcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized VideoInfoFetcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new VideoInfoFetcher(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 获取视频元数据：优先使用缓存，其次加入进行中的探测，最后才启动新的探测
+     */
+    public VideoMetadata fetch(String url) throws Exception {
+        String key = keyFor(url);
+        VideoMetadata cached = getCached(key);
+        if (cached != null) {
+            Log.d(TAG, "Metadata cache hit: " + key);
+            return cached;
+        }
+        if (singleFlight.isInFlight(key)) {
+            Log.d(TAG, "Joining in-flight probe: " + key);
+        }
+        return singleFlight.execute(key, () -> {
+            VideoMetadata metadata = load(url);
+            synchronized (cache) {
+                cache.put(key, metadata);
+            }
+            return metadata;
+        });
+    }
+
+    /**
+     * 仅从缓存获取，不会触发探测
+     */
+    public VideoMetadata getCached(String key) {
+        synchronized (cache) {
+            VideoMetadata metadata = cache.get(key);
+            if (metadata != null && !metadata.isFresh(CACHE_TTL_MS)) {
+                cache.remove(key);
+                return null;
+            }
+            return metadata;
+        }
+    }
+
+    /**
+     * 使缓存失效，下次获取时重新探测
+     */
+    public void invalidate(String url) {
+        synchronized (cache) {
+            cache.remove(keyFor(url));
+        }
+    }
+
+    /**
+     * 直链过期后重新获取指定格式的直链
+     * 其他任务已经刷新过缓存时直接使用缓存中的新直链，否则重新探测（同一视频的并发刷新会合并为一次）
+     */
+    public String refreshFormatUrl(String url, String formatId, String expiredUrl) throws Exception {
+        VideoMetadata cached = getCached(keyFor(url));
+        if (cached != null && cached.hasJson()) {
+            String cachedUrl = FormatSelector.findFormatUrl(cached.getJson(), formatId);
+            if (cachedUrl != null && !cachedUrl.equals(expiredUrl)) {
+                Log.d(TAG, "Refreshed format " + formatId + " from cache");
+                return cachedUrl;
+            }
+        }
+        invalidate(url);
+        VideoMetadata metadata = fetch(url);
+        String freshUrl = metadata.hasJson() ? FormatSelector.findFormatUrl(metadata.getJson(), formatId) : null;
+        if (freshUrl == null) {
+            throw new Exception("格式 " + formatId + " 已不可用");
+        }
+        Log.d(TAG, "Refreshed format " + formatId + " by re-probing");
+        return freshUrl;
+    }
+
+    /**
+     * 为列表项补全缩略图：使用已缓存的探测结果或默认缩略图地址，不会启动yt-dlp进程
+     */
+    public String resolveThumbnail(DownloadItem item) {
+        String videoId = item.getVideoId();
+        if (videoId == null) {
+            return null;
+        }
+        VideoMetadata cached = getCached(videoId);
+        if (cached != null && cached.getThumbnailUrl() != null && !cached.getThumbnailUrl().isEmpty()) {
+            return cached.getThumbnailUrl();
+        }
+        return YouTubeUrlUtils.defaultThumbnailUrl(videoId);
+    }
+
+    /**
+     * 合并键：规范视频ID，无法识别时使用原始URL
+     */
+    public static String keyFor(String url) {
+        String videoId = YouTubeUrlUtils.extractVideoId(url);
+        return videoId != null ? videoId : url;
+    }
+
+    private VideoMetadata load(String url) throws Exception {
+        Log.d(TAG, "Probing video info: " + url);
+        YoutubeDL.getInstance().init(context);
+        YoutubeDLRequest infoRequest = new YoutubeDLRequest(url);
+        infoRequest.addOption("--dump-json");
+        infoRequest.addOption("--no-playlist");
+        infoRequest.addOption("--flat-playlist");
+        infoRequest.addOption("--no-warnings");
+        YtDlpOptions.addBypassOptions(context, infoRequest);
+
+        String json = null;
+        if (YtDlpWorkerPool.isEnabled(context)) {
+            try {
+                json = YtDlpWorkerPool.getInstance(context).dumpJson(infoRequest);
+            } catch (YtDlpWorkerPool.WorkerUnavailableException e) {
+                Log.w(TAG, "Worker unavailable, probing with a new process: " + e.getMessage());
+            }
+        }
+        if (json == null) {
+            YoutubeDLResponse response = YoutubeDL.getInstance().execute(infoRequest);
+            json = firstJsonLine(response.getOut());
+        }
+        if (json == null) {
+            throw new Exception("无法获取视频信息: yt-dlp没有输出JSON");
+        }
+        return parse(url, json);
+    }
+
+    /**
+     * 解析yt-dlp的--dump-json输出
+     */
+    static VideoMetadata parse(String url, String json) throws JSONException {
+        JSONObject info = new JSONObject(json);
+
+        String videoId = info.optString("id", null);
+        if (!YouTubeUrlUtils.isValidVideoId(videoId)) {
+            videoId = YouTubeUrlUtils.extractVideoId(url);
+        }
+
+        String thumbnailUrl = info.optString("thumbnail", "");
+        if (thumbnailUrl.isEmpty()) {
+            JSONArray thumbnails = info.optJSONArray("thumbnails");
+            if (thumbnails != null && thumbnails.length() > 0) {
+                thumbnailUrl = thumbnails.getJSONObject(thumbnails.length() - 1).optString("url", "");
+            }
+        }
+
+        String uploader = info.optString("channel", "");
+        if (uploader.isEmpty()) {
+            uploader = info.optString("uploader", "");
+        }
+
+        JSONArray formats = info.optJSONArray("formats");
+        return new VideoMetadata(
+                videoId,
+                info.optString("title", ""),
+                thumbnailUrl,
+                uploader,
+                (long) info.optDouble("duration", 0),
+                formats != null ? formats.length() : 0,
+                json
+        );
+    }
+
+    private static String firstJsonLine(String output) {
+        if (output == null) {
+            return null;
+        }
+        for (String line : output.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("{")) {
+                return trimmed;
+            }
+        }
+        return null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.util.Log;
+
+import com.yausername.youtubedl_android.YoutubeDL;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+/**
+ * YoutubeDL初始化后保存的可执行文件路径和运行环境
+ * 自行启动python/ffmpeg进程时需要与YoutubeDL.execute使用相同的环境，否则找不到动态库和证书
+ */
+final class YtDlpEnvironment {
+    private static final String TAG = "YtDlpEnvironment";
+
+    private YtDlpEnvironment() {
+    }
+
+    static String pythonPath() {
+        return readField("pythonPath");
+    }
+
+    static String ytdlpPath() {
+        return readField("ytdlpPath");
+    }
+
+    /**
+     * ffmpeg可执行文件（nativeLibraryDir/libffmpeg.so）
+     */
+    static String ffmpegPath() {
+        return readField("ffmpegPath");
+    }
+
+    /**
+     * 写入与YoutubeDL.execute相同的环境变量
+     */
+    static void apply(Map<String, String> env) {
+        putIfNotNull(env, "LD_LIBRARY_PATH", readField("ENV_LD_LIBRARY_PATH"));
+        putIfNotNull(env, "SSL_CERT_FILE", readField("ENV_SSL_CERT_FILE"));
+        String pythonHome = readField("ENV_PYTHONHOME");
+        putIfNotNull(env, "PYTHONHOME", pythonHome);
+        putIfNotNull(env, "HOME", pythonHome);
+        putIfNotNull(env, "TMPDIR", readField("TMPDIR"));
+        String binDir = readField("binDir");
+        if (binDir != null) {
+            env.put("PATH", System.getenv("PATH") + ":" + binDir);
+        }
+    }
+
+    /**
+     * 通过反射读取YoutubeDL的私有字段，避免与库内部的目录布局耦合
+     */
+    private static String readField(String name) {
+        try {
+            Field field = YoutubeDL.class.getDeclaredField(name);
+            field.setAccessible(true);
+            Object target = Modifier.isStatic(field.getModifiers()) ? null : YoutubeDL.getInstance();
+            Object value = field.get(target);
+            if (value instanceof File) {
+                return ((File) value).getAbsolutePath();
+            }
+            return value != null ? value.toString() : null;
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot read YoutubeDL." + name, e);
+            return null;
+        }
+    }
+
+    private static void putIfNotNull(Map<String, String> env, String key, String value) {
+        if (value != null && !value.isEmpty()) {
+            env.put(key, value);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+
+import java.io.File;
+
+/**
+ * yt-dlp公共命令行选项，探测和下载请求共用
+ */
+public final class YtDlpOptions {
+    private static final String TAG = "YtDlpOptions";
+
+    private YtDlpOptions() {
+    }
+
+    /**
+     * 添加绕过YouTube限制的选项
+     */
+    public static void addBypassOptions(Context context, YoutubeDLRequest request) {
+        // 添加额外的User-Agent
+        request.addOption("--user-agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/94.0.4606.61 Safari/537.36");
+
+        // 强制使用IPv4，避免IPv6网络问题
+        request.addOption("--force-ipv4");
+
+        // 禁用缓存目录，避免权限问题
+        request.addOption("--no-cache-dir");
+
+        // 绕过地理限制
+        request.addOption("--geo-bypass");
+
+        // 重试次数
+        request.addOption("--retries", "10");
+
+        // 超时设置
+        request.addOption("--socket-timeout", "30");
+
+        // 添加cookies文件支持（如果可能）
+        try {
+            File cookiesFile = new File(context.getFilesDir(), "youtube_cookies.txt");
+            if (cookiesFile.exists()) {
+                request.addOption("--cookies", cookiesFile.getAbsolutePath());
+                Log.d(TAG, "Using cookies file: " + cookiesFile.getAbsolutePath());
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error setting cookies file", e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,198 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个常驻yt-dlp工作进程（assets/ytdlp_worker.py）
+ * 进程启动时导入一次yt_dlp，之后通过stdin/stdout的JSON行协议逐个执行任务
+ * 同一时间只执行一个任务，由YtDlpWorkerPool负责分配
+ */
+class YtDlpWorker {
+    private static final String TAG = "YtDlpWorker";
+    private static final int STDERR_TAIL_LINES = 20;
+
+    /**
+     * 下载进度回调，参数含义与YoutubeDL.execute的回调一致
+     */
+    interface ProgressListener {
+        void onProgress(float progress, long etaInSeconds, String line);
+    }
+
+    private final Process process;
+    private final BufferedWriter writer;
+    private final LinkedBlockingQueue<JSONObject> messages = new LinkedBlockingQueue<>();
+    // 最近的stderr输出，任务失败或进程退出时用于拼接错误信息
+    private final ArrayDeque<String> stderrTail = new ArrayDeque<>();
+    private volatile boolean dead;
+    private int jobSequence;
+    final int generation;
+
+    YtDlpWorker(Process process, int generation) {
+        this.process = process;
+        this.generation = generation;
+        this.writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread stdoutReader = new Thread(this::readStdout, "ytdlp-worker-out");
+        stdoutReader.setDaemon(true);
+        stdoutReader.start();
+
+        Thread stderrReader = new Thread(this::readStderr, "ytdlp-worker-err");
+        stderrReader.setDaemon(true);
+        stderrReader.start();
+    }
+
+    /**
+     * 等待工作进程完成yt_dlp导入
+     */
+    void awaitReady(long timeoutMs) throws Exception {
+        JSONObject message = messages.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (message == null || !"ready".equals(message.optString("type"))) {
+            destroy();
+            throw new YtDlpWorkerPool.WorkerUnavailableException("工作进程启动失败" + describeFailure());
+        }
+    }
+
+    /**
+     * 执行一个任务并阻塞等待结果
+     * idleTimeoutMs内没有收到任何消息视为进程卡死，会直接杀掉进程
+     *
+     * @return info模式下返回探测到的JSON，download模式下返回null
+     */
+    JSONObject run(String mode, List<String> args, ProgressListener listener, long idleTimeoutMs) throws Exception {
+        if (dead) {
+            throw new YtDlpWorkerPool.WorkerUnavailableException("工作进程已退出");
+        }
+        messages.clear();
+        String jobId = String.valueOf(++jobSequence);
+
+        try {
+            JSONObject job = new JSONObject();
+            job.put("id", jobId);
+            job.put("mode", mode);
+            job.put("args", new JSONArray(args));
+            writer.write(job.toString());
+            writer.write("\n");
+            writer.flush();
+        } catch (IOException e) {
+            destroy();
+            throw new YtDlpWorkerPool.WorkerUnavailableException("无法向工作进程发送任务: " + e.getMessage());
+        }
+
+        JSONObject result = null;
+        try {
+            while (true) {
+                JSONObject message = messages.poll(idleTimeoutMs, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    Log.w(TAG, "Worker produced no output for " + idleTimeoutMs + "ms, killing it");
+                    destroy();
+                    throw new YtDlpWorkerPool.WorkerUnavailableException("工作进程无响应");
+                }
+                String type = message.optString("type");
+                if ("eof".equals(type)) {
+                    throw new YtDlpWorkerPool.WorkerUnavailableException("工作进程意外退出" + describeFailure());
+                }
+                if (!jobId.equals(message.optString("id"))) {
+                    continue;
+                }
+                if ("progress".equals(type)) {
+                    if (listener != null) {
+                        listener.onProgress((float) message.optDouble("progress", 0),
+                                message.optLong("eta", -1), message.optString("line", ""));
+                    }
+                } else if ("info".equals(type)) {
+                    result = message.optJSONObject("info");
+                } else if ("done".equals(type)) {
+                    int code = message.optInt("code", 0);
+                    if (code != 0) {
+                        throw new Exception("yt-dlp exited with code " + code + describeFailure());
+                    }
+                    return result;
+                } else if ("error".equals(type)) {
+                    throw new Exception(message.optString("message", "yt-dlp error") + describeFailure());
+                }
+            }
+        } catch (InterruptedException e) {
+            // 任务被取消（暂停/取消下载），Python线程无法中断，只能结束整个进程
+            destroy();
+            throw e;
+        }
+    }
+
+    boolean isAlive() {
+        return !dead;
+    }
+
+    void destroy() {
+        dead = true;
+        process.destroy();
+    }
+
+    private void readStdout() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("{")) {
+                    continue;
+                }
+                try {
+                    messages.offer(new JSONObject(line));
+                } catch (JSONException e) {
+                    Log.w(TAG, "Malformed worker message: " + line);
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Worker stdout closed: " + e.getMessage());
+        }
+        dead = true;
+        try {
+            messages.offer(new JSONObject().put("type", "eof"));
+        } catch (JSONException ignored) {
+        }
+    }
+
+    private void readStderr() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Log.d(TAG, "yt-dlp: " + line);
+                synchronized (stderrTail) {
+                    if (stderrTail.size() >= STDERR_TAIL_LINES) {
+                        stderrTail.removeFirst();
+                    }
+                    stderrTail.addLast(line);
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Worker stderr closed: " + e.getMessage());
+        }
+    }
+
+    private String describeFailure() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (stderrTail) {
+            for (String line : stderrTail) {
+                if (line.startsWith("ERROR") || line.contains("Error")) {
+                    builder.append("\n").append(line);
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
\ No newline at end of file
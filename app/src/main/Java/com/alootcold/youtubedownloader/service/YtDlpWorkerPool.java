@@ -0,0 +1,227 @@
+package com.alootcold.youtubedownloader.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.util.PreferenceManager;
+import com.yausername.youtubedl_android.YoutubeDL;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function3;
+
+/**
+ * 常驻yt-dlp工作进程池（可选模式，在菜单中开启）
+ * 每次YoutubeDL.execute都会启动新的Python解释器并重新导入yt-dlp，在中端机上要耗费数秒；
+ * 开启后探测和下载优先交给已导入yt-dlp的空闲进程执行，进程崩溃或卡死时自动重建。
+ * 工作进程不可用时抛出WorkerUnavailableException，调用方应回退到YoutubeDL.execute
+ */
+public class YtDlpWorkerPool {
+    private static final String TAG = "YtDlpWorkerPool";
+    private static final String SCRIPT_ASSET = "ytdlp_worker.py";
+    // 探测任务和小文件下载足够两个进程轮转，更多的并发下载直接走新进程
+    private static final int MAX_WORKERS = 2;
+    private static final long STARTUP_TIMEOUT_MS = 60 * 1000;
+    // 等待空闲进程的时间，超过后回退到新进程
+    private static final long ACQUIRE_TIMEOUT_MS = 3000;
+    // 探测时超过该时间没有输出视为卡死
+    private static final long INFO_IDLE_TIMEOUT_MS = 90 * 1000;
+    // 下载时yt-dlp自身有重试和socket超时，给足够宽松的时间
+    private static final long DOWNLOAD_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private static YtDlpWorkerPool instance;
+
+    private final Context context;
+    private final LinkedBlockingQueue<YtDlpWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    // 每次shutdown后递增，旧进程（例如更新yt-dlp前启动的）用完即结束，不再放回池中
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * 工作进程无法启动、崩溃或卡死
+     */
+    public static class WorkerUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public WorkerUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private YtDlpWorkerPool(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized YtDlpWorkerPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new YtDlpWorkerPool(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 是否开启了常驻进程模式
+     */
+    public static boolean isEnabled(Context context) {
+        return new PreferenceManager(context).isWarmWorkerEnabled();
+    }
+
+    /**
+     * 提前启动一个工作进程，使第一次探测也不需要等待yt-dlp导入
+     */
+    public void warmUp() {
+        if (workerCount.get() > 0) {
+            return;
+        }
+        new Thread(() -> {
+            try {
+                release(acquire(0));
+                Log.d(TAG, "Worker warmed up");
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to warm up worker", e);
+            }
+        }, "ytdlp-worker-warmup").start();
+    }
+
+    /**
+     * 在工作进程中执行探测，返回yt-dlp的info JSON（与--dump-json输出一致）
+     */
+    public String dumpJson(YoutubeDLRequest request) throws Exception {
+        YtDlpWorker worker = acquire(ACQUIRE_TIMEOUT_MS);
+        try {
+            JSONObject info = worker.run("info", request.buildCommand(), null, INFO_IDLE_TIMEOUT_MS);
+            if (info == null) {
+                throw new Exception("无法获取视频信息: 工作进程没有返回JSON");
+            }
+            return info.toString();
+        } finally {
+            release(worker);
+        }
+    }
+
+    /**
+     * 在工作进程中执行下载，进度回调与YoutubeDL.execute相同
+     */
+    public void download(YoutubeDLRequest request, Function3<Float, Long, String, Unit> callback) throws Exception {
+        // YoutubeDL.execute会自动加上ffmpeg路径，工作进程需要自己指定，否则无法合并音视频
+        String ffmpegPath = YtDlpEnvironment.ffmpegPath();
+        if (ffmpegPath != null && !request.hasOption("--ffmpeg-location")) {
+            request.addOption("--ffmpeg-location", ffmpegPath);
+        }
+        YtDlpWorker worker = acquire(ACQUIRE_TIMEOUT_MS);
+        try {
+            worker.run("download", request.buildCommand(),
+                    callback == null ? null : (progress, etaInSeconds, line) -> callback.invoke(progress, etaInSeconds, line),
+                    DOWNLOAD_IDLE_TIMEOUT_MS);
+        } finally {
+            release(worker);
+        }
+    }
+
+    /**
+     * 结束所有空闲进程（关闭常驻模式或更新yt-dlp后调用），正在执行任务的进程在任务结束后退出
+     */
+    public void shutdown() {
+        generation.incrementAndGet();
+        YtDlpWorker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.destroy();
+            workerCount.decrementAndGet();
+        }
+    }
+
+    private YtDlpWorker acquire(long timeoutMs) throws Exception {
+        // 丢弃已经退出的进程
+        YtDlpWorker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            if (worker.isAlive()) {
+                return worker;
+            }
+            workerCount.decrementAndGet();
+        }
+
+        if (workerCount.incrementAndGet() <= MAX_WORKERS) {
+            try {
+                return startWorker();
+            } catch (Exception e) {
+                workerCount.decrementAndGet();
+                throw e;
+            }
+        }
+        workerCount.decrementAndGet();
+
+        worker = idleWorkers.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (worker == null || !worker.isAlive()) {
+            if (worker != null) {
+                workerCount.decrementAndGet();
+            }
+            throw new WorkerUnavailableException("没有空闲的工作进程");
+        }
+        return worker;
+    }
+
+    private void release(YtDlpWorker worker) {
+        if (worker.isAlive() && worker.generation == generation.get() && isEnabled(context)) {
+            idleWorkers.offer(worker);
+        } else {
+            // 进程已崩溃/被杀掉，下次需要时重新启动
+            worker.destroy();
+            workerCount.decrementAndGet();
+        }
+    }
+
+    private YtDlpWorker startWorker() throws Exception {
+        long start = System.currentTimeMillis();
+        YoutubeDL.getInstance().init(context);
+
+        String pythonPath = YtDlpEnvironment.pythonPath();
+        String ytdlpPath = YtDlpEnvironment.ytdlpPath();
+        if (pythonPath == null || ytdlpPath == null) {
+            throw new WorkerUnavailableException("无法定位Python或yt-dlp路径");
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(pythonPath);
+        command.add("-u");
+        command.add(prepareScript().getAbsolutePath());
+        command.add(ytdlpPath);
+
+        // 与YoutubeDL.execute使用相同的运行环境
+        ProcessBuilder builder = new ProcessBuilder(command);
+        YtDlpEnvironment.apply(builder.environment());
+
+        YtDlpWorker worker = new YtDlpWorker(builder.start(), generation.get());
+        worker.awaitReady(STARTUP_TIMEOUT_MS);
+        Log.d(TAG, "Worker started in " + (System.currentTimeMillis() - start) + "ms");
+        return worker;
+    }
+
+    /**
+     * 将工作脚本从assets复制到私有目录，每次启动进程前覆盖，保证与当前版本一致
+     */
+    private File prepareScript() throws IOException {
+        File script = new File(context.getFilesDir(), SCRIPT_ASSET);
+        try (InputStream in = context.getAssets().open(SCRIPT_ASSET);
+             OutputStream out = new FileOutputStream(script)) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+        }
+        return script;
+    }
+}
\ No newline at end of file
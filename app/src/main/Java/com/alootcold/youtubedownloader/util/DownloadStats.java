@@ -0,0 +1,350 @@
+package com.alootcold.youtubedownloader.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 下载统计：每个下载结束时增量累加到按天、按格式和按阶段分桶的计数器中
+ * 计数器保存在历史数据库的几张小表里，读取统计只读这些桶（最多几百行），不扫描历史记录
+ */
+public final class DownloadStats {
+    private static final String TAG = "DownloadStats";
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // 按天的统计只保留这么多天，总计来自按格式的桶，不受影响
+    private static final int DAILY_RETENTION_DAYS = 400;
+
+    private static final String TABLE_DAILY = "stats_daily";
+    private static final String TABLE_FORMAT = "stats_format";
+    private static final String TABLE_PHASE = "stats_phase";
+    private static final String COLUMN_DAY = "day";
+    private static final String COLUMN_FORMAT = "format";
+    private static final String COLUMN_PHASE = "phase";
+    private static final String COLUMN_SUCCEEDED = "succeeded";
+    private static final String COLUMN_FAILED = "failed";
+    private static final String COLUMN_BYTES = "bytes";
+    // 同时知道大小和下载耗时的任务，用于计算平均速度
+    private static final String COLUMN_TIMED_BYTES = "timed_bytes";
+    private static final String COLUMN_TIMED_MS = "timed_ms";
+    private static final String COLUMN_COUNT = "count";
+    private static final String COLUMN_TOTAL_MS = "total_ms";
+    private static final String[] BUCKET_COLUMNS = {COLUMN_SUCCEEDED, COLUMN_FAILED, COLUMN_BYTES,
+            COLUMN_TIMED_BYTES, COLUMN_TIMED_MS};
+
+    private static DownloadStats instance;
+
+    private final HistoryDatabase database;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "download-stats"));
+
+    /**
+     * 一组计数：按天或按格式
+     */
+    public static final class Bucket {
+        private final String name;
+        private final long succeeded;
+        private final long failed;
+        private final long bytes;
+        private final long timedBytes;
+        private final long timedMs;
+
+        Bucket(String name, long succeeded, long failed, long bytes, long timedBytes, long timedMs) {
+            this.name = name;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.bytes = bytes;
+            this.timedBytes = timedBytes;
+            this.timedMs = timedMs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * 成功率（0-1），没有下载时返回0
+         */
+        public double getSuccessRate() {
+            long total = succeeded + failed;
+            return total > 0 ? (double) succeeded / total : 0;
+        }
+
+        /**
+         * 平均下载速度（字节/秒），没有计时数据时返回0
+         */
+        public long getAverageSpeed() {
+            return timedMs > 0 ? timedBytes * 1000 / timedMs : 0;
+        }
+    }
+
+    /**
+     * 一个阶段的总耗时
+     */
+    public static final class Phase {
+        private final String name;
+        private final long count;
+        private final long totalMs;
+
+        Phase(String name, long count, long totalMs) {
+            this.name = name;
+            this.count = count;
+            this.totalMs = totalMs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMs() {
+            return totalMs;
+        }
+
+        public long getAverageMs() {
+            return count > 0 ? totalMs / count : 0;
+        }
+    }
+
+    /**
+     * 一次读取的全部统计
+     */
+    public static final class Snapshot {
+        private final Bucket total;
+        private final List<Bucket> days;
+        private final List<Bucket> formats;
+        private final List<Phase> phases;
+
+        Snapshot(Bucket total, List<Bucket> days, List<Bucket> formats, List<Phase> phases) {
+            this.total = total;
+            this.days = days;
+            this.formats = formats;
+            this.phases = phases;
+        }
+
+        public Bucket getTotal() {
+            return total;
+        }
+
+        /**
+         * 按天的统计，新的在前，名称为日期（yyyy-MM-dd）
+         */
+        public List<Bucket> getDays() {
+            return days;
+        }
+
+        /**
+         * 按格式的统计，下载次数多的在前
+         */
+        public List<Bucket> getFormats() {
+            return formats;
+        }
+
+        public List<Phase> getPhases() {
+            return phases;
+        }
+    }
+
+    /**
+     * 一个下载结束时需要累加的数值，在调用线程中从DownloadItem取出，之后的修改不影响统计
+     */
+    static final class Sample {
+        final long day;
+        final String format;
+        final boolean succeeded;
+        final long bytes;
+        final long downloadMs;
+        final Map<String, Long> phases;
+
+        Sample(DownloadItem item, boolean succeeded, long finishedAt) {
+            this.day = finishedAt > 0 ? dayOf(finishedAt) : -1;
+            this.format = item.getFormat() != null ? item.getFormat() : "best";
+            this.succeeded = succeeded;
+            this.bytes = succeeded ? item.getFileSizeBytes() : 0;
+            this.phases = succeeded ? item.getPhaseTimings() : Collections.<String, Long>emptyMap();
+            Long download = phases.get(DownloadItem.PHASE_DOWNLOAD);
+            this.downloadMs = download != null ? download : 0;
+        }
+    }
+
+    private DownloadStats(HistoryDatabase database) {
+        this.database = database;
+    }
+
+    public static synchronized DownloadStats getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadStats(HistoryDatabase.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * 记录一个下载的结果，在后台线程中写入
+     */
+    public void record(DownloadItem item, boolean succeeded) {
+        Sample sample = new Sample(item, succeeded, System.currentTimeMillis());
+        executor.execute(() -> {
+            try {
+                SQLiteDatabase db = database.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    add(db, sample);
+                    db.delete(TABLE_DAILY, COLUMN_DAY + " <= ?",
+                            new String[]{String.valueOf(sample.day - DAILY_RETENTION_DAYS)});
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error recording download stats for " + item.getId(), e);
+            }
+        });
+    }
+
+    /**
+     * 读取统计，只读各个桶，与历史记录的条数无关
+     *
+     * @param days 返回最近多少天的按天统计
+     */
+    public Snapshot load(int days) {
+        SQLiteDatabase db = database.getReadableDatabase();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        // 天数是本地日期，换算回毫秒后按UTC格式化就是本地日期
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        List<Bucket> daily = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_DAILY, prepend(COLUMN_DAY, BUCKET_COLUMNS),
+                COLUMN_DAY + " > ?", new String[]{String.valueOf(dayOf(System.currentTimeMillis()) - days)},
+                null, null, COLUMN_DAY + " DESC")) {
+            while (cursor.moveToNext()) {
+                daily.add(readBucket(cursor, dateFormat.format(new Date(cursor.getLong(0) * DAY_MS))));
+            }
+        }
+        List<Bucket> formats = new ArrayList<>();
+        long[] totals = new long[BUCKET_COLUMNS.length];
+        try (Cursor cursor = db.query(TABLE_FORMAT, prepend(COLUMN_FORMAT, BUCKET_COLUMNS), null, null, null, null,
+                COLUMN_SUCCEEDED + " + " + COLUMN_FAILED + " DESC")) {
+            while (cursor.moveToNext()) {
+                formats.add(readBucket(cursor, cursor.getString(0)));
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += cursor.getLong(i + 1);
+                }
+            }
+        }
+        List<Phase> phases = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_PHASE, new String[]{COLUMN_PHASE, COLUMN_COUNT, COLUMN_TOTAL_MS},
+                null, null, null, null, COLUMN_TOTAL_MS + " DESC")) {
+            while (cursor.moveToNext()) {
+                phases.add(new Phase(cursor.getString(0), cursor.getLong(1), cursor.getLong(2)));
+            }
+        }
+        Bucket total = new Bucket("", totals[0], totals[1], totals[2], totals[3], totals[4]);
+        return new Snapshot(total, daily, formats, phases);
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_DAILY + " (" + COLUMN_DAY + " INTEGER PRIMARY KEY, "
+                + bucketColumns() + ")");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FORMAT + " (" + COLUMN_FORMAT + " TEXT PRIMARY KEY NOT NULL, "
+                + bucketColumns() + ")");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PHASE + " (" + COLUMN_PHASE + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0, " + COLUMN_TOTAL_MS + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * 在调用方的事务中累加一个样本
+     */
+    static void add(SQLiteDatabase db, Sample sample) {
+        long timedBytes = sample.bytes > 0 && sample.downloadMs > 0 ? sample.bytes : 0;
+        long timedMs = timedBytes > 0 ? sample.downloadMs : 0;
+        Object[] deltas = {sample.succeeded ? 1 : 0, sample.succeeded ? 0 : 1, sample.bytes, timedBytes, timedMs};
+        if (sample.day >= 0) {
+            increment(db, TABLE_DAILY, COLUMN_DAY, sample.day, BUCKET_COLUMNS, deltas);
+        }
+        increment(db, TABLE_FORMAT, COLUMN_FORMAT, sample.format, BUCKET_COLUMNS, deltas);
+        for (Map.Entry<String, Long> phase : sample.phases.entrySet()) {
+            increment(db, TABLE_PHASE, COLUMN_PHASE, phase.getKey(), new String[]{COLUMN_COUNT, COLUMN_TOTAL_MS},
+                    new Object[]{1, phase.getValue()});
+        }
+    }
+
+    /**
+     * 行不存在时先插入全0的行，再把各列加上增量。API 24的SQLite不支持UPSERT语法
+     */
+    private static void increment(SQLiteDatabase db, String table, String keyColumn, Object key,
+                                  String[] columns, Object[] deltas) {
+        ContentValues row = new ContentValues();
+        row.put(keyColumn, String.valueOf(key));
+        db.insertWithOnConflict(table, null, row, SQLiteDatabase.CONFLICT_IGNORE);
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        Object[] args = new Object[columns.length + 1];
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = ").append(columns[i]).append(" + ?");
+            args[i] = deltas[i];
+        }
+        sql.append(" WHERE ").append(keyColumn).append(" = ?");
+        args[columns.length] = key;
+        db.execSQL(sql.toString(), args);
+    }
+
+    private static Bucket readBucket(Cursor cursor, String name) {
+        return new Bucket(name, cursor.getLong(1), cursor.getLong(2), cursor.getLong(3),
+                cursor.getLong(4), cursor.getLong(5));
+    }
+
+    private static String bucketColumns() {
+        StringBuilder columns = new StringBuilder();
+        for (String column : BUCKET_COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(column).append(" INTEGER NOT NULL DEFAULT 0");
+        }
+        return columns.toString();
+    }
+
+    private static String[] prepend(String first, String[] rest) {
+        String[] columns = new String[rest.length + 1];
+        columns[0] = first;
+        System.arraycopy(rest, 0, columns, 1, rest.length);
+        return columns;
+    }
+
+    /**
+     * 本地日期对应的天数（自1970-01-01起）
+     */
+    static long dayOf(long millis) {
+        return (millis + TimeZone.getDefault().getOffset(millis)) / DAY_MS;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.alootcold.youtubedownloader.util;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一次提交对下载历史的净修改：新增、更新和删除的记录ID
+ * 同一批中先插入后删除的记录不会出现，先删除后插入的记录算作更新
+ */
+public final class HistoryChange {
+    private boolean cleared;
+    private final Map<String, DownloadItem> inserted = new LinkedHashMap<>();
+    private final Map<String, DownloadItem> updated = new LinkedHashMap<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+
+    HistoryChange() {
+    }
+
+    void onPut(DownloadItem item, boolean existed) {
+        String id = item.getId();
+        if (inserted.containsKey(id)) {
+            inserted.put(id, item);
+        } else if (existed || removed.remove(id)) {
+            updated.put(id, item);
+        } else {
+            inserted.put(id, item);
+        }
+    }
+
+    void onDelete(String id) {
+        if (inserted.remove(id) == null) {
+            updated.remove(id);
+            removed.add(id);
+        }
+    }
+
+    void onClear() {
+        cleared = true;
+        inserted.clear();
+        updated.clear();
+        removed.clear();
+    }
+
+    /**
+     * 整个历史被清空过，此时inserted只包含清空之后写入的记录
+     */
+    public boolean isCleared() {
+        return cleared;
+    }
+
+    public Collection<DownloadItem> getInserted() {
+        return Collections.unmodifiableCollection(inserted.values());
+    }
+
+    public Collection<DownloadItem> getUpdated() {
+        return Collections.unmodifiableCollection(updated.values());
+    }
+
+    public Set<String> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    public boolean isEmpty() {
+        return !cleared && inserted.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryChange{cleared=" + cleared + ", inserted=" + inserted.keySet()
+                + ", updated=" + updated.keySet() + ", removed=" + removed + "}";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.alootcold.youtubedownloader.util;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按保留策略压缩下载历史，在HistoryWriter的写入线程中、与其他修改在同一事务中执行
+ * 依次处理：合并过时的失败记录、删除过期的失败记录、删除过期记录、删除超出条数的最旧记录、
+ * 删除最旧的记录直到占用空间低于上限
+ */
+final class HistoryCompactor {
+    private static final String TAG = "HistoryCompactor";
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private static final String ID = HistoryDatabase.COLUMN_ID;
+    private static final String VIDEO_ID = HistoryDatabase.COLUMN_VIDEO_ID;
+    private static final String FORMAT = HistoryDatabase.COLUMN_FORMAT;
+    private static final String COMPLETED = HistoryDatabase.COLUMN_COMPLETED;
+    private static final String DATE = HistoryDatabase.COLUMN_DOWNLOAD_DATE;
+    private static final String TABLE = HistoryDatabase.TABLE_HISTORY;
+
+    // 每次失败都会写入一条记录。同一视频之后又有记录（重试或重新下载），或同一格式已经下载成功时，
+    // 这条失败记录已经过时，只保留最终结果。没有视频ID的记录无法可靠地归为同一视频，不合并
+    private static final String SELECT_OBSOLETE_FAILURES = "SELECT f.rowid, f." + ID + " FROM " + TABLE + " f"
+            + " WHERE f." + COMPLETED + " = 0 AND f." + VIDEO_ID + " IS NOT NULL"
+            + " AND EXISTS (SELECT 1 FROM " + TABLE + " o WHERE o." + VIDEO_ID + " = f." + VIDEO_ID
+            + " AND o.rowid != f.rowid"
+            + " AND (o." + DATE + " > f." + DATE
+            + " OR (o." + DATE + " = f." + DATE + " AND o.rowid > f.rowid)"
+            + " OR (o." + COMPLETED + " = 1 AND o." + FORMAT + " IS f." + FORMAT + ")))";
+    private static final String SELECT_EXPIRED_FAILURES = "SELECT rowid, " + ID + " FROM " + TABLE
+            + " WHERE " + COMPLETED + " = 0 AND " + DATE + " < ?";
+    private static final String SELECT_EXPIRED = "SELECT rowid, " + ID + " FROM " + TABLE + " WHERE " + DATE + " < ?";
+    private static final String SELECT_NEWEST_FIRST = "SELECT rowid, " + ID + " FROM " + TABLE
+            + " ORDER BY " + HistoryDatabase.ORDER_NEWEST_FIRST;
+    private static final String SELECT_OLDEST_FIRST = "SELECT rowid, " + ID
+            + ", LENGTH(CAST(" + HistoryDatabase.COLUMN_DATA + " AS BLOB)) FROM " + TABLE
+            + " ORDER BY " + DATE + " ASC, rowid ASC";
+
+    private HistoryCompactor() {
+    }
+
+    /**
+     * 在调用方的事务中删除不需要保留的记录
+     *
+     * @return 被删除记录的ID
+     */
+    static List<String> compact(SQLiteDatabase db, HistoryRetention retention, long now) {
+        long start = System.currentTimeMillis();
+        List<String> removed = new ArrayList<>();
+        int merged = delete(db, SELECT_OBSOLETE_FAILURES, null, removed);
+        int failed = 0;
+        if (retention.getFailedMaxAgeDays() > 0) {
+            failed = delete(db, SELECT_EXPIRED_FAILURES,
+                    new String[]{String.valueOf(now - retention.getFailedMaxAgeDays() * DAY_MS)}, removed);
+        }
+        int expired = 0;
+        if (retention.getMaxAgeDays() > 0) {
+            expired = delete(db, SELECT_EXPIRED,
+                    new String[]{String.valueOf(now - retention.getMaxAgeDays() * DAY_MS)}, removed);
+        }
+        int overflow = 0;
+        if (retention.getMaxItems() > 0) {
+            overflow = delete(db, SELECT_NEWEST_FIRST + " LIMIT -1 OFFSET " + retention.getMaxItems(), null, removed);
+        }
+        int oversized = 0;
+        if (retention.getMaxMegabytes() > 0) {
+            oversized = trimToSize(db, retention.getMaxMegabytes() * 1024L * 1024L, removed);
+        }
+        Log.d(TAG, "Compacted history in " + (System.currentTimeMillis() - start) + "ms: merged " + merged
+                + " failures, expired " + failed + " failures and " + expired + " items, dropped "
+                + overflow + " over count and " + oversized + " over size");
+        return removed;
+    }
+
+    /**
+     * 新建的数据库启用了增量自动清理，提交后把删除记录空出的页还给文件系统；
+     * 旧数据库没有启用时什么都不做，空出的页留给之后的写入复用
+     */
+    static void releaseFreePages(SQLiteDatabase db) {
+        // 每执行一步释放一页，用游标把语句执行完
+        try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null)) {
+            cursor.getCount();
+        }
+    }
+
+    /**
+     * 先读出要删除的行再逐行删除，不在遍历游标时修改同一张表
+     */
+    private static int delete(SQLiteDatabase db, String sql, String[] args, List<String> removed) {
+        List<Long> rowIds = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                rowIds.add(cursor.getLong(0));
+                removed.add(cursor.getString(1));
+            }
+        }
+        for (long rowId : rowIds) {
+            HistoryDatabase.deleteRowId(db, rowId);
+        }
+        return rowIds.size();
+    }
+
+    /**
+     * 数据库实际使用的页超过上限时，按超出的比例从最旧的记录开始删除。
+     * 索引和其他列的大小与data列大致成比例，按data列的字节数估算每条记录占用的空间；
+     * data列保存DownloadItemCodec编码后的二进制数据，升级前未转换的旧记录是JSON
+     */
+    private static int trimToSize(SQLiteDatabase db, long maxBytes, List<String> removed) {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long usedPages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long usedBytes = usedPages * pageSize;
+        if (usedBytes <= maxBytes) {
+            return 0;
+        }
+        long dataBytes = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(SUM(LENGTH(CAST(" + HistoryDatabase.COLUMN_DATA + " AS BLOB))), 0) FROM " + TABLE, null);
+        long excess = dataBytes * (usedBytes - maxBytes) / usedBytes;
+        List<Long> rowIds = new ArrayList<>();
+        long freed = 0;
+        try (Cursor cursor = db.rawQuery(SELECT_OLDEST_FIRST, null)) {
+            while (freed < excess && cursor.moveToNext()) {
+                rowIds.add(cursor.getLong(0));
+                removed.add(cursor.getString(1));
+                freed += cursor.getLong(2);
+            }
+        }
+        for (long rowId : rowIds) {
+            HistoryDatabase.deleteRowId(db, rowId);
+        }
+        Log.d(TAG, "History uses " + usedBytes + " bytes, limit " + maxBytes + ", freed ~" + freed + " bytes of data");
+        return rowIds.size();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,559 @@
+package com.alootcold.youtubedownloader.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.alootcold.youtubedownloader.model.DownloadItemCodec;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载历史的SQLite存储：每条记录一行，按ID读写单行，不再每次读写整个JSON
+ * ID是主键，下载日期和状态建了索引，按时间排序和按状态过滤都不需要全表扫描。
+ * 可查询的字段单独成列，完整的DownloadItem以DownloadItemCodec的二进制编码保存在data列
+ * （版本4及以前写入的是JSON，升级时转换）。写入统一经过HistoryWriter。
+ * 标题、URL、频道和格式另有一张FTS4全文索引表，随每次写入在同一事务中增量更新。
+ * 列表深处的分页通过HistoryPositions的稀疏位置索引定位，不用OFFSET从头跳过
+ */
+public final class HistoryDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "HistoryDatabase";
+    private static final String DATABASE_NAME = "download_history.db";
+    private static final int DATABASE_VERSION = 6;
+
+    static final String TABLE_HISTORY = "history";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_VIDEO_ID = "video_id";
+    static final String COLUMN_URL = "url";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_CHANNEL = "channel";
+    static final String COLUMN_FORMAT = "format";
+    static final String COLUMN_STATUS = "status";
+    static final String COLUMN_COMPLETED = "completed";
+    static final String COLUMN_DOWNLOAD_DATE = "download_date";
+    static final String COLUMN_DATA = "data";
+    // 全文索引表，docid与history表的rowid对应
+    private static final String TABLE_SEARCH = "history_search";
+
+    // 还没拿到视频信息就结束的任务，历史列表中不显示
+    private static final String PENDING_TITLE = "正在获取视频信息...";
+    private static final String SELECTION_COMPLETED = COLUMN_COMPLETED + " = 1 AND " + COLUMN_TITLE + " != ?";
+
+    // 新记录排在前面，同一时间的记录按插入顺序倒序
+    static final String ORDER_NEWEST_FIRST = COLUMN_DOWNLOAD_DATE + " DESC, rowid DESC";
+    // 升级时转换数据格式每批读取的行数
+    private static final int ENCODE_BATCH_SIZE = 200;
+    // 从锚点开始（包含锚点）按新到旧的顺序读取，与ORDER_NEWEST_FIRST一致。
+    // API 24的SQLite不支持行值比较，拆成日期范围加同一日期时的rowid条件，日期范围可以走索引
+    private static final String SELECTION_FROM_ANCHOR = COLUMN_DOWNLOAD_DATE + " <= ? AND ("
+            + COLUMN_DOWNLOAD_DATE + " < ? OR rowid <= ?)";
+    // 读取时使用内存映射的上限，系统编译的SQLite可能限制得更小
+    private static final long MMAP_SIZE_BYTES = 64L * 1024 * 1024;
+    // 缓存的位置索引个数：历史页面、下载历史页面和最近的搜索
+    private static final int MAX_CACHED_POSITIONS = 4;
+    private static final String SELECTION_SEARCH = "rowid IN (SELECT docid FROM " + TABLE_SEARCH
+            + " WHERE " + TABLE_SEARCH + " MATCH ?)";
+
+    private static HistoryDatabase instance;
+
+    // 只用于读取版本4及以前写入的JSON
+    private final Gson gson = new Gson();
+    // 每次提交写入后加一，用于判断缓存的位置索引是否过时
+    private final AtomicLong commitVersion = new AtomicLong();
+    // 筛选条件 -> 位置索引，按访问顺序淘汰
+    private final Map<String, HistoryPositions> positions = new LinkedHashMap<String, HistoryPositions>(
+            MAX_CACHED_POSITIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HistoryPositions> eldest) {
+            return size() > MAX_CACHED_POSITIONS;
+        }
+    };
+
+    private HistoryDatabase(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static synchronized HistoryDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new HistoryDatabase(context);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // 只对新建的数据库生效，压缩历史后可以把空出的页还给文件系统。旧数据库需要VACUUM才能切换，
+        // 而VACUUM可能改变history表的rowid，破坏全文索引的docid对应关系，所以不做
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        // 读取直接访问映射的文件页，不用每页都经过read系统调用复制。设置后返回实际生效的大小
+        try (Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + MMAP_SIZE_BYTES, null)) {
+            if (cursor.moveToFirst()) {
+                Log.d(TAG, "History database mmap size: " + cursor.getLong(0));
+            }
+        }
+        // WAL模式下读不阻塞写，历史列表加载时下载完成的写入不用排队
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_HISTORY + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_VIDEO_ID + " TEXT, "
+                + COLUMN_URL + " TEXT, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_CHANNEL + " TEXT, "
+                + COLUMN_FORMAT + " TEXT, "
+                + COLUMN_STATUS + " TEXT, "
+                + COLUMN_COMPLETED + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DOWNLOAD_DATE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DATA + " TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX idx_history_date ON " + TABLE_HISTORY + " (" + COLUMN_DOWNLOAD_DATE + ")");
+        db.execSQL("CREATE INDEX idx_history_status ON " + TABLE_HISTORY
+                + " (" + COLUMN_STATUS + ", " + COLUMN_DOWNLOAD_DATE + ")");
+        createCompletedIndex(db);
+        createVideoIndex(db);
+        createSearchTable(db);
+        DownloadStats.createTables(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createCompletedIndex(db);
+        }
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN " + COLUMN_CHANNEL + " TEXT");
+            createSearchTable(db);
+            rebuildSearchIndex(db);
+        }
+        if (oldVersion < 4) {
+            createVideoIndex(db);
+        }
+        if (oldVersion < 5) {
+            encodeJsonRows(db);
+        }
+        if (oldVersion < 6) {
+            DownloadStats.createTables(db);
+            backfillStats(db);
+        }
+    }
+
+    /**
+     * 用已有的历史记录初始化下载统计。旧记录没有文件大小，只能统计次数和阶段耗时；
+     * 已被保留策略删除的记录不会计入
+     */
+    private void backfillStats(SQLiteDatabase db) {
+        long start = System.currentTimeMillis();
+        int added = 0;
+        try (Cursor cursor = db.query(TABLE_HISTORY, new String[]{COLUMN_DATA}, null, null, null, null, "rowid")) {
+            while (cursor.moveToNext()) {
+                DownloadItem item = fromRow(cursor, 0);
+                if (item != null) {
+                    DownloadStats.add(db, new DownloadStats.Sample(item, item.isCompleted(), item.getDownloadDate()));
+                    added++;
+                }
+            }
+        }
+        Log.d(TAG, "Backfilled download stats from " + added + " history items in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 把JSON格式的data转换为二进制编码，按rowid分批读取，不会一次把全部记录放进内存；
+     * 无法解析的记录保持原样，读取时同样会被跳过
+     */
+    private void encodeJsonRows(SQLiteDatabase db) {
+        long start = System.currentTimeMillis();
+        int encoded = 0;
+        long lastRowId = -1;
+        while (true) {
+            List<Long> rowIds = new ArrayList<>();
+            List<String> jsons = new ArrayList<>();
+            try (Cursor cursor = db.query(TABLE_HISTORY, new String[]{"rowid", COLUMN_DATA},
+                    "typeof(" + COLUMN_DATA + ") = 'text' AND rowid > ?", new String[]{String.valueOf(lastRowId)},
+                    null, null, "rowid", String.valueOf(ENCODE_BATCH_SIZE))) {
+                while (cursor.moveToNext()) {
+                    rowIds.add(cursor.getLong(0));
+                    jsons.add(cursor.getString(1));
+                }
+            }
+            if (rowIds.isEmpty()) {
+                break;
+            }
+            for (int i = 0; i < rowIds.size(); i++) {
+                DownloadItem item = fromJson(jsons.get(i));
+                if (item != null) {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_DATA, DownloadItemCodec.encode(item));
+                    db.update(TABLE_HISTORY, values, "rowid = ?", new String[]{String.valueOf(rowIds.get(i))});
+                    encoded++;
+                }
+            }
+            lastRowId = rowIds.get(rowIds.size() - 1);
+        }
+        Log.d(TAG, "Encoded " + encoded + " history items in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 写入的是HistorySearch生成的二元组，不是原文，用simple分词器按空格切分即可
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts4("
+                + COLUMN_TITLE + ", " + COLUMN_URL + ", " + COLUMN_CHANNEL + ", " + COLUMN_FORMAT + ")");
+    }
+
+    /**
+     * 升级时为已有记录建立索引，逐行读取，不会一次把全部记录放进内存
+     */
+    private static void rebuildSearchIndex(SQLiteDatabase db) {
+        long start = System.currentTimeMillis();
+        int indexed = 0;
+        try (Cursor cursor = db.query(TABLE_HISTORY, new String[]{"rowid", COLUMN_TITLE, COLUMN_URL, COLUMN_FORMAT},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_TITLE, cursor.getString(1));
+                values.put(COLUMN_URL, cursor.getString(2));
+                values.put(COLUMN_FORMAT, cursor.getString(3));
+                index(db, cursor.getLong(0), values);
+                indexed++;
+            }
+        }
+        Log.d(TAG, "Indexed " + indexed + " history items in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 历史列表只显示已完成的记录并按时间分页，这个索引让分页查询不用跳过失败的记录
+     */
+    private static void createCompletedIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_history_completed ON " + TABLE_HISTORY
+                + " (" + COLUMN_COMPLETED + ", " + COLUMN_DOWNLOAD_DATE + ")");
+    }
+
+    /**
+     * 压缩历史时按视频查找同一视频的其他记录，合并过时的失败记录
+     */
+    private static void createVideoIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_history_video ON " + TABLE_HISTORY
+                + " (" + COLUMN_VIDEO_ID + ", " + COLUMN_DOWNLOAD_DATE + ")");
+    }
+
+    /**
+     * 按时间倒序读取全部历史记录
+     */
+    public List<DownloadItem> getAll() {
+        List<DownloadItem> items = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_HISTORY, new String[]{COLUMN_DATA},
+                null, null, null, null, ORDER_NEWEST_FIRST)) {
+            while (cursor.moveToNext()) {
+                DownloadItem item = fromRow(cursor, 0);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 按ID读取单条记录，不存在时返回null
+     */
+    public DownloadItem get(String id) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_HISTORY, new String[]{COLUMN_DATA},
+                COLUMN_ID + " = ?", new String[]{id}, null, null, null)) {
+            return cursor.moveToFirst() ? fromRow(cursor, 0) : null;
+        }
+    }
+
+    /**
+     * 按时间倒序读取一页记录
+     *
+     * @param completedOnly 只读取已完成的记录
+     * @param query         搜索词，为空时不过滤
+     */
+    public List<DownloadItem> getPage(boolean completedOnly, String query, int offset, int limit) {
+        List<DownloadItem> items = new ArrayList<>(limit);
+        if (isUnsearchable(query)) {
+            return items;
+        }
+        SQLiteDatabase db = getReadableDatabase();
+        List<String> args = new ArrayList<>();
+        String selection = selection(completedOnly, query, args);
+        int skip = offset;
+        if (offset >= HistoryPositions.STRIDE) {
+            HistoryPositions index = positions(db, completedOnly, query, selection, args);
+            if (offset >= index.getCount()) {
+                return items;
+            }
+            selection = selection != null ? selection + " AND " + SELECTION_FROM_ANCHOR : SELECTION_FROM_ANCHOR;
+            String anchorDate = String.valueOf(index.anchorDate(offset));
+            args.add(anchorDate);
+            args.add(anchorDate);
+            args.add(String.valueOf(index.anchorRowId(offset)));
+            skip = offset % HistoryPositions.STRIDE;
+        }
+        try (Cursor cursor = db.query(TABLE_HISTORY, new String[]{COLUMN_DATA},
+                selection, args.isEmpty() ? null : args.toArray(new String[0]),
+                null, null, ORDER_NEWEST_FIRST, skip + "," + limit)) {
+            while (cursor.moveToNext()) {
+                DownloadItem item = fromRow(cursor, 0);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    public int count(boolean completedOnly, String query) {
+        if (isUnsearchable(query)) {
+            return 0;
+        }
+        HistoryPositions index = cachedPositions(positionsKey(completedOnly, query));
+        if (index != null) {
+            return index.getCount();
+        }
+        List<String> args = new ArrayList<>();
+        String selection = selection(completedOnly, query, args);
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_HISTORY,
+                selection, args.isEmpty() ? null : args.toArray(new String[0]));
+    }
+
+    /**
+     * 写入提交后调用，之前建立的位置索引全部失效
+     */
+    void onCommitted() {
+        commitVersion.incrementAndGet();
+    }
+
+    private HistoryPositions positions(SQLiteDatabase db, boolean completedOnly, String query,
+                                       String selection, List<String> args) {
+        String key = positionsKey(completedOnly, query);
+        HistoryPositions index = cachedPositions(key);
+        if (index == null) {
+            long start = System.currentTimeMillis();
+            index = HistoryPositions.build(db, selection, args.isEmpty() ? null : args.toArray(new String[0]),
+                    commitVersion.get());
+            synchronized (positions) {
+                positions.put(key, index);
+            }
+            Log.d(TAG, "Indexed positions of " + index.getCount() + " history items in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+        return index;
+    }
+
+    /**
+     * 没有缓存或已经过时时返回null
+     */
+    private HistoryPositions cachedPositions(String key) {
+        synchronized (positions) {
+            HistoryPositions index = positions.get(key);
+            return index != null && index.getVersion() == commitVersion.get() ? index : null;
+        }
+    }
+
+    private static String positionsKey(boolean completedOnly, String query) {
+        String match = HistorySearch.matchQuery(query);
+        return completedOnly + "|" + (match != null ? match : "");
+    }
+
+    /**
+     * 与SELECTION_COMPLETED相同的条件，用于在内存中判断单条记录
+     */
+    static boolean matches(DownloadItem item, boolean completedOnly) {
+        return !completedOnly || (item.isCompleted() && !PENDING_TITLE.equals(item.getTitle()));
+    }
+
+    /**
+     * 搜索词只有标点等不可搜索的字符时没有结果
+     */
+    private static boolean isUnsearchable(String query) {
+        return query != null && !query.trim().isEmpty() && HistorySearch.matchQuery(query) == null;
+    }
+
+    /**
+     * 组合筛选条件，没有条件时返回null
+     */
+    private static String selection(boolean completedOnly, String query, List<String> args) {
+        StringBuilder selection = new StringBuilder();
+        String match = HistorySearch.matchQuery(query);
+        if (match != null) {
+            selection.append(SELECTION_SEARCH);
+            args.add(match);
+        }
+        if (completedOnly) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(SELECTION_COMPLETED);
+            args.add(PENDING_TITLE);
+        }
+        return selection.length() > 0 ? selection.toString() : null;
+    }
+
+    /**
+     * 插入或更新一行，同时更新全文索引，在调用方的事务中执行
+     *
+     * @return 记录原来是否已存在
+     */
+    boolean upsert(SQLiteDatabase db, ContentValues values) {
+        String id = values.getAsString(COLUMN_ID);
+        long rowId = db.insertWithOnConflict(TABLE_HISTORY, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        boolean existed = rowId == -1;
+        if (existed) {
+            db.update(TABLE_HISTORY, values, COLUMN_ID + " = ?", new String[]{id});
+            rowId = rowIdOf(db, id);
+        }
+        if (rowId != -1) {
+            index(db, rowId, values);
+        }
+        return existed;
+    }
+
+    /**
+     * 删除一行及其索引
+     *
+     * @return 记录是否存在
+     */
+    boolean deleteRow(SQLiteDatabase db, String id) {
+        long rowId = rowIdOf(db, id);
+        if (rowId == -1) {
+            return false;
+        }
+        db.delete(TABLE_SEARCH, "docid = ?", new String[]{String.valueOf(rowId)});
+        return db.delete(TABLE_HISTORY, COLUMN_ID + " = ?", new String[]{id}) > 0;
+    }
+
+    void deleteAll(SQLiteDatabase db) {
+        db.delete(TABLE_SEARCH, null, null);
+        db.delete(TABLE_HISTORY, null, null);
+    }
+
+    /**
+     * 按rowid删除一行及其索引，用于按保留策略批量删除
+     */
+    static void deleteRowId(SQLiteDatabase db, long rowId) {
+        String[] args = {String.valueOf(rowId)};
+        db.delete(TABLE_SEARCH, "docid = ?", args);
+        db.delete(TABLE_HISTORY, "rowid = ?", args);
+    }
+
+    private static long rowIdOf(SQLiteDatabase db, String id) {
+        try (Cursor cursor = db.query(TABLE_HISTORY, new String[]{"rowid"}, COLUMN_ID + " = ?", new String[]{id},
+                null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    private static void index(SQLiteDatabase db, long rowId, ContentValues values) {
+        db.delete(TABLE_SEARCH, "docid = ?", new String[]{String.valueOf(rowId)});
+        ContentValues grams = new ContentValues();
+        grams.put("docid", rowId);
+        grams.put(COLUMN_TITLE, HistorySearch.grams(values.getAsString(COLUMN_TITLE)));
+        grams.put(COLUMN_URL, HistorySearch.grams(values.getAsString(COLUMN_URL)));
+        grams.put(COLUMN_CHANNEL, HistorySearch.grams(values.getAsString(COLUMN_CHANNEL)));
+        grams.put(COLUMN_FORMAT, HistorySearch.grams(values.getAsString(COLUMN_FORMAT)));
+        db.insert(TABLE_SEARCH, null, grams);
+    }
+
+    /**
+     * 一次性迁移旧版保存在SharedPreferences中的整段JSON历史
+     * 用流式读取逐条解析、在同一个事务中插入，不会同时在内存中构造整个列表；
+     * 完成后删除旧数据，之后再调用直接返回
+     *
+     * @return 迁移的记录数
+     */
+    synchronized int migrateLegacyHistory(LegacyHistoryReader legacy) {
+        if (!legacy.exists()) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        int[] migrated = {0};
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            legacy.forEach(item -> {
+                if (item.getDownloadDate() == 0) {
+                    // 旧列表按新到旧排列，没有日期的记录用递减的时间保持原来的顺序
+                    item.setDownloadDate(now - migrated[0]);
+                }
+                // 旧列表中同一ID只会出现一次，且靠前的更新，已存在时保留先写入的
+                ContentValues values = toValues(item);
+                long rowId = db.insertWithOnConflict(TABLE_HISTORY, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                if (rowId != -1) {
+                    index(db, rowId, values);
+                }
+                migrated[0]++;
+                return true;
+            });
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            // 旧数据损坏时保留已解析出的记录，不再重试，避免每次打开历史都解析失败
+            Log.e(TAG, "Keeping " + migrated[0] + " items from corrupt legacy history", e);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        onCommitted();
+        legacy.delete();
+        Log.d(TAG, "Migrated " + migrated[0] + " legacy history items in " + (System.currentTimeMillis() - start) + "ms");
+        return migrated[0];
+    }
+
+    ContentValues toValues(DownloadItem item) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, item.getId());
+        values.put(COLUMN_VIDEO_ID, item.getVideoId());
+        values.put(COLUMN_URL, item.getUrl());
+        values.put(COLUMN_TITLE, item.getTitle());
+        values.put(COLUMN_CHANNEL, item.getChannel());
+        values.put(COLUMN_FORMAT, item.getFormat());
+        values.put(COLUMN_STATUS, item.getStatus());
+        values.put(COLUMN_COMPLETED, item.isCompleted() ? 1 : 0);
+        values.put(COLUMN_DOWNLOAD_DATE, item.getDownloadDate());
+        values.put(COLUMN_DATA, DownloadItemCodec.encode(item));
+        return values;
+    }
+
+    /**
+     * 读取data列：新记录是二进制编码，旧版本写入的是JSON
+     */
+    DownloadItem fromRow(Cursor cursor, int column) {
+        if (cursor.getType(column) == Cursor.FIELD_TYPE_BLOB) {
+            return decode(cursor.getBlob(column));
+        }
+        return fromJson(cursor.getString(column));
+    }
+
+    DownloadItem decode(byte[] data) {
+        try {
+            return DownloadItemCodec.decode(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Skipping unreadable history row", e);
+            return null;
+        }
+    }
+
+    private DownloadItem fromJson(String json) {
+        try {
+            return gson.fromJson(json, DownloadItem.class);
+        } catch (Exception e) {
+            Log.e(TAG, "Skipping unreadable history row", e);
+            return null;
+        }
+    }
+}
\ No newline at end of file
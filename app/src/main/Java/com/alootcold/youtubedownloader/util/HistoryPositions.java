@@ -0,0 +1,75 @@
+package com.alootcold.youtubedownloader.util;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Arrays;
+
+/**
+ * 历史列表的稀疏位置索引：按列表顺序每隔STRIDE条记录一次排序键（下载日期和rowid）
+ * 用OFFSET分页时SQLite要从头逐条跳过前面的记录，10万条时翻到列表深处的一页需要几到二十几毫秒；
+ * 从最近的锚点开始按排序键范围查询，最多只跳过STRIDE条。
+ * 锚点只在内存中，带着建立时的提交版本，数据库之后的任何提交都会让它失效
+ */
+final class HistoryPositions {
+    static final int STRIDE = 512;
+
+    private final long version;
+    private final int count;
+    private final long[] dates;
+    private final long[] rowIds;
+
+    private HistoryPositions(long version, int count, long[] dates, long[] rowIds) {
+        this.version = version;
+        this.count = count;
+        this.dates = dates;
+        this.rowIds = rowIds;
+    }
+
+    /**
+     * 按列表顺序扫描一次排序键，只读索引中的日期和rowid，不读取记录内容
+     *
+     * @param version 开始扫描前读取的提交版本，扫描期间有新提交时下次使用会重建
+     */
+    static HistoryPositions build(SQLiteDatabase db, String selection, String[] args, long version) {
+        long[] dates = new long[16];
+        long[] rowIds = new long[16];
+        int count = 0;
+        try (Cursor cursor = db.query(HistoryDatabase.TABLE_HISTORY,
+                new String[]{HistoryDatabase.COLUMN_DOWNLOAD_DATE, "rowid"}, selection, args,
+                null, null, HistoryDatabase.ORDER_NEWEST_FIRST)) {
+            while (cursor.moveToNext()) {
+                if (count % STRIDE == 0) {
+                    int anchor = count / STRIDE;
+                    if (anchor == dates.length) {
+                        dates = Arrays.copyOf(dates, anchor * 2);
+                        rowIds = Arrays.copyOf(rowIds, anchor * 2);
+                    }
+                    dates[anchor] = cursor.getLong(0);
+                    rowIds[anchor] = cursor.getLong(1);
+                }
+                count++;
+            }
+        }
+        return new HistoryPositions(version, count, dates, rowIds);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * 不晚于offset的最近一个锚点的排序键，从这里开始还要跳过offset % STRIDE条
+     */
+    long anchorDate(int offset) {
+        return dates[offset / STRIDE];
+    }
+
+    long anchorRowId(int offset) {
+        return rowIds[offset / STRIDE];
+    }
+}
\ No newline at end of file
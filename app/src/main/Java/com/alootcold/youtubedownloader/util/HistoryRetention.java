@@ -0,0 +1,51 @@
+package com.alootcold.youtubedownloader.util;
+
+/**
+ * 下载历史的保留策略，各项为0表示不限制
+ */
+public final class HistoryRetention {
+    public static final int DEFAULT_MAX_ITEMS = 5000;
+    public static final int DEFAULT_MAX_AGE_DAYS = 0;
+    public static final int DEFAULT_FAILED_MAX_AGE_DAYS = 30;
+    public static final int DEFAULT_MAX_MEGABYTES = 32;
+
+    private final int maxItems;
+    private final int maxAgeDays;
+    private final int failedMaxAgeDays;
+    private final int maxMegabytes;
+
+    /**
+     * @param maxItems         最多保留的记录数，超出时删除最旧的
+     * @param maxAgeDays       记录保留的天数
+     * @param failedMaxAgeDays 失败记录保留的天数
+     * @param maxMegabytes     历史数据库占用空间的上限，超出时删除最旧的记录
+     */
+    public HistoryRetention(int maxItems, int maxAgeDays, int failedMaxAgeDays, int maxMegabytes) {
+        this.maxItems = Math.max(0, maxItems);
+        this.maxAgeDays = Math.max(0, maxAgeDays);
+        this.failedMaxAgeDays = Math.max(0, failedMaxAgeDays);
+        this.maxMegabytes = Math.max(0, maxMegabytes);
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    public int getMaxAgeDays() {
+        return maxAgeDays;
+    }
+
+    public int getFailedMaxAgeDays() {
+        return failedMaxAgeDays;
+    }
+
+    public int getMaxMegabytes() {
+        return maxMegabytes;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryRetention{maxItems=" + maxItems + ", maxAgeDays=" + maxAgeDays
+                + ", failedMaxAgeDays=" + failedMaxAgeDays + ", maxMegabytes=" + maxMegabytes + "}";
+    }
+}
\ No newline at end of file
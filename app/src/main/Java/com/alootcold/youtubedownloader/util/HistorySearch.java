@@ -0,0 +1,107 @@
+package com.alootcold.youtubedownloader.util;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+
+import java.util.Locale;
+
+/**
+ * 历史搜索的分词规则
+ * FTS的分词器只支持按词前缀查询，中文标题整句是一个词，无法查子串。这里把每个字段规范化
+ * （转小写，只保留字母和数字）后拆成相邻两个字符的二元组写入索引，查询子串时用二元组组成的短语匹配，
+ * 这样任意位置的子串都能走索引；字段的最后一个字符单独作为一个词，单个字符的查询用前缀匹配
+ */
+public final class HistorySearch {
+
+    private HistorySearch() {
+    }
+
+    /**
+     * 生成写入全文索引的词序列
+     */
+    static String grams(String text) {
+        String normalized = normalize(text);
+        if (normalized.isEmpty()) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(normalized.length() * 3);
+        int[] codePoints = normalized.codePoints().toArray();
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            builder.appendCodePoint(codePoints[i]).appendCodePoint(codePoints[i + 1]).append(' ');
+        }
+        builder.appendCodePoint(codePoints[codePoints.length - 1]);
+        return builder.toString();
+    }
+
+    /**
+     * 把用户输入转换为FTS的MATCH表达式：空格分隔的每个词都必须出现（子串匹配）
+     *
+     * @return 没有可搜索的字符时返回null
+     */
+    static String matchQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String term : query.trim().split("\\s+")) {
+            String normalized = normalize(term);
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            int[] codePoints = normalized.codePoints().toArray();
+            if (codePoints.length == 1) {
+                builder.append(normalized).append('*');
+                continue;
+            }
+            builder.append('"');
+            for (int i = 0; i + 1 < codePoints.length; i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                builder.appendCodePoint(codePoints[i]).appendCodePoint(codePoints[i + 1]);
+            }
+            builder.append('"');
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+    /**
+     * 与索引查询相同的规则在内存中判断单条记录，用于判断新写入的记录是否属于当前搜索结果
+     */
+    public static boolean matches(DownloadItem item, String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return true;
+        }
+        String[] fields = {normalize(item.getTitle()), normalize(item.getUrl()),
+                normalize(item.getChannel()), normalize(item.getFormat())};
+        for (String term : query.trim().split("\\s+")) {
+            String normalized = normalize(term);
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            boolean found = false;
+            for (String field : fields) {
+                if (field.contains(normalized)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder builder = new StringBuilder(lower.length());
+        lower.codePoints().filter(Character::isLetterOrDigit).forEach(builder::appendCodePoint);
+        return builder.toString();
+    }
+}
\ No newline at end of file
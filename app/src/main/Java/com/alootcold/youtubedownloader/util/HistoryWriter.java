@@ -0,0 +1,209 @@
+package com.alootcold.youtubedownloader.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * 下载历史的专用写入线程
+ * 调用方只把修改放进队列，不在自己的线程（包括主线程）上读写数据库；
+ * 写入线程收到第一条修改后再等一小段时间，把同一批到达的修改（例如播放列表同时完成的几十个任务）
+ * 合并到一个事务中提交。需要知道写入何时完成的调用方可以等待返回的Future，
+ * 需要跟踪历史变化的界面订阅changes()，只处理新增、更新和删除的记录。按保留策略压缩历史也在这个线程中执行
+ */
+public final class HistoryWriter {
+    private static final String TAG = "HistoryWriter";
+    // 收到第一条修改后继续收集的时间窗口
+    private static final long COALESCE_WINDOW_MS = 150;
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static HistoryWriter instance;
+
+    private final HistoryDatabase database;
+    private final LinkedBlockingQueue<Mutation> queue = new LinkedBlockingQueue<>();
+    private final PublishSubject<HistoryChange> changes = PublishSubject.create();
+
+    /**
+     * 一条排队中的修改：values不为null时插入或替换，id不为null时删除，
+     * retention不为null时按保留策略压缩，都为null时清空
+     */
+    private static final class Mutation {
+        final ContentValues values;
+        final String id;
+        final HistoryRetention retention;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Mutation(ContentValues values, String id, HistoryRetention retention) {
+            this.values = values;
+            this.id = id;
+            this.retention = retention;
+        }
+    }
+
+    private HistoryWriter(HistoryDatabase database) {
+        this.database = database;
+        Thread thread = new Thread(this::run, "history-writer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    public static synchronized HistoryWriter getInstance(Context context) {
+        if (instance == null) {
+            instance = new HistoryWriter(HistoryDatabase.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * 插入或替换一条记录。记录内容在调用时就序列化，之后对item的修改不会影响这次写入
+     */
+    public Future<Void> put(DownloadItem item) {
+        return enqueue(new Mutation(database.toValues(item), null, null));
+    }
+
+    public Future<Void> putAll(List<DownloadItem> items) {
+        Future<Void> last = CompletableFuture.completedFuture(null);
+        for (DownloadItem item : items) {
+            last = put(item);
+        }
+        // 同一线程按顺序处理，最后一条完成时前面的都已提交
+        return last;
+    }
+
+    /**
+     * 每次提交后发布这次提交的净修改（在写入线程中发出），没有订阅者时不做额外的工作
+     */
+    public Observable<HistoryChange> changes() {
+        return changes.hide();
+    }
+
+    public Future<Void> delete(String id) {
+        return enqueue(new Mutation(null, id, null));
+    }
+
+    public Future<Void> clear() {
+        return enqueue(new Mutation(null, null, null));
+    }
+
+    /**
+     * 按保留策略删除旧记录，与其他修改一样排队执行，删除的记录通过changes()发布
+     */
+    public Future<Void> compact(HistoryRetention retention) {
+        return enqueue(new Mutation(null, null, retention));
+    }
+
+    private Future<Void> enqueue(Mutation mutation) {
+        queue.add(mutation);
+        return mutation.done;
+    }
+
+    private void run() {
+        List<Mutation> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.currentTimeMillis() + COALESCE_WINDOW_MS;
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    Mutation next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                // 已经取出的修改照常提交，不能丢掉
+                Log.w(TAG, "History writer interrupted, " + queue.size() + " writes pending");
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Mutation> batch) {
+        long start = System.currentTimeMillis();
+        boolean observed = changes.hasObservers();
+        HistoryChange change = new HistoryChange();
+        boolean compacted = false;
+        try {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Mutation mutation : batch) {
+                    if (mutation.values != null) {
+                        // 区分新增和更新，用于发布变化
+                        boolean existed = database.upsert(db, mutation.values);
+                        if (observed) {
+                            DownloadItem item = database.decode(
+                                    mutation.values.getAsByteArray(HistoryDatabase.COLUMN_DATA));
+                            if (item != null) {
+                                change.onPut(item, existed);
+                            }
+                        }
+                    } else if (mutation.retention != null) {
+                        for (String id : HistoryCompactor.compact(db, mutation.retention, System.currentTimeMillis())) {
+                            change.onDelete(id);
+                        }
+                        compacted = true;
+                    } else if (mutation.id != null) {
+                        if (database.deleteRow(db, mutation.id)) {
+                            change.onDelete(mutation.id);
+                        }
+                    } else {
+                        database.deleteAll(db);
+                        change.onClear();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            database.onCommitted();
+            if (compacted) {
+                releaseFreePages(db);
+            }
+            Log.d(TAG, "Wrote " + batch.size() + " history changes in " + (System.currentTimeMillis() - start) + "ms");
+            for (Mutation mutation : batch) {
+                mutation.done.complete(null);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error writing " + batch.size() + " history changes", e);
+            for (Mutation mutation : batch) {
+                mutation.done.completeExceptionally(e);
+            }
+            return;
+        }
+        if (observed && !change.isEmpty()) {
+            changes.onNext(change);
+        }
+    }
+
+    /**
+     * 释放空间失败不影响已提交的修改
+     */
+    private static void releaseFreePages(SQLiteDatabase db) {
+        try {
+            HistoryCompactor.releaseFreePages(db);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error releasing free history pages", e);
+        }
+    }
+}
\ No newline at end of file
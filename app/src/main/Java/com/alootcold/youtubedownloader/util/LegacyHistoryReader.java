@@ -0,0 +1,183 @@
+package com.alootcold.youtubedownloader.util;
+
+import android.content.SharedPreferences;
+
+import com.alootcold.youtubedownloader.model.DownloadItem;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * 流式读取旧版保存在SharedPreferences中的整段JSON历史
+ * 逐个记录解析，任何时候只构造当前需要的记录；读取一页时跳过的记录不会被解析成对象，
+ * 找到需要的记录后立即停止。不记录JSON内容，日志中只有记录数
+ */
+final class LegacyHistoryReader {
+
+    /**
+     * 逐条处理记录，返回false时停止读取
+     */
+    interface Visitor {
+        boolean visit(DownloadItem item);
+    }
+
+    private final SharedPreferences preferences;
+    private final String key;
+    private final Gson gson = new Gson();
+
+    LegacyHistoryReader(SharedPreferences preferences, String key) {
+        this.preferences = preferences;
+        this.key = key;
+    }
+
+    boolean exists() {
+        return preferences.contains(key);
+    }
+
+    /**
+     * 迁移完成后删除旧数据
+     */
+    void delete() {
+        preferences.edit().remove(key).apply();
+    }
+
+    /**
+     * 按原来的顺序（新到旧）逐条读取，记录损坏时抛出IOException，之前已处理的记录不受影响。
+     * visitor自己抛出的异常原样传出，不会被当作数据损坏
+     *
+     * @return 处理的记录数
+     */
+    int forEach(Visitor visitor) throws IOException {
+        try (JsonReader reader = open()) {
+            return reader != null ? forEach(reader, visitor) : 0;
+        }
+    }
+
+    /**
+     * 读取符合条件的记录中从offset开始的limit条，读够后立即停止。
+     * 没有条件时前面的记录只跳过不解析
+     *
+     * @param filter 为null时不过滤
+     */
+    List<DownloadItem> readPage(int offset, int limit, Predicate<DownloadItem> filter) throws IOException {
+        // limit可能是Integer.MAX_VALUE（读取全部），不能按它预分配
+        List<DownloadItem> items = new ArrayList<>(Math.min(limit, 64));
+        try (JsonReader reader = open()) {
+            if (reader == null) {
+                return items;
+            }
+            int[] skipped = {0};
+            if (filter == null) {
+                for (; skipped[0] < offset && reader.hasNext(); skipped[0]++) {
+                    reader.skipValue();
+                }
+            }
+            forEach(reader, item -> {
+                if (filter == null || filter.test(item)) {
+                    if (skipped[0] < offset) {
+                        skipped[0]++;
+                    } else {
+                        items.add(item);
+                    }
+                }
+                return items.size() < limit;
+            });
+        }
+        return items;
+    }
+
+    /**
+     * 符合条件的记录数，没有条件时只跳过不解析
+     */
+    int count(Predicate<DownloadItem> filter) throws IOException {
+        try (JsonReader reader = open()) {
+            if (reader == null) {
+                return 0;
+            }
+            int[] count = {0};
+            if (filter == null) {
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                    count[0]++;
+                }
+                return count[0];
+            }
+            forEach(reader, item -> {
+                if (filter.test(item)) {
+                    count[0]++;
+                }
+                return true;
+            });
+            return count[0];
+        }
+    }
+
+    private int forEach(JsonReader reader, Visitor visitor) throws IOException {
+        int visited = 0;
+        while (reader.hasNext()) {
+            DownloadItem item;
+            try {
+                item = gson.fromJson(reader, DownloadItem.class);
+            } catch (RuntimeException e) {
+                // Gson把格式错误包装成JsonSyntaxException，统一为IOException
+                throw new IOException("Legacy history is corrupt after " + visited + " items", e);
+            }
+            if (item == null || item.getId() == null) {
+                continue;
+            }
+            visited++;
+            if (!visitor.visit(item)) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * 按ID查找一条记录，其他记录只解析成树检查ID，不构造DownloadItem
+     */
+    DownloadItem findById(String id) throws IOException {
+        try (JsonReader reader = open()) {
+            if (reader == null) {
+                return null;
+            }
+            while (reader.hasNext()) {
+                JsonElement element = JsonParser.parseReader(reader);
+                if (element.isJsonObject()) {
+                    JsonElement itemId = element.getAsJsonObject().get("id");
+                    if (itemId != null && itemId.isJsonPrimitive() && id.equals(itemId.getAsString())) {
+                        return gson.fromJson(element, DownloadItem.class);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Legacy history is corrupt", e);
+        }
+        return null;
+    }
+
+    /**
+     * 打开读取器并进入数组，没有旧数据时返回null
+     */
+    private JsonReader open() throws IOException {
+        String json = preferences.getString(key, null);
+        if (json == null) {
+            return null;
+        }
+        JsonReader reader = new JsonReader(new StringReader(json));
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.close();
+            return null;
+        }
+        reader.beginArray();
+        return reader;
+    }
+}
\ No newline at end of file
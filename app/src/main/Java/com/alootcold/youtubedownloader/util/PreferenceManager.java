@@ -5,103 +5,296 @@ import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.alootcold.youtubedownloader.model.DownloadItem;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import io.reactivex.Observable;
 
 public class PreferenceManager {
     private static final String TAG = "PreferenceManager";
     private static final String PREF_NAME = "youtube_downloader_prefs";
+    // 旧版以整段JSON保存的历史，只用于迁移到HistoryDatabase
     private static final String KEY_DOWNLOAD_HISTORY = "download_history";
+    private static final String KEY_WARM_WORKER = "warm_ytdlp_worker";
+    private static final String KEY_CONCURRENT_FRAGMENTS = "concurrent_fragments";
+    private static final String KEY_BANDWIDTH_LIMIT = "bandwidth_limit_kbps";
+    private static final String KEY_NATIVE_ENGINE = "native_download_engine";
+    private static final String KEY_SUBTITLE_LANGUAGES = "subtitle_languages";
+    private static final String KEY_SUBTITLE_FORMAT = "subtitle_format";
+    private static final String KEY_HISTORY_MAX_ITEMS = "history_max_items";
+    private static final String KEY_HISTORY_MAX_AGE_DAYS = "history_max_age_days";
+    private static final String KEY_HISTORY_FAILED_MAX_AGE_DAYS = "history_failed_max_age_days";
+    private static final String KEY_HISTORY_MAX_MEGABYTES = "history_max_megabytes";
+    private static final String KEY_HISTORY_COMPACTED_AT = "history_compacted_at";
+    // 历史压缩的最小间隔
+    private static final long HISTORY_COMPACT_INTERVAL_MS = 24L * 60 * 60 * 1000;
+    private static final String DEFAULT_SUBTITLE_LANGUAGES = "zh-Hans,zh-Hant,en";
+    private static final String DEFAULT_SUBTITLE_FORMAT = "srt";
+
+    // 旧版历史只需要在进程内检查一次是否需要迁移
+    private static volatile boolean legacyHistoryChecked;
 
     private final SharedPreferences sharedPreferences;
-    private final Gson gson;
+    private final HistoryDatabase historyDatabase;
+    private final HistoryWriter historyWriter;
+    private final LegacyHistoryReader legacyHistory;
 
     public PreferenceManager(Context context) {
         sharedPreferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-        gson = new Gson();
+        historyDatabase = HistoryDatabase.getInstance(context);
+        historyWriter = HistoryWriter.getInstance(context);
+        legacyHistory = new LegacyHistoryReader(sharedPreferences, KEY_DOWNLOAD_HISTORY);
     }
 
-    public boolean saveDownloadHistory(List<DownloadItem> historyList) {
-        try {
-            if (historyList == null) {
-                Log.e(TAG, "Cannot save null history list");
-                return false;
-            }
-            
-            String json = gson.toJson(historyList);
-            Log.d(TAG, "Saving download history: " + historyList.size() + " items");
-            boolean success = sharedPreferences.edit().putString(KEY_DOWNLOAD_HISTORY, json).commit();
-            Log.d(TAG, "Save result: " + success);
-            return success;
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving download history", e);
-            return false;
+    /**
+     * 写入或更新多条历史记录，在写入线程中与同一批的其他修改一起提交
+     */
+    public Future<Void> saveDownloadHistory(List<DownloadItem> historyList) {
+        if (historyList == null) {
+            Log.e(TAG, "Cannot save null history list");
+            return CompletableFuture.completedFuture(null);
         }
+        Log.d(TAG, "Queued " + historyList.size() + " history items");
+        return historyWriter.putAll(historyList);
     }
 
     public List<DownloadItem> getDownloadHistory() {
         try {
-            String json = sharedPreferences.getString(KEY_DOWNLOAD_HISTORY, null);
-            Log.d(TAG, "Loading download history: " + json);
-            if (json == null) {
-                return new ArrayList<>();
-            }
-            Type type = new TypeToken<List<DownloadItem>>() {}.getType();
-            List<DownloadItem> historyList = gson.fromJson(json, type);
-            Log.d(TAG, "Loaded " + (historyList != null ? historyList.size() : 0) + " items");
-            return historyList != null ? historyList : new ArrayList<>();
+            List<DownloadItem> historyList = historyDatabase().getAll();
+            Log.d(TAG, "Loaded " + historyList.size() + " items");
+            return historyList;
         } catch (Exception e) {
             Log.e(TAG, "Error loading download history", e);
-            return new ArrayList<>();
+            return readLegacyPage(false, null, 0, Integer.MAX_VALUE);
         }
     }
 
-    public void addDownloadToHistory(DownloadItem item) {
+    /**
+     * 按ID读取一条历史记录，不存在时返回null
+     */
+    public DownloadItem getDownloadFromHistory(String id) {
         try {
-            if (item == null) {
-                Log.e(TAG, "Cannot add null item to history");
-                return;
-            }
-            
-            Log.d(TAG, "Adding item to history: " + item.getId() + " - " + item.getTitle());
-            
-            List<DownloadItem> historyList = getDownloadHistory();
-            // 检查是否已存在
-            boolean existed = false;
-            for (int i = 0; i < historyList.size(); i++) {
-                if (historyList.get(i).getId().equals(item.getId())) {
-                    historyList.remove(i);
-                    existed = true;
-                    Log.d(TAG, "Replacing existing item in history");
-                    break;
-                }
-            }
-            
-            // 确保下载日期已设置
-            if (item.getDownloadDate() == 0) {
-                item.setDownloadDate(System.currentTimeMillis());
+            return historyDatabase().get(id);
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading history item " + id, e);
+            try {
+                return legacyHistory.findById(id);
+            } catch (IOException legacyError) {
+                Log.e(TAG, "Error reading legacy history", legacyError);
+                return null;
             }
-            
-            // 添加到列表头部
-            historyList.add(0, item);
-            boolean saved = saveDownloadHistory(historyList);
-            Log.d(TAG, "Added item to history: " + item.getTitle() + ", saved: " + saved + 
-                  ", history size: " + historyList.size());
+        }
+    }
+
+    /**
+     * 按时间倒序读取一页历史记录，只会把这一页放进内存
+     *
+     * @param completedOnly 只读取已完成的记录
+     * @param query         搜索词（匹配标题、URL、频道和格式中的子串），为空时不过滤
+     */
+    public List<DownloadItem> getDownloadHistoryPage(boolean completedOnly, String query, int offset, int limit) {
+        try {
+            return historyDatabase().getPage(completedOnly, query, offset, limit);
         } catch (Exception e) {
-            Log.e(TAG, "Error adding download to history", e);
+            Log.e(TAG, "Error loading history page at " + offset, e);
+            return readLegacyPage(completedOnly, query, offset, limit);
         }
     }
 
-    public void clearDownloadHistory() {
+    public int getDownloadHistoryCount(boolean completedOnly, String query) {
         try {
-            boolean success = sharedPreferences.edit().remove(KEY_DOWNLOAD_HISTORY).commit();
-            Log.d(TAG, "Clear history result: " + success);
+            return historyDatabase().count(completedOnly, query);
         } catch (Exception e) {
-            Log.e(TAG, "Error clearing download history", e);
+            Log.e(TAG, "Error counting download history", e);
+            try {
+                return legacyHistory.count(legacyFilter(completedOnly, query));
+            } catch (IOException legacyError) {
+                Log.e(TAG, "Error reading legacy history", legacyError);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 数据库无法打开（例如存储空间不足）而旧版历史还没迁移时，直接流式读取旧数据，
+     * 只解析需要的那一页
+     */
+    private List<DownloadItem> readLegacyPage(boolean completedOnly, String query, int offset, int limit) {
+        try {
+            return legacyHistory.readPage(offset, limit, legacyFilter(completedOnly, query));
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading legacy history", e);
+            return new ArrayList<>();
+        }
+    }
+
+    private static Predicate<DownloadItem> legacyFilter(boolean completedOnly, String query) {
+        if (!completedOnly && (query == null || query.trim().isEmpty())) {
+            return null;
+        }
+        return item -> HistoryDatabase.matches(item, completedOnly) && HistorySearch.matches(item, query);
+    }
+
+    /**
+     * 历史记录的变化（新增、更新、删除），每次写入线程提交后发出一次
+     */
+    public Observable<HistoryChange> observeDownloadHistory() {
+        return historyWriter.changes();
+    }
+
+    /**
+     * 添加或替换一条历史记录。不阻塞调用线程，需要等待写入完成时使用返回的Future
+     */
+    public Future<Void> addDownloadToHistory(DownloadItem item) {
+        if (item == null) {
+            Log.e(TAG, "Cannot add null item to history");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // 确保下载日期已设置
+        if (item.getDownloadDate() == 0) {
+            item.setDownloadDate(System.currentTimeMillis());
+        }
+
+        // 不需要等旧版历史迁移：迁移时已存在的记录会保留，不会被旧数据覆盖
+        Log.d(TAG, "Queued history item: " + item.getId() + " - " + item.getTitle());
+        Future<Void> written = historyWriter.put(item);
+        // 长时间不重启的进程也要定期压缩，排在这次写入之后执行
+        compactDownloadHistoryIfDue();
+        return written;
+    }
+
+    public Future<Void> clearDownloadHistory() {
+        // 先完成旧版历史的迁移，否则清空后迁移会把旧记录又写回来
+        historyDatabase();
+        Log.d(TAG, "Queued clearing download history");
+        return historyWriter.clear();
+    }
+
+    /**
+     * 按保留策略压缩历史：合并过时的失败记录，删除过期、超出条数或超出空间上限的旧记录。
+     * 只是放进写入队列，在写入线程中执行
+     */
+    public Future<Void> compactDownloadHistory() {
+        sharedPreferences.edit().putLong(KEY_HISTORY_COMPACTED_AT, System.currentTimeMillis()).apply();
+        HistoryRetention retention = getHistoryRetention();
+        Log.d(TAG, "Queued history compaction: " + retention);
+        return historyWriter.compact(retention);
+    }
+
+    /**
+     * 距离上次压缩超过一天时压缩历史
+     */
+    public Future<Void> compactDownloadHistoryIfDue() {
+        long compactedAt = sharedPreferences.getLong(KEY_HISTORY_COMPACTED_AT, 0);
+        long elapsed = System.currentTimeMillis() - compactedAt;
+        // 系统时间被调回过去时也重新压缩
+        if (elapsed >= 0 && elapsed < HISTORY_COMPACT_INTERVAL_MS) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return compactDownloadHistory();
+    }
+
+    public HistoryRetention getHistoryRetention() {
+        return new HistoryRetention(
+                sharedPreferences.getInt(KEY_HISTORY_MAX_ITEMS, HistoryRetention.DEFAULT_MAX_ITEMS),
+                sharedPreferences.getInt(KEY_HISTORY_MAX_AGE_DAYS, HistoryRetention.DEFAULT_MAX_AGE_DAYS),
+                sharedPreferences.getInt(KEY_HISTORY_FAILED_MAX_AGE_DAYS, HistoryRetention.DEFAULT_FAILED_MAX_AGE_DAYS),
+                sharedPreferences.getInt(KEY_HISTORY_MAX_MEGABYTES, HistoryRetention.DEFAULT_MAX_MEGABYTES));
+    }
+
+    public void setHistoryRetention(HistoryRetention retention) {
+        sharedPreferences.edit()
+                .putInt(KEY_HISTORY_MAX_ITEMS, retention.getMaxItems())
+                .putInt(KEY_HISTORY_MAX_AGE_DAYS, retention.getMaxAgeDays())
+                .putInt(KEY_HISTORY_FAILED_MAX_AGE_DAYS, retention.getFailedMaxAgeDays())
+                .putInt(KEY_HISTORY_MAX_MEGABYTES, retention.getMaxMegabytes())
+                .apply();
+    }
+
+    /**
+     * 历史数据库，第一次访问时把旧版保存在偏好设置中的JSON历史迁移过去
+     */
+    private HistoryDatabase historyDatabase() {
+        if (!legacyHistoryChecked) {
+            synchronized (PreferenceManager.class) {
+                if (!legacyHistoryChecked) {
+                    historyDatabase.migrateLegacyHistory(legacyHistory);
+                    legacyHistoryChecked = true;
+                }
+            }
         }
+        return historyDatabase;
+    }
+
+    /**
+     * 是否使用常驻yt-dlp工作进程
+     */
+    public boolean isWarmWorkerEnabled() {
+        return sharedPreferences.getBoolean(KEY_WARM_WORKER, false);
+    }
+
+    public void setWarmWorkerEnabled(boolean enabled) {
+        sharedPreferences.edit().putBoolean(KEY_WARM_WORKER, enabled).apply();
+    }
+
+    /**
+     * 全局并发分片数，0表示根据网络类型自动选择
+     */
+    public int getConcurrentFragments() {
+        return sharedPreferences.getInt(KEY_CONCURRENT_FRAGMENTS, 0);
+    }
+
+    public void setConcurrentFragments(int fragments) {
+        sharedPreferences.edit().putInt(KEY_CONCURRENT_FRAGMENTS, fragments).apply();
+    }
+
+    /**
+     * 所有下载共享的总带宽上限（KB/s），0表示不限速
+     */
+    public int getBandwidthLimitKbps() {
+        return sharedPreferences.getInt(KEY_BANDWIDTH_LIMIT, 0);
+    }
+
+    public void setBandwidthLimitKbps(int limitKbps) {
+        sharedPreferences.edit().putInt(KEY_BANDWIDTH_LIMIT, limitKbps).apply();
+    }
+
+    /**
+     * 是否使用Java分段下载引擎传输直链（yt-dlp只负责解析）
+     */
+    public boolean isNativeEngineEnabled() {
+        return sharedPreferences.getBoolean(KEY_NATIVE_ENGINE, false);
+    }
+
+    public void setNativeEngineEnabled(boolean enabled) {
+        sharedPreferences.edit().putBoolean(KEY_NATIVE_ENGINE, enabled).apply();
+    }
+
+    /**
+     * 需要字幕时下载的语言（逗号分隔）
+     */
+    public String getSubtitleLanguages() {
+        return sharedPreferences.getString(KEY_SUBTITLE_LANGUAGES, DEFAULT_SUBTITLE_LANGUAGES);
+    }
+
+    public void setSubtitleLanguages(String languages) {
+        sharedPreferences.edit().putString(KEY_SUBTITLE_LANGUAGES, languages).apply();
+    }
+
+    /**
+     * 字幕保存格式：srt或vtt
+     */
+    public String getSubtitleFormat() {
+        return sharedPreferences.getString(KEY_SUBTITLE_FORMAT, DEFAULT_SUBTITLE_FORMAT);
+    }
+
+    public void setSubtitleFormat(String format) {
+        sharedPreferences.edit().putString(KEY_SUBTITLE_FORMAT, format).apply();
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.alootcold.youtubedownloader.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * YouTube链接解析工具，负责从各种形式的链接中提取规范的视频ID
+ */
+public final class YouTubeUrlUtils {
+
+    // YouTube视频ID固定为11位，由字母、数字、"-"和"_"组成
+    private static final Pattern VIDEO_ID_PATTERN = Pattern.compile("^[A-Za-z0-9_-]{11}$");
+    private static final Pattern HOST_PATTERN = Pattern.compile(
+            "^(?:https?://)?(?:www\\.|m\\.|music\\.)?(youtube\\.com|youtu\\.be|youtube-nocookie\\.com)(/[^#]*)?",
+            Pattern.CASE_INSENSITIVE);
+    // 路径形式：/shorts/ID、/embed/ID、/live/ID、/v/ID
+    private static final Pattern PATH_ID_PATTERN = Pattern.compile("^/(?:shorts|embed|live|v)/([^/?&]+)");
+    // 粘贴/分享的文本中，链接之间可能以空白、逗号或分号分隔
+    private static final Pattern URL_SEPARATOR_PATTERN = Pattern.compile("[\\s,;，；]+");
+
+    private YouTubeUrlUtils() {
+        // 工具类，禁止实例化
+    }
+
+    /**
+     * 从YouTube URL中提取视频ID，无法识别时返回null
+     */
+    public static String extractVideoId(String youtubeUrl) {
+        if (youtubeUrl == null || youtubeUrl.trim().isEmpty()) {
+            return null;
+        }
+
+        Matcher matcher = HOST_PATTERN.matcher(youtubeUrl.trim());
+        if (!matcher.find()) {
+            return null;
+        }
+        String host = matcher.group(1).toLowerCase();
+        String pathAndQuery = matcher.group(2) != null ? matcher.group(2) : "";
+
+        String candidate = null;
+        if (host.equals("youtu.be")) {
+            // 短链接格式：https://youtu.be/VIDEO_ID
+            candidate = pathAndQuery.length() > 1 ? pathAndQuery.substring(1) : null;
+            if (candidate != null) {
+                int end = indexOfAny(candidate, "/?&");
+                if (end != -1) {
+                    candidate = candidate.substring(0, end);
+                }
+            }
+        } else {
+            Matcher pathMatcher = PATH_ID_PATTERN.matcher(pathAndQuery);
+            if (pathMatcher.find()) {
+                candidate = pathMatcher.group(1);
+            } else {
+                // 标准格式：https://www.youtube.com/watch?v=VIDEO_ID
+                candidate = getQueryParameter(pathAndQuery, "v");
+            }
+        }
+
+        return isValidVideoId(candidate) ? candidate : null;
+    }
+
+    /**
+     * 从一段文本（多行粘贴、分享内容）中找出所有YouTube链接，按出现顺序返回，不做去重
+     */
+    public static List<String> extractUrls(String text) {
+        List<String> urls = new ArrayList<>();
+        if (text == null) {
+            return urls;
+        }
+        for (String token : URL_SEPARATOR_PATTERN.split(text)) {
+            // 去掉分享文本中常见的包裹符号
+            String candidate = token.replaceAll("^[\\s\"'(<\\[]+|[\\s\"')>\\].。]+$", "");
+            if (!candidate.isEmpty() && HOST_PATTERN.matcher(candidate).find()) {
+                urls.add(candidate);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * 判断字符串是否为合法的视频ID
+     */
+    public static boolean isValidVideoId(String videoId) {
+        return videoId != null && VIDEO_ID_PATTERN.matcher(videoId).matches();
+    }
+
+    /**
+     * 根据视频ID生成规范的观看链接，同一视频的不同链接形式会得到相同结果
+     */
+    public static String canonicalUrl(String videoId) {
+        return "https://www.youtube.com/watch?v=" + videoId;
+    }
+
+    /**
+     * 将任意YouTube链接转换为规范链接，无法识别时原样返回
+     */
+    public static String canonicalizeUrl(String youtubeUrl) {
+        String videoId = extractVideoId(youtubeUrl);
+        return videoId != null ? canonicalUrl(videoId) : youtubeUrl;
+    }
+
+    /**
+     * 视频ID对应的默认缩略图地址
+     */
+    public static String defaultThumbnailUrl(String videoId) {
+        return "https://img.youtube.com/vi/" + videoId + "/0.jpg";
+    }
+
+    private static String getQueryParameter(String pathAndQuery, String name) {
+        int queryStart = pathAndQuery.indexOf('?');
+        if (queryStart == -1) {
+            return null;
+        }
+        String[] pairs = pathAndQuery.substring(queryStart + 1).split("&");
+        for (String pair : pairs) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int indexOfAny(String value, String chars) {
+        for (int i = 0; i < value.length(); i++) {
+            if (chars.indexOf(value.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
\ No newline at end of file
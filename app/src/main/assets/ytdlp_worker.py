@@ -0,0 +1,102 @@
+# 常驻yt-dlp工作进程
+# 启动时只导入一次yt_dlp，之后通过stdin/stdout以JSON行协议接收任务、回传进度和结果
+#
+# 请求:  {"id": "...", "mode": "info" | "download", "args": [yt-dlp命令行参数]}
+# 响应:  {"type": "ready"}                        启动完成
+#        {"id": "...", "type": "progress", ...}    下载进度
+#        {"id": "...", "type": "info", "info": {}}  探测结果
+#        {"id": "...", "type": "done", "code": 0}  任务结束
+#        {"id": "...", "type": "error", "message": "..."}
+import json
+import os
+import sys
+
+
+def send(channel, message):
+    channel.write(json.dumps(message, ensure_ascii=False) + "\n")
+    channel.flush()
+
+
+def progress_line(d):
+    # 生成与yt-dlp命令行相同格式的进度行，Java端可以沿用同一套解析逻辑
+    total = d.get("total_bytes") or d.get("total_bytes_estimate") or 0
+    downloaded = d.get("downloaded_bytes") or 0
+    percent = downloaded * 100.0 / total if total else 0.0
+    line = "[download] %5.1f%%" % percent
+    if total:
+        line += " of ~%.2fMiB" % (total / 1048576.0)
+    if d.get("speed"):
+        line += " at %.2fMiB/s" % (d["speed"] / 1048576.0)
+    if d.get("eta") is not None:
+        line += " ETA %s" % d["eta"]
+    if d.get("fragment_index") and d.get("fragment_count"):
+        line += " (frag %s/%s)" % (d["fragment_index"], d["fragment_count"])
+    return percent, line
+
+
+def run_job(yt_dlp, channel, job):
+    job_id = job.get("id")
+    mode = job.get("mode", "download")
+    try:
+        parsed = yt_dlp.parse_options(job.get("args", []))
+        ydl_opts = dict(parsed.ydl_opts)
+        urls = parsed.urls
+        if not urls:
+            raise ValueError("no url")
+
+        if mode == "info":
+            ydl_opts.update(quiet=True, simulate=True, skip_download=True, forcejson=False)
+            with yt_dlp.YoutubeDL(ydl_opts) as ydl:
+                info = ydl.extract_info(urls[0], download=False)
+                send(channel, {"id": job_id, "type": "info", "info": ydl.sanitize_info(info)})
+            send(channel, {"id": job_id, "type": "done", "code": 0})
+            return
+
+        def hook(d):
+            if d.get("status") != "downloading":
+                return
+            percent, line = progress_line(d)
+            send(channel, {
+                "id": job_id,
+                "type": "progress",
+                "progress": percent,
+                "eta": d.get("eta") or -1,
+                "line": line,
+            })
+
+        with yt_dlp.YoutubeDL(ydl_opts) as ydl:
+            ydl.add_progress_hook(hook)
+            code = ydl.download(urls)
+        send(channel, {"id": job_id, "type": "done", "code": code})
+    except SystemExit as e:
+        code = e.code if isinstance(e.code, int) else 1
+        if code == 0:
+            send(channel, {"id": job_id, "type": "done", "code": 0})
+        else:
+            send(channel, {"id": job_id, "type": "error", "message": "yt-dlp exited with code %s" % code})
+    except BaseException as e:
+        send(channel, {"id": job_id, "type": "error", "message": "%s: %s" % (type(e).__name__, e)})
+
+
+def main():
+    # 协议通道使用原始stdout，yt-dlp自身的输出全部重定向到stderr，避免混入协议
+    channel = os.fdopen(os.dup(1), "w", encoding="utf-8")
+    sys.stdout = sys.stderr
+
+    sys.path.insert(0, sys.argv[1])
+    import yt_dlp
+
+    send(channel, {"type": "ready"})
+    for raw in sys.stdin:
+        raw = raw.strip()
+        if not raw:
+            continue
+        try:
+            job = json.loads(raw)
+        except ValueError:
+            continue
+        run_job(yt_dlp, channel, job)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,154 @@
+package com.alootcold.youtubedownloader.model;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 历史记录二进制编码的往返、兼容性，以及与Gson的大小对比
+ */
+public class DownloadItemCodecTest {
+    private static final int SIZE_SAMPLES = 100;
+
+    @Test
+    public void roundTripsAllFields() throws IOException {
+        DownloadItem item = sample(1);
+        DownloadItem decoded = DownloadItemCodec.decode(DownloadItemCodec.encode(item));
+
+        assertEquals(item.getId(), decoded.getId());
+        assertEquals(item.getVideoId(), decoded.getVideoId());
+        assertEquals(item.getUrl(), decoded.getUrl());
+        assertEquals(item.getTitle(), decoded.getTitle());
+        assertEquals(item.getThumbnailUrl(), decoded.getThumbnailUrl());
+        assertEquals(item.getChannel(), decoded.getChannel());
+        assertEquals(item.getProgress(), decoded.getProgress());
+        assertEquals(item.isCompleted(), decoded.isCompleted());
+        assertEquals(item.getDownloadDate(), decoded.getDownloadDate());
+        assertEquals(item.getFormat(), decoded.getFormat());
+        assertEquals(item.getStatus(), decoded.getStatus());
+        assertEquals(item.getSubtitleLanguages(), decoded.getSubtitleLanguages());
+        assertEquals(item.getSubtitleFormat(), decoded.getSubtitleFormat());
+        assertEquals(item.getClipStartMs(), decoded.getClipStartMs());
+        assertEquals(item.getClipEndMs(), decoded.getClipEndMs());
+        assertEquals(item.getFullSizeBytes(), decoded.getFullSizeBytes());
+        assertEquals(item.getClipSizeBytes(), decoded.getClipSizeBytes());
+        assertEquals(item.getFileSizeBytes(), decoded.getFileSizeBytes());
+        assertEquals(item.getPhaseTimings(), decoded.getPhaseTimings());
+    }
+
+    @Test
+    public void roundTripsDefaults() throws IOException {
+        DownloadItem item = new DownloadItem("x", null, null, null);
+        DownloadItem decoded = DownloadItemCodec.decode(DownloadItemCodec.encode(item));
+
+        assertEquals("x", decoded.getId());
+        assertEquals(item.getFormat(), decoded.getFormat());
+        assertEquals(0, decoded.getProgress());
+        assertTrue(decoded.getPhaseTimings().isEmpty());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws IOException {
+        byte[] data = DownloadItemCodec.encode(sample(1));
+        // 新版本追加的字段：编号30的字符串和编号31的整数
+        byte[] extended = Arrays.copyOf(data, data.length + 7);
+        int position = data.length;
+        extended[position++] = (byte) (0x80 | ((30 << 3 | 2) & 0x7f));
+        extended[position++] = (byte) ((30 << 3 | 2) >> 7);
+        extended[position++] = 1;
+        extended[position++] = 'x';
+        extended[position++] = (byte) (0x80 | ((31 << 3) & 0x7f));
+        extended[position++] = (byte) ((31 << 3) >> 7);
+        extended[position] = 5;
+
+        assertEquals(sample(1).getTitle(), DownloadItemCodec.decode(extended).getTitle());
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] data = DownloadItemCodec.encode(sample(1));
+        // 在标题字符串中间截断
+        byte[] title = "Rick Astley".getBytes(StandardCharsets.UTF_8);
+        int position = indexOf(data, title);
+        assertTrue(position > 0);
+        try {
+            DownloadItemCodec.decode(Arrays.copyOf(data, position + title.length / 2));
+            fail("截断的数据应抛出异常");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void rejectsNewerSchema() {
+        byte[] data = DownloadItemCodec.encode(sample(1));
+        data[2] = (byte) (DownloadItemCodec.SCHEMA_VERSION + 1);
+        try {
+            DownloadItemCodec.decode(data);
+            fail("更高的结构版本应抛出异常");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void sharesDecodedFormatStrings() throws IOException {
+        DownloadItem item = sample(1);
+        item.setFormat("bestvideo[height<=1080][fps<=30]+bestaudio");
+        byte[] data = DownloadItemCodec.encode(item);
+
+        assertSame(DownloadItemCodec.decode(data).getFormat(), DownloadItemCodec.decode(data).getFormat());
+    }
+
+    /**
+     * 编码后的大小与之前存储用的Gson对比
+     */
+    @Test
+    public void smallerThanGson() {
+        Gson gson = new Gson();
+        long codecBytes = 0;
+        long gsonBytes = 0;
+        for (int i = 0; i < SIZE_SAMPLES; i++) {
+            DownloadItem item = sample(i);
+            codecBytes += DownloadItemCodec.encode(item).length;
+            gsonBytes += gson.toJson(item).getBytes(StandardCharsets.UTF_8).length;
+        }
+        assertTrue("codec " + codecBytes + " bytes, gson " + gsonBytes + " bytes", codecBytes * 2 < gsonBytes);
+    }
+
+    private static int indexOf(byte[] data, byte[] part) {
+        for (int i = 0; i + part.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static DownloadItem sample(int index) {
+        DownloadItem item = new DownloadItem("https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+                "bestvideo[height<=1080]+bestaudio", "Rick Astley - Never Gonna Give You Up " + index, "下载完成", true);
+        item.setThumbnailUrl("https://i.ytimg.com/vi/dQw4w9WgXcQ/hqdefault.jpg");
+        item.setChannel("Rick Astley");
+        item.setProgress(100);
+        item.setCompleted(true);
+        item.setDownloadDate(1760000000000L + index);
+        item.setSubtitles("zh-Hans,zh-Hant,en", "srt");
+        item.setClip(1000, 61000);
+        item.setClipSizes(50000000L, 3000000L);
+        item.setFileSizeBytes(3100000L);
+        item.startPhase();
+        item.endPhase(DownloadItem.PHASE_DOWNLOAD);
+        item.endPhase(DownloadItem.PHASE_POST_PROCESS);
+        return item;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.alootcold.youtubedownloader.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 续传检查点的保存、读取和校验头比较
+ */
+public class DownloadCheckpointTest {
+    private static final long CHUNK_SIZE = 1000;
+    private static final long TOTAL = 3500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        target = new File(folder.getRoot(), "video.mp4");
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(TOTAL);
+        }
+    }
+
+    @Test
+    public void roundTripsSegmentsAndValidator() throws IOException {
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        checkpoint.retainIfMatches(new DownloadCheckpoint.Validator("\"abc\"", "Mon, 19 Oct 2026 10:00:00 GMT"));
+        checkpoint.addBytes(0, CHUNK_SIZE);
+        checkpoint.addBytes(3, 200);
+        checkpoint.save();
+
+        DownloadCheckpoint loaded = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        assertEquals(4, loaded.getChunkCount());
+        assertTrue(loaded.isComplete(0));
+        assertEquals(0, loaded.getCompletedBytes(1));
+        assertEquals(200, loaded.getCompletedBytes(3));
+        assertEquals(CHUNK_SIZE + 200, loaded.getDownloadedBytes());
+        assertEquals("\"abc\"", loaded.getValidator().etag);
+        assertEquals("Mon, 19 Oct 2026 10:00:00 GMT", loaded.getValidator().lastModified);
+        assertFalse(new File(target.getPath() + DownloadCheckpoint.SUFFIX + ".tmp").exists());
+    }
+
+    @Test
+    public void lastSegmentIsShorter() {
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        assertEquals(3000, checkpoint.chunkStart(3));
+        assertEquals(500, checkpoint.chunkLength(3));
+        checkpoint.addBytes(3, 800);
+        assertTrue(checkpoint.isComplete(3));
+        assertEquals(500, checkpoint.getCompletedBytes(3));
+    }
+
+    @Test
+    public void ignoresCorruptFile() throws IOException {
+        Files.write(checkpointFile().toPath(), "garbage\nseg x".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE).getDownloadedBytes());
+
+        Files.write(checkpointFile().toPath(), "segments 2\nseg 0 abc\n".getBytes(StandardCharsets.UTF_8));
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        assertEquals(0, checkpoint.getDownloadedBytes());
+        assertTrue(checkpoint.getValidator().isEmpty());
+    }
+
+    @Test
+    public void resetsWhenLayoutChanged() throws IOException {
+        saveWithSegments(CHUNK_SIZE, 500);
+
+        assertEquals(0, DownloadCheckpoint.load(target, TOTAL + 1, CHUNK_SIZE).getDownloadedBytes());
+        assertEquals(0, DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE * 2).getDownloadedBytes());
+        assertEquals(CHUNK_SIZE + 500, DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE).getDownloadedBytes());
+    }
+
+    @Test
+    public void dropsSegmentsBeyondTruncatedFile() throws IOException {
+        saveWithSegments(CHUNK_SIZE, 500);
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(1200);
+        }
+
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        // 第一个分段仍在文件内，第二个分段记录的500字节超出了截断后的长度
+        assertEquals(CHUNK_SIZE, checkpoint.getCompletedBytes(0));
+        assertEquals(0, checkpoint.getCompletedBytes(1));
+    }
+
+    @Test
+    public void emptyWhenTargetMissing() throws IOException {
+        saveWithSegments(CHUNK_SIZE, 0);
+        assertTrue(target.delete());
+
+        assertEquals(0, DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE).getDownloadedBytes());
+    }
+
+    @Test
+    public void retainsSegmentsOnlyForSameVersion() throws IOException {
+        saveWithSegments(CHUNK_SIZE, 500);
+
+        DownloadCheckpoint same = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        assertEquals(0, same.retainIfMatches(new DownloadCheckpoint.Validator("\"v1\"", null)));
+        assertEquals(CHUNK_SIZE + 500, same.getDownloadedBytes());
+
+        DownloadCheckpoint changed = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        assertEquals(CHUNK_SIZE + 500, changed.retainIfMatches(new DownloadCheckpoint.Validator("\"v2\"", null)));
+        assertEquals(0, changed.getDownloadedBytes());
+        assertEquals("\"v2\"", changed.getValidator().etag);
+    }
+
+    @Test
+    public void validatorComparison() {
+        DownloadCheckpoint.Validator etag = new DownloadCheckpoint.Validator("\"v1\"", null);
+        DownloadCheckpoint.Validator none = DownloadCheckpoint.Validator.NONE;
+
+        assertTrue(etag.matches(new DownloadCheckpoint.Validator("\"v1\"", "other")));
+        assertFalse(etag.matches(none));
+        assertTrue(none.matches(new DownloadCheckpoint.Validator(" ", "")));
+        // 分段响应省略校验头不算冲突
+        assertFalse(etag.conflictsWith(none));
+        assertTrue(etag.conflictsWith(new DownloadCheckpoint.Validator("\"v2\"", null)));
+    }
+
+    @Test
+    public void ifRangePrefersStrongEtag() {
+        assertEquals("\"v1\"", new DownloadCheckpoint.Validator("\"v1\"", "date").ifRangeValue());
+        assertEquals("date", new DownloadCheckpoint.Validator("W/\"v1\"", "date").ifRangeValue());
+        assertNull(new DownloadCheckpoint.Validator("W/\"v1\"", null).ifRangeValue());
+    }
+
+    @Test
+    public void deleteRemovesStateFiles() throws IOException {
+        saveWithSegments(CHUNK_SIZE, 0);
+        DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE).delete();
+
+        assertFalse(checkpointFile().exists());
+        assertTrue(target.exists());
+    }
+
+    private void saveWithSegments(long first, long second) throws IOException {
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        checkpoint.retainIfMatches(new DownloadCheckpoint.Validator("\"v1\"", null));
+        checkpoint.addBytes(0, first);
+        checkpoint.addBytes(1, second);
+        checkpoint.save();
+    }
+
+    private File checkpointFile() {
+        return new File(target.getPath() + DownloadCheckpoint.SUFFIX);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,200 @@
+package com.alootcold.youtubedownloader.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的本地HTTP服务器：支持Range和If-Range，可以换文件版本、让直链过期、让请求超时
+ */
+final class RangeServer implements AutoCloseable {
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong servedBytes = new AtomicLong();
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger stalledRequests = new AtomicInteger();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final List<String> ifRangeHeaders = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile byte[] content;
+    private volatile String etag;
+    // 不为null时只有这个路径有效，其他路径返回403，模拟直链过期
+    private volatile String livePath;
+    private volatile long blockDelayMs;
+    private volatile long stallMs;
+    // 服务的字节数超过switchAfter后换成下一个版本
+    private volatile long switchAfter = -1;
+    private volatile byte[] nextContent;
+    private volatile String nextEtag;
+    private volatile String nextLivePath;
+
+    RangeServer(byte[] content, String etag) throws IOException {
+        this.content = content;
+        this.etag = etag;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    void setContent(byte[] content, String etag) {
+        this.content = content;
+        this.etag = etag;
+    }
+
+    void setLivePath(String livePath) {
+        this.livePath = livePath;
+    }
+
+    void setBlockDelayMs(long blockDelayMs) {
+        this.blockDelayMs = blockDelayMs;
+    }
+
+    /**
+     * 已服务的字节数超过bytes后换成新版本，新请求按新版本处理，进行中的响应继续发送旧内容
+     */
+    void switchContentAfter(long bytes, byte[] content, String etag) {
+        nextContent = content;
+        nextEtag = etag;
+        switchAfter = bytes;
+    }
+
+    /**
+     * 已服务的字节数超过bytes后只有livePath有效
+     */
+    void expireAfter(long bytes, String livePath) {
+        nextLivePath = livePath;
+        switchAfter = bytes;
+    }
+
+    /**
+     * 接下来的count个分段请求（不含探测请求）先等待ms毫秒再响应
+     */
+    void stallNextRequests(int count, long ms) {
+        stallMs = ms;
+        stalledRequests.set(count);
+    }
+
+    long getServedBytes() {
+        return servedBytes.get();
+    }
+
+    /**
+     * 等取消的下载留下的响应都结束后清零，之后的计数只包含新的请求
+     */
+    void resetServedBytes() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (activeRequests.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        servedBytes.set(0);
+    }
+
+    /**
+     * 请求带Range但返回了200整个文件的次数
+     */
+    int getFullResponses() {
+        return fullResponses.get();
+    }
+
+    List<String> getIfRangeHeaders() {
+        synchronized (ifRangeHeaders) {
+            return new ArrayList<>(ifRangeHeaders);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        activeRequests.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String live = livePath;
+            if (live != null && !live.equals(path)) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            byte[] data = content;
+            String tag = etag;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null) {
+                ifRangeHeaders.add(ifRange);
+            }
+            int start = 0;
+            int end = data.length - 1;
+            int code = 200;
+            if (range != null && (ifRange == null || ifRange.equals(tag))) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+                code = 206;
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            } else if (range != null) {
+                fullResponses.incrementAndGet();
+            }
+            exchange.getResponseHeaders().add("ETag", tag);
+            if (end > 0 && stalledRequests.getAndDecrement() > 0) {
+                sleep(stallMs);
+            }
+            exchange.sendResponseHeaders(code, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int position = start; position <= end; position += BLOCK_SIZE) {
+                    int length = Math.min(BLOCK_SIZE, end - position + 1);
+                    out.write(data, position, length);
+                    onServed(length);
+                    sleep(blockDelayMs);
+                }
+            }
+        } catch (IOException ignored) {
+            // 客户端超时或取消后断开连接
+        } finally {
+            exchange.close();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private synchronized void onServed(int length) {
+        long served = servedBytes.addAndGet(length);
+        if (switchAfter >= 0 && served > switchAfter) {
+            switchAfter = -1;
+            if (nextContent != null) {
+                setContent(nextContent, nextEtag);
+            }
+            if (nextLivePath != null) {
+                livePath = nextLivePath;
+            }
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
\ No newline at end of file
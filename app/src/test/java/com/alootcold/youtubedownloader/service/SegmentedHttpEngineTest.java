@@ -0,0 +1,241 @@
+package com.alootcold.youtubedownloader.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 分段下载引擎对本地Range服务器的端到端测试：续传、版本变化、直链刷新和超时重试
+ */
+public class SegmentedHttpEngineTest {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int TOTAL = 4 * CHUNK_SIZE + 123;
+    private static final String ETAG_V1 = "\"v1\"";
+    private static final String ETAG_V2 = "\"v2\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] v1;
+    private byte[] v2;
+    private RangeServer server;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        v1 = randomBytes(1);
+        v2 = randomBytes(2);
+        server = new RangeServer(v1, ETAG_V1);
+        target = new File(folder.getRoot(), "video.mp4");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void downloadsAllSegments() throws Exception {
+        engine().download(request("/a"), null);
+
+        assertArrayEquals(v1, read(target));
+        assertFalse(checkpointFile().exists());
+        // 探测请求只取1个字节，其余每个字节只下载一次
+        assertEquals(TOTAL + 1, server.getServedBytes());
+    }
+
+    @Test
+    public void resumesFromCheckpointWithIfRange() throws Exception {
+        writePartial(v1, ETAG_V1, CHUNK_SIZE + 1000);
+
+        engine().download(request("/a"), null);
+
+        assertArrayEquals(v1, read(target));
+        assertEquals(TOTAL - CHUNK_SIZE - 1000 + 1, server.getServedBytes());
+        assertFalse(server.getIfRangeHeaders().isEmpty());
+        for (String ifRange : server.getIfRangeHeaders()) {
+            assertEquals(ETAG_V1, ifRange);
+        }
+        assertFalse(checkpointFile().exists());
+    }
+
+    @Test
+    public void restartsWhenEtagChangedBetweenRuns() throws Exception {
+        writePartial(v1, ETAG_V1, 2 * CHUNK_SIZE);
+        server.setContent(v2, ETAG_V2);
+
+        engine().download(request("/a"), null);
+
+        // 旧版本的分段全部丢弃，不会把新旧内容拼在一起
+        assertArrayEquals(v2, read(target));
+        assertEquals(TOTAL + 1, server.getServedBytes());
+    }
+
+    @Test
+    public void restartsWhenContentChangesDuringDownload() throws Exception {
+        server.setBlockDelayMs(2);
+        server.switchContentAfter(CHUNK_SIZE, v2, ETAG_V2);
+
+        engine().download(request("/a"), null);
+
+        assertArrayEquals(v2, read(target));
+        assertTrue(server.getFullResponses() > 0);
+        assertFalse(checkpointFile().exists());
+    }
+
+    @Test
+    public void interruptedDownloadLeavesCheckpointAndResumes() throws Exception {
+        server.setBlockDelayMs(5);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] downloader = new Thread[1];
+        downloader[0] = new Thread(() -> {
+            try {
+                // 第一次进度回调时取消下载
+                engine().download(request("/a"), (downloaded, total) -> {
+                    if (downloaded > 0 && downloaded < total) {
+                        downloader[0].interrupt();
+                    }
+                });
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        downloader[0].start();
+        downloader[0].join();
+
+        Throwable cancelled = error.get();
+        assertNotNull("下载应被取消", cancelled);
+        assertTrue(cancelled instanceof InterruptedException || cancelled instanceof InterruptedIOException);
+        assertTrue(checkpointFile().exists());
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, TOTAL, CHUNK_SIZE);
+        long kept = checkpoint.getDownloadedBytes();
+        assertTrue(kept > 0 && kept < TOTAL);
+
+        server.setBlockDelayMs(0);
+        server.resetServedBytes();
+        engine().download(request("/a"), null);
+
+        assertArrayEquals(v1, read(target));
+        assertEquals(TOTAL - kept + 1, server.getServedBytes());
+    }
+
+    @Test
+    public void refreshesExpiredUrlWithoutDownloadingTwice() throws Exception {
+        server.setLivePath("/a");
+        server.setBlockDelayMs(2);
+        server.expireAfter(CHUNK_SIZE, "/b");
+        AtomicInteger refreshes = new AtomicInteger();
+        DownloadEngine.Request request = request("/a").setUrlRefresher(expired -> {
+            refreshes.incrementAndGet();
+            return server.url("/b");
+        });
+
+        engine().download(request, null);
+
+        assertArrayEquals(v1, read(target));
+        assertEquals(1, refreshes.get());
+        assertEquals(server.url("/b"), request.getUrl());
+        // 校验头不变，过期前已下载的分段全部保留
+        assertEquals(TOTAL + 1, server.getServedBytes());
+    }
+
+    @Test
+    public void resumesWithUrlThatExpiredWhilePaused() throws Exception {
+        writePartial(v1, ETAG_V1, 2 * CHUNK_SIZE + 500);
+        // 暂停期间直链过期，恢复时第一个请求就是403
+        server.setLivePath("/b");
+        AtomicInteger refreshes = new AtomicInteger();
+        DownloadEngine.Request request = request("/a").setUrlRefresher(expired -> {
+            refreshes.incrementAndGet();
+            return server.url("/b");
+        });
+
+        engine().download(request, null);
+
+        assertArrayEquals(v1, read(target));
+        assertEquals(1, refreshes.get());
+        // 从检查点继续，只下载剩余部分
+        assertEquals(TOTAL - 2 * CHUNK_SIZE - 500 + 1, server.getServedBytes());
+        for (String ifRange : server.getIfRangeHeaders()) {
+            assertEquals(ETAG_V1, ifRange);
+        }
+    }
+
+    @Test
+    public void expiredUrlWithoutRefresherFails() throws Exception {
+        server.setLivePath("/b");
+        try {
+            engine().download(request("/a"), null);
+            fail("直链过期且无法刷新时应失败");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void retriesReadTimeout() throws Exception {
+        server.stallNextRequests(1, 1500);
+
+        new SegmentedHttpEngine(2, CHUNK_SIZE, 300).download(request("/a"), null);
+
+        assertArrayEquals(v1, read(target));
+    }
+
+    private SegmentedHttpEngine engine() {
+        return new SegmentedHttpEngine(2, CHUNK_SIZE);
+    }
+
+    private DownloadEngine.Request request(String path) {
+        return new DownloadEngine.Request(server.url(path), target);
+    }
+
+    private File checkpointFile() {
+        return new File(target.getPath() + DownloadCheckpoint.SUFFIX);
+    }
+
+    /**
+     * 写入前bytes个字节和对应的检查点，模拟上次下载到一半
+     */
+    private void writePartial(byte[] content, String etag, int bytes) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(content.length);
+            file.write(content, 0, bytes);
+        }
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(target, content.length, CHUNK_SIZE);
+        checkpoint.retainIfMatches(new DownloadCheckpoint.Validator(etag, null));
+        for (int index = 0; bytes > 0; index++) {
+            long written = Math.min(bytes, checkpoint.chunkLength(index));
+            checkpoint.addBytes(index, written);
+            bytes -= written;
+        }
+        checkpoint.save();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static byte[] randomBytes(long seed) {
+        byte[] bytes = new byte[TOTAL];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
\ No newline at end of file